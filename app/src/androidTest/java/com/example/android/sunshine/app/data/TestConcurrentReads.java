@@ -0,0 +1,213 @@
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Reads the forecast list while another thread writes forecasts, the way the lists and widgets
+    read while the sync runs, once with the rollback journal and once with write-ahead logging.
+
+    Both modes are only available to compare from Jelly Bean, which can switch the log off
+    before the database opens, so the tests do nothing on older versions.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+public class TestConcurrentReads extends AndroidTestCase {
+    private static final String LOG_TAG = TestConcurrentReads.class.getSimpleName();
+
+    private static final String DB_NAME = "concurrent_reads_test.db";
+
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final long START = TestUtilities.TEST_DATE * 1000;
+    private static final int DAYS = 14;
+
+    // How long the writer keeps writing, and how long each of its transactions lasts
+    private static final long WRITE_MILLIS = 2000;
+    private static final long TRANSACTION_MILLIS = 50;
+
+    private WeatherDbHelper mHelper;
+    private long mLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(DB_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mHelper != null) {
+            mHelper.close();
+        }
+        mContext.deleteDatabase(DB_NAME);
+        super.tearDown();
+    }
+
+    private static boolean canCompare() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN;
+    }
+
+    /**
+     * Opens a fresh database with a location and its days, with or without the log.
+     */
+    private SQLiteDatabase open(boolean writeAheadLogging) {
+        if (mHelper != null) {
+            mHelper.close();
+            mContext.deleteDatabase(DB_NAME);
+        }
+        mHelper = new WeatherDbHelper(mContext, DB_NAME);
+        mHelper.setWriteAheadLoggingEnabled(writeAheadLogging);
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        assertEquals(writeAheadLogging, db.isWriteAheadLoggingEnabled());
+
+        mLocationRowId = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        for (int day = 0; day < DAYS; day++) {
+            db.insert(WeatherEntry.TABLE_NAME, null, createDay(day));
+        }
+        return db;
+    }
+
+    private ContentValues createDay(int day) {
+        ContentValues values = TestUtilities.createWeatherValues(mLocationRowId);
+        values.put(WeatherEntry.COLUMN_DATE, START + day * DAY_MILLIS);
+        return values;
+    }
+
+    /**
+     * Runs the forecast list's query and reads every row, as the list's cursor does.
+     *
+     * @return the number of days.
+     */
+    private int readList(SQLiteDatabase db) {
+        Cursor cursor = WeatherProvider.sWeatherByLocationSettingQueryBuilder.query(db,
+                new String[]{WeatherEntry.COLUMN_DATE, WeatherEntry.COLUMN_SHORT_DESC,
+                        WeatherEntry.COLUMN_MAX_TEMP, WeatherEntry.COLUMN_MIN_TEMP},
+                WeatherProvider.sLocationSettingWithStartDateSelection,
+                new String[]{Long.toString(mLocationRowId), Long.toString(START)},
+                null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Rewrites the days over and over, in transactions about as long as a sync's, until told
+     * to stop.
+     */
+    private Thread startWriter(final SQLiteDatabase db, final long untilNanos) {
+        Thread writer = new Thread("writer") {
+            @Override
+            public void run() {
+                int day = 0;
+                while (System.nanoTime() < untilNanos) {
+                    long transactionEnd = System.nanoTime() + TRANSACTION_MILLIS * 1000000;
+                    db.beginTransaction();
+                    try {
+                        while (System.nanoTime() < transactionEnd) {
+                            db.insert(WeatherEntry.TABLE_NAME, null, createDay(day++ % DAYS));
+                        }
+                        db.setTransactionSuccessful();
+                    } finally {
+                        db.endTransaction();
+                    }
+                }
+            }
+        };
+        writer.start();
+        return writer;
+    }
+
+    /**
+     * @return the latency of each read made while the writer ran, in milliseconds, sorted.
+     */
+    private List<Double> measureReads(SQLiteDatabase db) throws InterruptedException {
+        long until = System.nanoTime() + WRITE_MILLIS * 1000000;
+        Thread writer = startWriter(db, until);
+        List<Double> latencies = new ArrayList<Double>();
+        while (System.nanoTime() < until) {
+            long start = System.nanoTime();
+            assertEquals(DAYS, readList(db));
+            latencies.add((System.nanoTime() - start) / 1e6);
+        }
+        writer.join();
+        Collections.sort(latencies);
+        return latencies;
+    }
+
+    private static String describe(List<Double> latencies) {
+        return latencies.size() + " reads, p50 "
+                + latencies.get(latencies.size() / 2) + "ms, p95 "
+                + latencies.get(latencies.size() * 95 / 100) + "ms, max "
+                + latencies.get(latencies.size() - 1) + "ms";
+    }
+
+    /*
+        Not a correctness check, just a repeatable load run for comparing the two modes.
+     */
+    public void testReadLatencyDuringWrites() throws Throwable {
+        if (!canCompare()) {
+            return;
+        }
+        List<Double> rollback = measureReads(open(false));
+        List<Double> wal = measureReads(open(true));
+        Log.d(LOG_TAG, "While writing, rollback journal: " + describe(rollback)
+                + "; write-ahead log: " + describe(wal));
+    }
+
+    /*
+        A read made while the writer holds its transaction open shouldn't wait for it, and should
+        see the data as it was before the transaction.
+     */
+    public void testReadDuringOpenTransaction() throws Throwable {
+        if (!canCompare()) {
+            return;
+        }
+        final SQLiteDatabase db = open(true);
+        final CountDownLatch written = new CountDownLatch(1);
+        final CountDownLatch readDone = new CountDownLatch(1);
+        Thread writer = new Thread("writer") {
+            @Override
+            public void run() {
+                db.beginTransaction();
+                try {
+                    db.insert(WeatherEntry.TABLE_NAME, null, createDay(DAYS));
+                    written.countDown();
+                    // Bounded, so a read that blocks fails the test rather than hanging it
+                    readDone.await(5, TimeUnit.SECONDS);
+                    db.setTransactionSuccessful();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+        };
+        writer.start();
+        assertTrue(written.await(5, TimeUnit.SECONDS));
+
+        long start = System.nanoTime();
+        int days = readList(db);
+        long millis = (System.nanoTime() - start) / 1000000;
+        readDone.countDown();
+        writer.join();
+
+        assertTrue("Error: The read waited " + millis + "ms for the write", millis < 1000);
+        assertEquals("Error: The read should only see committed days", DAYS, days);
+        assertEquals(DAYS + 1, readList(db));
+    }
+}
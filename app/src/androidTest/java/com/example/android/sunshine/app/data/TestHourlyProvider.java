@@ -0,0 +1,194 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+/*
+    Covers the 3 hourly forecast table through the provider: batched inserts, range queries for
+    one location, and the retention delete the sync runs.  testIngestAndQueryThroughput logs how
+    long a few days of slots for many locations take to store and read back.
+ */
+public class TestHourlyProvider extends AndroidTestCase {
+    private static final String LOG_TAG = TestHourlyProvider.class.getSimpleName();
+
+    private static final long SLOT_MILLIS = 3 * 60 * 60 * 1000L;
+    private static final long DAY_MILLIS = 8 * SLOT_MILLIS;
+    // 5 days of 3 hour slots, like the real API
+    private static final int SLOTS = 40;
+    private static final int BATCH_SIZE = 64;
+    // December 20th, 2014, in milliseconds
+    private static final long START = TestUtilities.TEST_DATE * 1000;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(HourlyEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private long insertLocation(String locationSetting) {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        Uri uri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values);
+        return Long.parseLong(uri.getLastPathSegment());
+    }
+
+    private static ContentValues createHourlyValues(long locationRowId, long dateTime, double temp) {
+        ContentValues values = new ContentValues();
+        values.put(HourlyEntry.COLUMN_LOC_KEY, locationRowId);
+        values.put(HourlyEntry.COLUMN_DATE_TIME, dateTime);
+        values.put(HourlyEntry.COLUMN_WEATHER_ID, 800);
+        values.put(HourlyEntry.COLUMN_SHORT_DESC, "Clear");
+        values.put(HourlyEntry.COLUMN_TEMP, temp);
+        values.put(HourlyEntry.COLUMN_MIN_TEMP, temp - 1);
+        values.put(HourlyEntry.COLUMN_MAX_TEMP, temp + 1);
+        values.put(HourlyEntry.COLUMN_HUMIDITY, 60.0);
+        values.put(HourlyEntry.COLUMN_PRESSURE, 1013.25);
+        values.put(HourlyEntry.COLUMN_WIND_SPEED, 3.5);
+        values.put(HourlyEntry.COLUMN_DEGREES, 180.0);
+        return values;
+    }
+
+    private static ContentValues[] createSlots(long locationRowId, double temp) {
+        ContentValues[] slots = new ContentValues[SLOTS];
+        for (int i = 0; i < SLOTS; i++) {
+            slots[i] = createHourlyValues(locationRowId, START + i * SLOT_MILLIS, temp + i);
+        }
+        return slots;
+    }
+
+    private int count(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(uri, null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    public void testRangeQuery() {
+        long locationRowId = insertLocation(TestUtilities.TEST_LOCATION);
+        long otherRowId = insertLocation("other");
+        assertEquals(SLOTS, mContext.getContentResolver().bulkInsert(HourlyEntry.CONTENT_URI,
+                createSlots(locationRowId, 10)));
+        mContext.getContentResolver().bulkInsert(HourlyEntry.CONTENT_URI,
+                createSlots(otherRowId, 20));
+
+        // The second day: 8 slots, the end of the range being exclusive
+        Cursor cursor = mContext.getContentResolver().query(
+                HourlyEntry.buildHourlyLocationWithRange(TestUtilities.TEST_LOCATION,
+                        START + DAY_MILLIS, START + 2 * DAY_MILLIS),
+                null, null, null, HourlyEntry.COLUMN_DATE_TIME + " ASC");
+        assertEquals("Error: A day should have 8 slots", 8, cursor.getCount());
+        cursor.moveToFirst();
+        TestUtilities.validateCurrentRecord("Error: Wrong first slot of the day", cursor,
+                createHourlyValues(locationRowId, START + DAY_MILLIS, 18));
+        cursor.close();
+
+        assertEquals("Error: Without a range every slot of the location should be returned",
+                SLOTS, count(HourlyEntry.buildHourlyLocation(TestUtilities.TEST_LOCATION)));
+    }
+
+    /*
+        Refetching a slot replaces it rather than adding a second row for the same time.
+     */
+    public void testRefetchReplaces() {
+        long locationRowId = insertLocation(TestUtilities.TEST_LOCATION);
+        mContext.getContentResolver().bulkInsert(HourlyEntry.CONTENT_URI,
+                createSlots(locationRowId, 10));
+        mContext.getContentResolver().bulkInsert(HourlyEntry.CONTENT_URI,
+                createSlots(locationRowId, 30));
+
+        assertEquals(SLOTS, count(HourlyEntry.CONTENT_URI));
+        Cursor cursor = mContext.getContentResolver().query(
+                HourlyEntry.buildHourlyLocationWithRange(TestUtilities.TEST_LOCATION,
+                        START, START + SLOT_MILLIS),
+                null, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(30.0, cursor.getDouble(cursor.getColumnIndex(HourlyEntry.COLUMN_TEMP)));
+        cursor.close();
+    }
+
+    /*
+        The same delete the sync runs once it has stored new slots.
+     */
+    public void testRetention() {
+        long locationRowId = insertLocation(TestUtilities.TEST_LOCATION);
+        mContext.getContentResolver().bulkInsert(HourlyEntry.CONTENT_URI,
+                createSlots(locationRowId, 10));
+
+        long cutoff = START + DAY_MILLIS;
+        int deleted = mContext.getContentResolver().delete(HourlyEntry.CONTENT_URI,
+                HourlyEntry.COLUMN_DATE_TIME + " < ?", new String[] {Long.toString(cutoff)});
+        assertEquals("Error: The first day's slots should have been deleted", 8, deleted);
+        assertEquals(SLOTS - 8, count(HourlyEntry.CONTENT_URI));
+        assertEquals(0, count(HourlyEntry.buildHourlyLocationWithRange(
+                TestUtilities.TEST_LOCATION, START, cutoff)));
+    }
+
+    /*
+        Not a correctness check, just a repeatable load run: 100 locations' worth of slots
+        written in batches the size the sync uses, then a day's range read for each location a
+        few times over.
+     */
+    public void testIngestAndQueryThroughput() {
+        final int locations = 100;
+        final int queryRounds = 5;
+
+        long[] locationRowIds = new long[locations];
+        for (int i = 0; i < locations; i++) {
+            locationRowIds[i] = insertLocation("stub-" + i);
+        }
+
+        long start = System.nanoTime();
+        int inserted = 0;
+        ContentValues[] batch = new ContentValues[BATCH_SIZE];
+        int batchCount = 0;
+        for (long locationRowId : locationRowIds) {
+            for (ContentValues slot : createSlots(locationRowId, 10)) {
+                batch[batchCount++] = slot;
+                if (batchCount == BATCH_SIZE) {
+                    inserted += mContext.getContentResolver().bulkInsert(HourlyEntry.CONTENT_URI, batch);
+                    batchCount = 0;
+                }
+            }
+        }
+        if (batchCount > 0) {
+            ContentValues[] rest = new ContentValues[batchCount];
+            System.arraycopy(batch, 0, rest, 0, batchCount);
+            inserted += mContext.getContentResolver().bulkInsert(HourlyEntry.CONTENT_URI, rest);
+        }
+        long insertMillis = Math.max(1, (System.nanoTime() - start) / 1000000);
+        assertEquals(locations * SLOTS, inserted);
+
+        start = System.nanoTime();
+        int rowsRead = 0;
+        for (int round = 0; round < queryRounds; round++) {
+            for (int i = 0; i < locations; i++) {
+                rowsRead += count(HourlyEntry.buildHourlyLocationWithRange("stub-" + i,
+                        START + round * DAY_MILLIS, START + (round + 1) * DAY_MILLIS));
+            }
+        }
+        long queryMillis = Math.max(1, (System.nanoTime() - start) / 1000000);
+        assertEquals(locations * SLOTS, rowsRead);
+
+        Log.d(LOG_TAG, inserted + " slots inserted in " + insertMillis + "ms ("
+                + (inserted * 1000L / insertMillis) + " rows/s), "
+                + (locations * queryRounds) + " day queries in " + queryMillis + "ms ("
+                + (locations * queryRounds * 1000L / queryMillis) + " queries/s)");
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+public class TestLocationIdCache extends AndroidTestCase {
+
+    private LocationIdCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherContract.HourlyEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        mCache = new LocationIdCache(mContext.getContentResolver());
+    }
+
+    private long insertLocation(String locationSetting, long cityId) {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        if (cityId != 0) {
+            values.put(LocationEntry.COLUMN_CITY_ID, cityId);
+        }
+        Uri uri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values);
+        return Long.parseLong(uri.getLastPathSegment());
+    }
+
+    /*
+        Looking up several locations, several times, should read the location table once.
+     */
+    public void testOneLoadForManyLocations() {
+        long[] ids = new long[5];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = insertLocation("location" + i, 1000 + i);
+        }
+        // Created after the inserts, so their notifications don't reach it
+        mCache = new LocationIdCache(mContext.getContentResolver());
+
+        for (int sync = 0; sync < 3; sync++) {
+            for (int i = 0; i < ids.length; i++) {
+                assertEquals(ids[i], mCache.getLocationId("location" + i));
+                assertEquals(1000 + i, mCache.getCityId("location" + i));
+            }
+        }
+        assertEquals(1, mCache.getLoadCount());
+        assertEquals(5, mCache.getCityIds().size());
+    }
+
+    public void testUnknownLocation() {
+        insertLocation("known", 0);
+        assertEquals(-1, mCache.getLocationId("unknown"));
+        assertEquals(0, mCache.getCityId("unknown"));
+        assertEquals("Error: A location without a city ID shouldn't be listed",
+                0, mCache.getCityIds().size());
+    }
+
+    /*
+        A location that isn't stored is known to be absent once the table is loaded, so asking
+        for it again doesn't reload anything until the table changes.
+     */
+    public void testMissIsCached() throws Throwable {
+        insertLocation("first", 0);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(-1, mCache.getLocationId(TestUtilities.TEST_LOCATION));
+        }
+        assertEquals("Error: Misses shouldn't reload the table", 1, mCache.getLoadCount());
+        assertEquals(10, mCache.getMissCount());
+
+        // This cache only hears about the insert through the notification
+        long id = TestUtilities.insertNorthPoleLocationValues(mContext);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (mCache.getLocationId(TestUtilities.TEST_LOCATION) != id) {
+            assertTrue("Error: The notification never invalidated the cache",
+                    System.currentTimeMillis() < deadline);
+            Thread.sleep(50);
+        }
+    }
+
+    /*
+        Changes made through the provider are seen right away, by the process-wide cache the
+        provider keeps up to date, and soon after by any other cache through the notification.
+     */
+    public void testProviderChanges() throws Throwable {
+        LocationIdCache shared = LocationIdCache.getInstance(mContext);
+        long id = insertLocation("moving", 0);
+        assertEquals(id, shared.getLocationId("moving"));
+
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_CITY_ID, 42L);
+        mContext.getContentResolver().update(LocationEntry.CONTENT_URI, values,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(id)});
+        assertEquals(42, shared.getCityId("moving"));
+
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        assertEquals(-1, shared.getLocationId("moving"));
+
+        // This one's only told through the notification, which arrives on another thread
+        id = insertLocation("other", 0);
+        assertEquals(id, mCache.getLocationId("other"));
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (mCache.getLocationId("other") != -1) {
+            assertTrue("Error: The notification never invalidated the cache",
+                    System.currentTimeMillis() < deadline);
+            Thread.sleep(50);
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+    Upgrades databases written with the version 2 schema, the one the app first shipped with,
+    and checks that the locations and forecasts survive and that the schema comes out the same
+    as a fresh install's.  testLargeDatabase logs how long each step takes on a database with
+    a long history for many locations.
+ */
+public class TestMigrations extends AndroidTestCase {
+    private static final String LOG_TAG = TestMigrations.class.getSimpleName();
+
+    private static final String MIGRATED_NAME = "migration_test.db";
+    private static final String FRESH_NAME = "migration_fresh.db";
+
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+    // December 20th, 2014, in milliseconds
+    private static final long START = TestUtilities.TEST_DATE * 1000;
+
+    // The version 2 schema, word for word.  Written out rather than built from the contract,
+    // which describes the current schema.
+    private static final String V2_CREATE_LOCATION = "CREATE TABLE location (" +
+            "_id INTEGER PRIMARY KEY," +
+            "location_setting TEXT UNIQUE NOT NULL, " +
+            "city_name TEXT NOT NULL, " +
+            "coord_lat REAL NOT NULL, " +
+            "coord_long REAL NOT NULL " +
+            " );";
+    private static final String V2_CREATE_WEATHER = "CREATE TABLE weather (" +
+            "_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+            "location_id INTEGER NOT NULL, " +
+            "date INTEGER NOT NULL, " +
+            "short_desc TEXT NOT NULL, " +
+            "weather_id INTEGER NOT NULL," +
+            "min REAL NOT NULL, " +
+            "max REAL NOT NULL, " +
+            "humidity REAL NOT NULL, " +
+            "pressure REAL NOT NULL, " +
+            "wind REAL NOT NULL, " +
+            "degrees REAL NOT NULL, " +
+            " FOREIGN KEY (location_id) REFERENCES location (_id), " +
+            " UNIQUE (date, location_id) ON CONFLICT REPLACE);";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(MIGRATED_NAME);
+        mContext.deleteDatabase(FRESH_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(MIGRATED_NAME);
+        mContext.deleteDatabase(FRESH_NAME);
+        super.tearDown();
+    }
+
+    /**
+     * Writes a version 2 database the way the version 2 app left it.
+     */
+    private void createV2Database(int locations, int days) {
+        File path = mContext.getDatabasePath(MIGRATED_NAME);
+        path.getParentFile().mkdirs();
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(path, null);
+        try {
+            db.execSQL(V2_CREATE_LOCATION);
+            db.execSQL(V2_CREATE_WEATHER);
+            db.beginTransaction();
+            try {
+                SQLiteStatement location = db.compileStatement("INSERT INTO location "
+                        + "(location_setting, city_name, coord_lat, coord_long) VALUES (?,?,?,?)");
+                SQLiteStatement weather = db.compileStatement("INSERT INTO weather "
+                        + "(location_id, date, short_desc, weather_id, min, max, humidity, "
+                        + "pressure, wind, degrees) VALUES (?,?,?,?,?,?,?,?,?,?)");
+                for (int i = 0; i < locations; i++) {
+                    location.bindString(1, "fixture-" + i);
+                    location.bindString(2, "City " + i);
+                    location.bindDouble(3, 64.7488);
+                    location.bindDouble(4, -147.353);
+                    long locationId = location.executeInsert();
+                    for (int day = 0; day < days; day++) {
+                        weather.bindLong(1, locationId);
+                        weather.bindLong(2, START + day * DAY_MILLIS);
+                        weather.bindString(3, "Clear");
+                        weather.bindLong(4, 800);
+                        weather.bindDouble(5, day % 30);
+                        weather.bindDouble(6, day % 30 + 10);
+                        weather.bindDouble(7, 1.2);
+                        weather.bindDouble(8, 1024);
+                        weather.bindDouble(9, 5.5);
+                        weather.bindDouble(10, 1.1);
+                        weather.executeInsert();
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            db.setVersion(2);
+        } finally {
+            db.close();
+        }
+    }
+
+    private static int count(SQLiteDatabase db, String table) {
+        Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + table, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return every table and index, each with its columns' names, types and constraints.
+     */
+    private static Map<String, List<String>> describeSchema(SQLiteDatabase db) {
+        Map<String, List<String>> schema = new HashMap<String, List<String>>();
+        Cursor objects = db.rawQuery("SELECT type, name, tbl_name FROM sqlite_master "
+                + "WHERE name NOT LIKE 'sqlite_%' AND name != 'android_metadata'", null);
+        try {
+            while (objects.moveToNext()) {
+                String type = objects.getString(0);
+                String name = objects.getString(1);
+                List<String> columns = new ArrayList<String>();
+                Cursor info = db.rawQuery("table".equals(type)
+                        ? "PRAGMA table_info(" + name + ")"
+                        : "PRAGMA index_info(" + name + ")", null);
+                try {
+                    while (info.moveToNext()) {
+                        StringBuilder column = new StringBuilder(info.getString(
+                                info.getColumnIndex("name")));
+                        if ("table".equals(type)) {
+                            column.append(' ').append(info.getString(info.getColumnIndex("type")))
+                                    .append(" notnull=")
+                                    .append(info.getInt(info.getColumnIndex("notnull")))
+                                    .append(" pk=").append(info.getInt(info.getColumnIndex("pk")));
+                        }
+                        columns.add(column.toString());
+                    }
+                } finally {
+                    info.close();
+                }
+                schema.put(type + " " + name + " on " + objects.getString(2), columns);
+            }
+        } finally {
+            objects.close();
+        }
+        return schema;
+    }
+
+    public void testUpgradeFromV2KeepsData() {
+        createV2Database(3, 14);
+
+        SQLiteDatabase db = new WeatherDbHelper(mContext, MIGRATED_NAME).getWritableDatabase();
+        try {
+            assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+            assertEquals("Error: The locations should survive the upgrade", 3,
+                    count(db, WeatherContract.LocationEntry.TABLE_NAME));
+            assertEquals("Error: The forecasts should survive the upgrade", 3 * 14,
+                    count(db, WeatherContract.WeatherEntry.TABLE_NAME));
+
+            Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                    new String[]{WeatherContract.WeatherEntry.COLUMN_FETCHED,
+                            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP},
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " = ?",
+                    new String[]{Long.toString(START + 3 * DAY_MILLIS)}, null, null, null);
+            assertTrue(cursor.moveToFirst());
+            assertTrue("Error: Migrated days have no fetch time", cursor.isNull(0));
+            assertEquals(13.0, cursor.getDouble(1));
+            cursor.close();
+
+            cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                    new String[]{WeatherContract.LocationEntry.COLUMN_CITY_ID}, null, null,
+                    null, null, null);
+            while (cursor.moveToNext()) {
+                assertTrue("Error: Migrated locations have no city ID", cursor.isNull(0));
+            }
+            cursor.close();
+
+            // The tables added since version 2 are there and usable
+            assertEquals(0, count(db, WeatherContract.ValidatorEntry.TABLE_NAME));
+            assertEquals(0, count(db, WeatherContract.HourlyEntry.TABLE_NAME));
+            assertEquals(0, count(db, WeatherContract.SyncLogEntry.TABLE_NAME));
+        } finally {
+            db.close();
+        }
+    }
+
+    public void testMigratedSchemaMatchesFreshInstall() {
+        createV2Database(1, 1);
+
+        SQLiteDatabase migrated = new WeatherDbHelper(mContext, MIGRATED_NAME)
+                .getWritableDatabase();
+        SQLiteDatabase fresh = new WeatherDbHelper(mContext, FRESH_NAME).getWritableDatabase();
+        try {
+            assertEquals(describeSchema(fresh), describeSchema(migrated));
+        } finally {
+            migrated.close();
+            fresh.close();
+        }
+    }
+
+    /*
+        Version 9 rebuilds the sync log without its delete_ms column, and the runs logged
+        before should come through it.
+     */
+    public void testSyncLogKeepsRuns() {
+        createV2Database(1, 1);
+
+        File path = mContext.getDatabasePath(MIGRATED_NAME);
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(path.getPath(), null,
+                SQLiteDatabase.OPEN_READWRITE);
+        try {
+            WeatherDbHelper.migrate(db, 2, 8);
+            db.execSQL("INSERT INTO sync_log VALUES (7, " + START + ", 1500, 400, 300, 10, 90, "
+                    + "0, 20, 30, 40, 50, 60, 70, 80, 200, 2, 4000, 12000, 14, 3, 1, 0, 0)");
+
+            WeatherDbHelper.migrate(db, 8, 9);
+            Cursor cursor = db.query(WeatherContract.SyncLogEntry.TABLE_NAME, null, null, null,
+                    null, null, null);
+            assertTrue("Error: The logged run should survive the upgrade", cursor.moveToFirst());
+            assertEquals(-1, cursor.getColumnIndex("delete_ms"));
+            assertEquals(7, cursor.getLong(
+                    cursor.getColumnIndex(WeatherContract.SyncLogEntry._ID)));
+            assertEquals(90.0, cursor.getDouble(
+                    cursor.getColumnIndex(WeatherContract.SyncLogEntry.COLUMN_INSERT_MS)));
+            assertEquals(20.0, cursor.getDouble(
+                    cursor.getColumnIndex(WeatherContract.SyncLogEntry.COLUMN_WIDGETS_MS)));
+            assertEquals(12000, cursor.getLong(
+                    cursor.getColumnIndex(WeatherContract.SyncLogEntry.COLUMN_BYTES)));
+            cursor.close();
+        } finally {
+            db.close();
+        }
+    }
+
+    /*
+        Each step is run on its own, so a slow one stands out.
+     */
+    public void testLargeDatabase() {
+        final int locations = 50;
+        final int days = 2000;
+        createV2Database(locations, days);
+
+        File path = mContext.getDatabasePath(MIGRATED_NAME);
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(path.getPath(), null,
+                SQLiteDatabase.OPEN_READWRITE);
+        StringBuilder timings = new StringBuilder();
+        long total = 0;
+        try {
+            for (WeatherDbHelper.Migration migration : WeatherDbHelper.MIGRATIONS) {
+                long start = System.nanoTime();
+                db.beginTransaction();
+                try {
+                    WeatherDbHelper.migrate(db, migration.toVersion - 1, migration.toVersion);
+                    db.setVersion(migration.toVersion);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                long millis = (System.nanoTime() - start) / 1000000;
+                total += millis;
+                timings.append(" v").append(migration.toVersion).append(' ')
+                        .append(millis).append("ms");
+            }
+            assertEquals(locations * days, count(db, WeatherContract.WeatherEntry.TABLE_NAME));
+        } finally {
+            db.close();
+        }
+        Log.d(LOG_TAG, "Migrated " + (locations * days) + " days in " + total + "ms:" + timings);
+
+        // Opening through the helper finds nothing left to do
+        db = new WeatherDbHelper(mContext, MIGRATED_NAME).getReadableDatabase();
+        assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+        db.close();
+    }
+}
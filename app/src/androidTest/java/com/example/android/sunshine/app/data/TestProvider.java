@@ -16,20 +16,30 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
     that at least the basic functionality has been implemented correctly.
@@ -51,6 +61,11 @@ public class TestProvider extends AndroidTestCase {
        the delete functionality in the ContentProvider.
      */
     public void deleteAllRecordsFromProvider() {
+        mContext.getContentResolver().delete(
+                WeatherContract.HourlyEntry.CONTENT_URI,
+                null,
+                null
+        );
         mContext.getContentResolver().delete(
                 WeatherEntry.CONTENT_URI,
                 null,
@@ -197,6 +212,27 @@ public class TestProvider extends AndroidTestCase {
         TestUtilities.validateCursor("testBasicWeatherQuery", weatherCursor, weatherValues);
     }
 
+    /*
+        Reads by location setting should see a location written straight to the database, even
+        after the same setting was looked up and not found.
+     */
+    public void testLocationReadsSeeDirectWrites() {
+        Uri locationUri = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        Cursor cursor = mContext.getContentResolver().query(locationUri, null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        assertTrue(db.insert(WeatherEntry.TABLE_NAME, null, weatherValues) != -1);
+        db.close();
+
+        cursor = mContext.getContentResolver().query(locationUri, null, null, null, null);
+        TestUtilities.validateCursor("testLocationReadsSeeDirectWrites", cursor, weatherValues);
+    }
+
     /*
         This test uses the database directly to insert and then uses the ContentProvider to
         read out the data.  Uncomment this test to see if your location queries are
@@ -512,4 +548,251 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    /*
+        A canceled sync interrupts the thread it writes on.  The batch under way should be
+        rolled back rather than partly written.
+     */
+    public void testBulkInsertInterrupted() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        int insertCount;
+        Thread.currentThread().interrupt();
+        try {
+            insertCount = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                    createBulkInsertWeatherValues(locationRowId));
+        } finally {
+            Thread.interrupted();
+        }
+        assertEquals(0, insertCount);
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals("Error: An interrupted bulk insert should be rolled back",
+                0, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        Bulk inserting the same forecast twice should not rewrite anything or notify observers,
+        and changing one day should only update that day.
+     */
+    public void testBulkInsertSkipsUnchangedRows() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        int insertCount = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, insertCount);
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID}, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertTrue(cursor.moveToFirst());
+        long firstRowId = cursor.getLong(0);
+        cursor.close();
+
+        // Same values again: nothing written, and no notification
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+        int writeCount = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+        assertEquals("Error: Unchanged rows should not be written", 0, writeCount);
+        SystemClock.sleep(500);
+        assertFalse("Error: Observers should not be notified when nothing changed",
+                weatherObserver.mContentChanged);
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        // Change the first day only: it is updated in place rather than replaced
+        ContentValues[] changedValues = createBulkInsertWeatherValues(locationRowId);
+        changedValues[0].put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+        writeCount = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, changedValues);
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+        assertEquals("Error: Only the changed row should be written", 1, writeCount);
+
+        cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: Updated row should keep its _id",
+                firstRowId, cursor.getLong(cursor.getColumnIndex(WeatherEntry._ID)));
+        TestUtilities.validateCurrentRecord("testBulkInsertSkipsUnchangedRows.  Error validating updated row",
+                cursor, changedValues[0]);
+        cursor.close();
+
+        // Check the individual counts on a mix of new, changed and unchanged days
+        ContentValues[] mixedValues = createBulkInsertWeatherValues(locationRowId);
+        mixedValues[1].put(WeatherEntry.COLUMN_MAX_TEMP, 100);
+        ContentValues newDay = new ContentValues(mixedValues[BULK_INSERT_RECORDS_TO_INSERT - 1]);
+        newDay.put(WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(
+                TestUtilities.TEST_DATE + BULK_INSERT_RECORDS_TO_INSERT * 1000L * 60 * 60 * 24));
+        for (ContentValues value : mixedValues) {
+            value.put(WeatherEntry.COLUMN_DATE,
+                    WeatherContract.normalizeDate(value.getAsLong(WeatherEntry.COLUMN_DATE)));
+        }
+        ContentValues[] withNewDay = new ContentValues[BULK_INSERT_RECORDS_TO_INSERT + 1];
+        System.arraycopy(mixedValues, 0, withNewDay, 0, BULK_INSERT_RECORDS_TO_INSERT);
+        withNewDay[BULK_INSERT_RECORDS_TO_INSERT] = newDay;
+
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        WeatherReconciler.Result result = WeatherReconciler.reconcile(db, withNewDay);
+        db.close();
+        assertEquals(1, result.inserted);
+        // day 0 goes back from "Meteors" to "Asteroids", day 1 gets a new high
+        assertEquals(2, result.updated);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT - 2, result.unchanged);
+    }
+
+    /*
+        Counts notifications, where the TestContentObserver only notes that there was one.
+     */
+    static class CountingObserver extends ContentObserver {
+        final HandlerThread mHT;
+        final AtomicInteger mChanges = new AtomicInteger();
+
+        static CountingObserver create() {
+            HandlerThread ht = new HandlerThread("CountingObserverThread");
+            ht.start();
+            return new CountingObserver(ht);
+        }
+
+        private CountingObserver(HandlerThread ht) {
+            super(new Handler(ht.getLooper()));
+            mHT = ht;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            mChanges.incrementAndGet();
+        }
+
+        // Gives the notifications time to arrive, then stops listening
+        int awaitChanges() {
+            SystemClock.sleep(500);
+            mHT.quit();
+            return mChanges.get();
+        }
+    }
+
+    static ArrayList<ContentProviderOperation> createWeatherOperations(ContentValues[] values) {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        for (ContentValues value : values) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(value)
+                    .build());
+        }
+        return operations;
+    }
+
+    private int countWeatherRows(String shortDesc) {
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null,
+                WeatherEntry.COLUMN_SHORT_DESC + " = ?", new String[]{shortDesc}, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    /*
+        A batch of days should report a count of 1 for each day it wrote and 0 for each one
+        already stored, and notify weather observers once for the whole batch.
+     */
+    public void testApplyBatch() throws Exception {
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        CountingObserver weatherObserver = CountingObserver.create();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true,
+                weatherObserver);
+        ArrayList<ContentProviderOperation> operations =
+                createWeatherOperations(createBulkInsertWeatherValues(locationRowId));
+        operations.add(ContentProviderOperation.newInsert(WeatherContract.ValidatorEntry.CONTENT_URI)
+                .withValue(WeatherContract.ValidatorEntry.COLUMN_LOCATION_SETTING,
+                        TestUtilities.TEST_LOCATION)
+                .withValue(WeatherContract.ValidatorEntry.COLUMN_ETAG, "\"a\"")
+                .build());
+        ContentProviderResult[] results = mContext.getContentResolver().applyBatch(
+                WeatherContract.CONTENT_AUTHORITY, operations);
+        for (int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++) {
+            assertNotNull("Error: Every new day should be inserted", results[i].uri);
+        }
+        assertNotNull(results[BULK_INSERT_RECORDS_TO_INSERT].uri);
+
+        results = mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY,
+                createWeatherOperations(createBulkInsertWeatherValues(locationRowId)));
+        for (ContentProviderResult result : results) {
+            assertEquals("Error: Unchanged days should not be written", 0, (int) result.count);
+        }
+
+        ContentValues[] changedValues = createBulkInsertWeatherValues(locationRowId);
+        changedValues[0].put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        results = mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY,
+                createWeatherOperations(changedValues));
+        assertEquals("Error: A changed day should be updated in place", 1, (int) results[0].count);
+        assertEquals(0, (int) results[1].count);
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+        assertEquals("Error: Observers should hear about each batch that changed something once, "
+                + "and not at all about the one that changed nothing", 2,
+                weatherObserver.awaitChanges());
+
+        mContext.getContentResolver().delete(WeatherContract.ValidatorEntry.CONTENT_URI,
+                null, null);
+    }
+
+    /*
+        If any operation fails, or the sync applying the batch is canceled, none of the batch
+        should be written and observers shouldn't hear about it.
+     */
+    public void testApplyBatchRollsBack() throws Exception {
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        long locationRowId = ContentUris.parseId(locationUri);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+
+        ContentValues[] changedValues = createBulkInsertWeatherValues(locationRowId);
+        for (ContentValues value : changedValues) {
+            value.put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        }
+        ArrayList<ContentProviderOperation> operations = createWeatherOperations(changedValues);
+        // Expects a location that isn't there, so the batch fails once every day is written
+        operations.add(ContentProviderOperation.newUpdate(LocationEntry.CONTENT_URI)
+                .withValue(LocationEntry.COLUMN_CITY_NAME, "Nowhere")
+                .withSelection(LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                        new String[]{"nowhere"})
+                .withExpectedCount(1)
+                .build());
+
+        CountingObserver weatherObserver = CountingObserver.create();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true,
+                weatherObserver);
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY,
+                    operations);
+            fail("Error: The batch should fail on the missing location");
+        } catch (OperationApplicationException expected) {
+        }
+        assertEquals("Error: A failed batch should be rolled back", 0, countWeatherRows("Meteors"));
+
+        Thread.currentThread().interrupt();
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY,
+                    createWeatherOperations(changedValues));
+            fail("Error: An interrupted batch should fail");
+        } catch (OperationApplicationException expected) {
+        } finally {
+            Thread.interrupted();
+        }
+        assertEquals("Error: An interrupted batch should be rolled back",
+                0, countWeatherRows("Meteors"));
+
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+        assertEquals("Error: Observers shouldn't hear about batches that were rolled back",
+                0, weatherObserver.awaitChanges());
+    }
 }
@@ -0,0 +1,183 @@
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SyncLogEntry;
+import com.example.android.sunshine.app.data.WeatherContract.ValidatorEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+    Runs EXPLAIN QUERY PLAN on the SQL behind each of the provider's URIs, as the app uses them,
+    and fails if any of it scans a whole table.  The tables are small when the tests run, but
+    grow with every location and day of history, so a query that loses its index is caught here
+    rather than as a slow list on a phone.
+
+    SYNC_METRICS isn't here, since it's served from memory.  LocationIdCache reads the whole
+    location table on purpose, and isn't here either.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+
+    // Matches "SCAN TABLE weather" on older SQLite versions and "SCAN weather" on newer ones
+    private static final Pattern sScan = Pattern.compile("^SCAN (TABLE )?(\\w+)");
+
+    // What the forecast list, the widgets and Muzei ask for
+    private static final String[] LIST_PROJECTION = new String[]{
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    private static final String DATE_ASC = WeatherEntry.COLUMN_DATE + " ASC";
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDb = new WeatherDbHelper(mContext).getReadableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        super.tearDown();
+    }
+
+    private List<String> explain(String sql) {
+        List<String> plan = new ArrayList<String>();
+        Cursor cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+        try {
+            int detailIndex = cursor.getColumnIndex("detail");
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detailIndex));
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan;
+    }
+
+    /**
+     * @return the plan, after failing if it scans a table without an index, or sorts when the
+     * caller says the order should come from an index.
+     */
+    private List<String> assertNoTableScan(String route, String sql, boolean ordered) {
+        List<String> plan = explain(sql);
+        assertFalse("Error: No plan for " + route, plan.isEmpty());
+        for (String step : plan) {
+            Matcher matcher = sScan.matcher(step);
+            if (matcher.find() && !step.contains(" USING ")
+                    && !"CONSTANT".equals(matcher.group(2))
+                    && !"SUBQUERY".equals(matcher.group(2))) {
+                fail("Error: " + route + " scans " + matcher.group(2) + ": " + plan + " for "
+                        + sql);
+            }
+            if (ordered && step.contains("TEMP B-TREE")) {
+                fail("Error: " + route + " sorts instead of reading in index order: " + plan);
+            }
+        }
+        return plan;
+    }
+
+    public void testWeatherWithLocation() {
+        // The forecast list, widgets and Muzei
+        String sql = WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                LIST_PROJECTION, WeatherProvider.sLocationSettingWithStartDateSelection,
+                null, null, DATE_ASC, null);
+        List<String> plan = assertNoTableScan("WEATHER_WITH_LOCATION", sql, true);
+        boolean covered = false;
+        for (String step : plan) {
+            covered |= step.contains(WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE)
+                    && step.contains("COVERING INDEX");
+        }
+        assertTrue("Error: The list should be read from the covering index alone: " + plan,
+                covered);
+
+        // The notification and the watch, without a start date
+        sql = WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                null, WeatherProvider.sLocationSettingSelection, null, null, DATE_ASC, null);
+        assertNoTableScan("WEATHER_WITH_LOCATION", sql, true);
+    }
+
+    public void testWeatherWithLocationAndDate() {
+        // The detail view, and the check for today's forecast
+        String sql = WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                null, WeatherProvider.sLocationSettingAndDaySelection, null, null, null, null);
+        assertNoTableScan("WEATHER_WITH_LOCATION_AND_DATE", sql, false);
+    }
+
+    public void testWeather() {
+        // WeatherReconciler looks up each incoming day
+        assertNoTableScan("WEATHER", "SELECT * FROM " + WeatherEntry.TABLE_NAME + " WHERE "
+                + WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " = ?",
+                false);
+        // ... or, for a batch, each incoming day and whether it has changed in one lookup
+        assertNoTableScan("WEATHER", WeatherReconciler.sBatchLookupSql, false);
+        // The sync brings fetch times up to date for a location's window
+        assertNoTableScan("WEATHER", "UPDATE " + WeatherEntry.TABLE_NAME + " SET "
+                + WeatherEntry.COLUMN_FETCHED + " = ? WHERE " + WeatherEntry.COLUMN_LOC_KEY
+                + " = (SELECT " + LocationEntry._ID + " FROM " + LocationEntry.TABLE_NAME
+                + " WHERE " + LocationEntry.COLUMN_LOCATION_SETTING + " = ?) AND "
+                + WeatherEntry.COLUMN_DATE + " >= ? AND " + WeatherEntry.COLUMN_DATE + " < ?",
+                false);
+        // ... and deletes past days for every location
+        assertNoTableScan("WEATHER", "DELETE FROM " + WeatherEntry.TABLE_NAME + " WHERE "
+                + WeatherEntry.COLUMN_DATE + " <= ?", false);
+    }
+
+    public void testLocation() {
+        assertNoTableScan("LOCATION", "SELECT * FROM " + LocationEntry.TABLE_NAME + " WHERE "
+                + LocationEntry.COLUMN_LOCATION_SETTING + " = ?", false);
+    }
+
+    public void testValidator() {
+        assertNoTableScan("VALIDATOR", "SELECT * FROM " + ValidatorEntry.TABLE_NAME + " WHERE "
+                + ValidatorEntry.COLUMN_LOCATION_SETTING + " = ?", false);
+        assertNoTableScan("VALIDATOR", "DELETE FROM " + ValidatorEntry.TABLE_NAME + " WHERE "
+                + ValidatorEntry.COLUMN_LOCATION_SETTING + " = ?", false);
+    }
+
+    public void testHourlyWithLocation() {
+        String sql = WeatherProvider.sHourlyByLocationSettingQueryBuilder.buildQuery(
+                null, WeatherProvider.sLocationSettingWithSlotRangeSelection, null, null,
+                HourlyEntry.COLUMN_DATE_TIME + " ASC", null);
+        assertNoTableScan("HOURLY_WITH_LOCATION", sql, true);
+    }
+
+    public void testHourly() {
+        // The retention delete, for every location
+        assertNoTableScan("HOURLY", "DELETE FROM " + HourlyEntry.TABLE_NAME + " WHERE "
+                + HourlyEntry.COLUMN_DATE_TIME + " < ?", false);
+    }
+
+    public void testSyncLog() {
+        // The two halves of SyncLog.trim
+        assertNoTableScan("SYNC_LOG", "DELETE FROM " + SyncLogEntry.TABLE_NAME + " WHERE "
+                + SyncLogEntry.COLUMN_START_TIME + " < ?", false);
+        assertNoTableScan("SYNC_LOG", "DELETE FROM " + SyncLogEntry.TABLE_NAME + " WHERE "
+                + SyncLogEntry._ID + " <= (SELECT MAX(" + SyncLogEntry._ID + ") FROM "
+                + SyncLogEntry.TABLE_NAME + ") - 1000", false);
+    }
+
+    public void testSyncLogDaily() {
+        // Reads the whole log, but in order through the index rather than sorting it
+        assertNoTableScan("SYNC_LOG_DAILY", "SELECT " + SyncLogEntry.COLUMN_START_TIME + ", "
+                + SyncLogEntry.COLUMN_TOTAL_MS + " FROM " + SyncLogEntry.TABLE_NAME
+                + " ORDER BY " + SyncLogEntry.COLUMN_START_TIME + " DESC", true);
+    }
+}
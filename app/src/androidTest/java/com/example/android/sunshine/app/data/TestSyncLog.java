@@ -0,0 +1,154 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.SyncLogEntry;
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.sync.SyncMetrics;
+
+/*
+    Covers the sync log through the provider: one row per run, the retention limits, and the
+    daily percentiles.
+ */
+public class TestSyncLog extends AndroidTestCase {
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+    // The start of a UTC day
+    private static final long DAY = 16424 * DAY_IN_MILLIS;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(SyncLogEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().delete(SyncLogEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    private long insertRun(long startTime, double totalMs) {
+        ContentValues values = new SyncMetrics()
+                .toSyncLogValues(SunshineSyncAdapter.LOCATION_STATUS_OK);
+        values.put(SyncLogEntry.COLUMN_START_TIME, startTime);
+        values.put(SyncLogEntry.COLUMN_TOTAL_MS, totalMs);
+        return Long.parseLong(mContext.getContentResolver()
+                .insert(SyncLogEntry.CONTENT_URI, values).getLastPathSegment());
+    }
+
+    private int countRows() {
+        Cursor cursor = mContext.getContentResolver().query(SyncLogEntry.CONTENT_URI,
+                null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    public void testInsertRun() {
+        SyncMetrics metrics = new SyncMetrics();
+        metrics.addHttpStatus(200);
+        metrics.addHttpStatus(503);
+        metrics.addHttpStatus(304);
+        metrics.addRowsDeleted(3);
+        metrics.addRowsInsertedAndUpdated(14, 2);
+        mContext.getContentResolver().insert(SyncLogEntry.CONTENT_URI,
+                metrics.toSyncLogValues(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN));
+
+        Cursor cursor = mContext.getContentResolver().query(SyncLogEntry.CONTENT_URI,
+                null, null, null, null);
+        assertTrue("Error: The run wasn't logged", cursor.moveToFirst());
+        assertEquals(metrics.getStartTimeMillis(),
+                cursor.getLong(cursor.getColumnIndex(SyncLogEntry.COLUMN_START_TIME)));
+        assertEquals("Error: The highest status should be logged", 503,
+                cursor.getInt(cursor.getColumnIndex(SyncLogEntry.COLUMN_HTTP_STATUS)));
+        assertEquals(14, cursor.getInt(cursor.getColumnIndex(SyncLogEntry.COLUMN_ROWS_INSERTED)));
+        assertEquals(2, cursor.getInt(cursor.getColumnIndex(SyncLogEntry.COLUMN_ROWS_UPDATED)));
+        assertEquals(3, cursor.getInt(cursor.getColumnIndex(SyncLogEntry.COLUMN_ROWS_DELETED)));
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN,
+                cursor.getInt(cursor.getColumnIndex(SyncLogEntry.COLUMN_LOCATION_STATUS)));
+        cursor.close();
+
+        assertEquals(SyncLogEntry.CONTENT_TYPE,
+                mContext.getContentResolver().getType(SyncLogEntry.CONTENT_URI));
+    }
+
+    public void testRetentionByAge() {
+        insertRun(DAY - SyncLog.MAX_AGE_MILLIS - 1, 10);
+        insertRun(DAY - SyncLog.MAX_AGE_MILLIS + 1, 10);
+        assertEquals(2, countRows());
+        insertRun(DAY, 10);
+        assertEquals("Error: The run older than the maximum age should be gone", 2, countRows());
+    }
+
+    public void testRetentionByCount() {
+        long lastId = 0;
+        for (int i = 0; i < 8; i++) {
+            lastId = insertRun(DAY + i, 10);
+        }
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        assertEquals(3, SyncLog.trim(db, 5, 0));
+        db.close();
+
+        Cursor cursor = mContext.getContentResolver().query(SyncLogEntry.CONTENT_URI,
+                new String[]{SyncLogEntry._ID}, null, null, SyncLogEntry._ID + " DESC");
+        assertEquals(5, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: The newest runs should be kept", lastId, cursor.getLong(0));
+        cursor.close();
+    }
+
+    public void testDailyPercentiles() {
+        // 20 runs of 1 to 20ms on one day, out of order, and a single run the day after
+        for (int i = 0; i < 20; i++) {
+            insertRun(DAY + i * 60 * 1000, (i * 7) % 20 + 1);
+        }
+        insertRun(DAY + DAY_IN_MILLIS + 1, 7);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                SyncLogEntry.buildDailyUri(SyncLogEntry.COLUMN_TOTAL_MS),
+                new String[]{SyncLogEntry.COLUMN_DAY, SyncLogEntry.COLUMN_RUNS,
+                        SyncLogEntry.COLUMN_P50_MS, SyncLogEntry.COLUMN_P95_MS,
+                        SyncLogEntry.COLUMN_MAX_MS},
+                null, null, null);
+        assertEquals(2, cursor.getCount());
+
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: The newest day should come first",
+                DAY + DAY_IN_MILLIS, cursor.getLong(0));
+        assertEquals(1, cursor.getInt(1));
+        assertEquals(7.0, cursor.getDouble(2));
+        assertEquals(7.0, cursor.getDouble(3));
+
+        assertTrue(cursor.moveToNext());
+        assertEquals(DAY, cursor.getLong(0));
+        assertEquals(20, cursor.getInt(1));
+        assertEquals(10.0, cursor.getDouble(2));
+        assertEquals(19.0, cursor.getDouble(3));
+        assertEquals(20.0, cursor.getDouble(4));
+        cursor.close();
+
+        assertEquals(SyncLogEntry.CONTENT_DAILY_TYPE,
+                mContext.getContentResolver().getType(SyncLogEntry.CONTENT_DAILY_URI));
+    }
+
+    public void testDailyRejectsOtherColumns() {
+        try {
+            mContext.getContentResolver().query(
+                    SyncLogEntry.buildDailyUri(SyncLogEntry.COLUMN_HTTP_STATUS),
+                    null, null, null, null);
+            fail("Error: Only duration columns should be aggregated");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testPercentile() {
+        double[] sorted = new double[]{1, 2, 3, 4};
+        assertEquals(2.0, SyncLog.percentile(sorted, 50));
+        assertEquals(4.0, SyncLog.percentile(sorted, 95));
+        assertEquals(1.0, SyncLog.percentile(sorted, 0));
+        assertEquals(5.0, SyncLog.percentile(new double[]{5}, 50));
+    }
+}
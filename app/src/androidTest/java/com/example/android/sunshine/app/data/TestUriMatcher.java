@@ -36,6 +36,17 @@ public class TestUriMatcher extends AndroidTestCase {
     private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, TEST_DATE);
     // content://com.example.android.sunshine.app/location"
     private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/validator"
+    private static final Uri TEST_VALIDATOR_DIR = WeatherContract.ValidatorEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/sync_metrics"
+    private static final Uri TEST_SYNC_METRICS_DIR = WeatherContract.SyncMetricsEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/hourly"
+    private static final Uri TEST_HOURLY_DIR = WeatherContract.HourlyEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/sync_log"
+    private static final Uri TEST_SYNC_LOG_DIR = WeatherContract.SyncLogEntry.CONTENT_URI;
+    private static final Uri TEST_SYNC_LOG_DAILY_DIR = WeatherContract.SyncLogEntry.buildDailyUri(
+            WeatherContract.SyncLogEntry.COLUMN_FETCH_MS);
+    private static final Uri TEST_HOURLY_WITH_LOCATION_DIR = WeatherContract.HourlyEntry.buildHourlyLocationWithRange(LOCATION_QUERY, TEST_DATE, TEST_DATE + 86400000L);
 
     /*
         Students: This function tests that your UriMatcher returns the correct integer value
@@ -53,5 +64,17 @@ public class TestUriMatcher extends AndroidTestCase {
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE);
         assertEquals("Error: The LOCATION URI was matched incorrectly.",
                 testMatcher.match(TEST_LOCATION_DIR), WeatherProvider.LOCATION);
+        assertEquals("Error: The VALIDATOR URI was matched incorrectly.",
+                testMatcher.match(TEST_VALIDATOR_DIR), WeatherProvider.VALIDATOR);
+        assertEquals("Error: The SYNC_METRICS URI was matched incorrectly.",
+                testMatcher.match(TEST_SYNC_METRICS_DIR), WeatherProvider.SYNC_METRICS);
+        assertEquals("Error: The HOURLY URI was matched incorrectly.",
+                testMatcher.match(TEST_HOURLY_DIR), WeatherProvider.HOURLY);
+        assertEquals("Error: The HOURLY WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_HOURLY_WITH_LOCATION_DIR), WeatherProvider.HOURLY_WITH_LOCATION);
+        assertEquals("Error: The SYNC_LOG URI was matched incorrectly.",
+                testMatcher.match(TEST_SYNC_LOG_DIR), WeatherProvider.SYNC_LOG);
+        assertEquals("Error: The SYNC_LOG_DAILY URI was matched incorrectly.",
+                testMatcher.match(TEST_SYNC_LOG_DAILY_DIR), WeatherProvider.SYNC_LOG_DAILY);
     }
 }
@@ -0,0 +1,233 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+public class TestWeatherBatch extends AndroidTestCase {
+    private static final String LOG_TAG = TestWeatherBatch.class.getSimpleName();
+
+    // Two databases, so both paths start from the same state
+    private static final String VALUES_DB_NAME = "batch_values_test.db";
+    private static final String BATCH_DB_NAME = "batch_batch_test.db";
+
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final long START =
+            WeatherContract.normalizeDate(TestUtilities.TEST_DATE * 1000);
+    private static final long FETCHED = 1450000000000L;
+    private static final int DAYS_PER_LOCATION = 1000;
+
+    private WeatherDbHelper mValuesHelper;
+    private WeatherDbHelper mBatchHelper;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(VALUES_DB_NAME);
+        mContext.deleteDatabase(BATCH_DB_NAME);
+        mValuesHelper = new WeatherDbHelper(mContext, VALUES_DB_NAME);
+        mBatchHelper = new WeatherDbHelper(mContext, BATCH_DB_NAME);
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mValuesHelper.close();
+        mBatchHelper.close();
+        mContext.deleteDatabase(VALUES_DB_NAME);
+        mContext.deleteDatabase(BATCH_DB_NAME);
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    /**
+     * Adds rows days at a time to as many locations as it takes, with each location's row ID
+     * being its index plus one.
+     */
+    private static WeatherBatch createBatch(int rows, String shortDesc) {
+        WeatherBatch batch = new WeatherBatch(rows);
+        for (int row = 0; row < rows; row++) {
+            batch.add(row / DAYS_PER_LOCATION + 1, START + (row % DAYS_PER_LOCATION) * DAY_MILLIS,
+                    800 + row % 4, shortDesc, 60 + row % 10, 70 + row % 10, 1.2, 1024.5, 5.5,
+                    row % 360, FETCHED);
+        }
+        return batch;
+    }
+
+    private static void insertLocations(SQLiteDatabase db, int rows) {
+        for (int i = 0; i < (rows + DAYS_PER_LOCATION - 1) / DAYS_PER_LOCATION; i++) {
+            ContentValues values = TestUtilities.createNorthPoleLocationValues();
+            values.put(LocationEntry._ID, i + 1);
+            values.put(LocationEntry.COLUMN_LOCATION_SETTING, "batch-" + i);
+            db.insert(LocationEntry.TABLE_NAME, null, values);
+        }
+    }
+
+    private static WeatherReconciler.Result reconcile(SQLiteDatabase db, Object rows) {
+        WeatherReconciler.Result result;
+        db.beginTransaction();
+        try {
+            result = rows instanceof WeatherBatch
+                    ? WeatherReconciler.reconcile(db, (WeatherBatch) rows)
+                    : WeatherReconciler.reconcile(db, (ContentValues[]) rows);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return result;
+    }
+
+    private static String dump(SQLiteDatabase db) {
+        StringBuilder rows = new StringBuilder();
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME, null, null, null, null, null,
+                WeatherEntry._ID);
+        try {
+            while (cursor.moveToNext()) {
+                for (int column = 0; column < cursor.getColumnCount(); column++) {
+                    rows.append(cursor.getString(column)).append(',');
+                }
+                rows.append('\n');
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows.toString();
+    }
+
+    public void testFromContentValues() {
+        ContentValues[] values = createBatch(3, "Clear").toContentValues();
+        WeatherBatch batch = WeatherBatch.fromContentValues(values);
+        assertNotNull("Error: The sync's rows should fit in a batch", batch);
+        assertEquals(3, batch.size());
+        assertEquals(START + DAY_MILLIS, batch.dates[1]);
+        assertEquals(FETCHED, batch.fetched[2]);
+
+        values[1].remove(WeatherEntry.COLUMN_FETCHED);
+        batch = WeatherBatch.fromContentValues(values);
+        assertNotNull("Error: The fetch time is optional", batch);
+        assertEquals(0, batch.fetched[1]);
+
+        values[1].putNull(WeatherEntry.COLUMN_FETCHED);
+        assertNull(WeatherBatch.fromContentValues(values));
+
+        values = createBatch(3, "Clear").toContentValues();
+        values[2].remove(WeatherEntry.COLUMN_HUMIDITY);
+        assertNull(WeatherBatch.fromContentValues(values));
+
+        values = createBatch(3, "Clear").toContentValues();
+        values[0].put(WeatherEntry._ID, 5);
+        assertNull(WeatherBatch.fromContentValues(values));
+    }
+
+    /*
+        A batch should leave the table exactly as the same rows as ContentValues do, through
+        inserts, updates and unchanged days.
+     */
+    public void testMatchesContentValues() {
+        SQLiteDatabase valuesDb = mValuesHelper.getWritableDatabase();
+        SQLiteDatabase batchDb = mBatchHelper.getWritableDatabase();
+        insertLocations(valuesDb, 30);
+        insertLocations(batchDb, 30);
+
+        WeatherBatch first = createBatch(20, "Clear");
+        WeatherReconciler.Result valuesResult = reconcile(valuesDb, first.toContentValues());
+        WeatherReconciler.Result batchResult = reconcile(batchDb, first);
+        assertEquals(valuesResult.toString(), batchResult.toString());
+        assertEquals(20, batchResult.inserted);
+
+        // Ten days change, ten are new, and a later fetch time leaves the rest unchanged
+        WeatherBatch second = new WeatherBatch(30);
+        WeatherBatch changed = createBatch(30, "Clouds");
+        for (int row = 0; row < 30; row++) {
+            WeatherBatch source = row < 10 ? first : changed;
+            second.add(source.locationIds[row], source.dates[row], source.weatherIds[row],
+                    source.shortDescs[row], source.minTemps[row], source.maxTemps[row],
+                    source.humidities[row], source.pressures[row], source.windSpeeds[row],
+                    source.degrees[row], row % 2 == 0 ? FETCHED + DAY_MILLIS : 0);
+        }
+        valuesResult = reconcile(valuesDb, second.toContentValues());
+        batchResult = reconcile(batchDb, second);
+        assertEquals(valuesResult.toString(), batchResult.toString());
+        assertEquals(10, batchResult.inserted);
+        assertEquals(10, batchResult.updated);
+        assertEquals(10, batchResult.unchanged);
+
+        assertEquals(dump(valuesDb), dump(batchDb));
+    }
+
+    /*
+        Rows bulk inserted through the provider should be written as a batch, dates normalized
+        and unchanged days skipped.
+     */
+    public void testInsertThroughResolver() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        WeatherBatch batch = new WeatherBatch(14);
+        for (int day = 0; day < 14; day++) {
+            // Not normalized, which the provider takes care of
+            batch.add(locationRowId, START + day * DAY_MILLIS + 1000, 800, "Clear", 60, 70,
+                    1.2, 1024.5, 5.5, 90, FETCHED);
+        }
+        assertNotNull("Error: The rows should fit a batch",
+                WeatherBatch.fromContentValues(batch.toContentValues()));
+        assertEquals(14, mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                batch.toContentValues()));
+        assertEquals("Error: Unchanged rows should not be written",
+                0, mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                        batch.toContentValues()));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION, START),
+                null, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(START, cursor.getLong(cursor.getColumnIndex(WeatherEntry.COLUMN_DATE)));
+        cursor.close();
+    }
+
+    /*
+        Not a correctness check, just a repeatable load run: the same rows written as
+        ContentValues and as a batch, first into empty tables and then again unchanged, which
+        is what most syncs find.  14 rows is one location's sync, 1,000 a large group sync and
+        100,000 a stress run.
+     */
+    public void testThroughput() {
+        for (int rows : new int[]{14, 1000, 100000}) {
+            mContext.deleteDatabase(VALUES_DB_NAME);
+            mContext.deleteDatabase(BATCH_DB_NAME);
+            SQLiteDatabase valuesDb = mValuesHelper.getWritableDatabase();
+            SQLiteDatabase batchDb = mBatchHelper.getWritableDatabase();
+            insertLocations(valuesDb, rows);
+            insertLocations(batchDb, rows);
+
+            WeatherBatch batch = createBatch(rows, "Clear");
+            StringBuilder report = new StringBuilder().append(rows).append(" rows:");
+            for (String pass : new String[]{"new", "unchanged"}) {
+                boolean isNew = "new".equals(pass);
+                ContentValues[] values = batch.toContentValues();
+                long start = System.nanoTime();
+                WeatherReconciler.Result result = reconcile(valuesDb, values);
+                long valuesNanos = Math.max(1, System.nanoTime() - start);
+                assertEquals(rows, isNew ? result.inserted : result.unchanged);
+
+                start = System.nanoTime();
+                result = reconcile(batchDb, batch);
+                long batchNanos = Math.max(1, System.nanoTime() - start);
+                assertEquals(rows, isNew ? result.inserted : result.unchanged);
+
+                report.append(' ').append(pass).append(" as values ")
+                        .append(rows * 1000000000L / valuesNanos).append(" rows/s, as a batch ")
+                        .append(rows * 1000000000L / batchNanos).append(" rows/s;");
+            }
+            Log.d(LOG_TAG, report.toString());
+
+            mValuesHelper.close();
+            mBatchHelper.close();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.android.sunshine.app.sync;
+
+import java.util.Locale;
+
+/*
+    Builds OpenWeatherMap forecast documents for the sync tests.  The shapes match what
+    api.openweathermap.org/data/2.5/forecast/daily and /data/2.5/forecast return, including the
+    fields we don't read, so the parsers have to skip over them just like they would in the field.
+ */
+public class ForecastFixtures {
+    static final long CITY_ID = 5375480;
+    static final String CITY_NAME = "Mountain View";
+    static final double CITY_LAT = 37.3861;
+    static final double CITY_LON = -122.0839;
+    static final long HOURLY_SLOT_SECONDS = 3 * 60 * 60;
+
+    static String createForecastJson(int days) {
+        return createForecastJson(days, 0);
+    }
+
+    /**
+     * @param days number of elements in the "list" array
+     * @param seed shifts every value so two documents with different seeds differ on every day
+     */
+    static String createForecastJson(int days, int seed) {
+        return createForecastJson(days, seed, CITY_ID);
+    }
+
+    static String createForecastJson(int days, int seed, long cityId) {
+        StringBuilder sb = new StringBuilder(512 + days * 400);
+        appendForecast(sb, days, seed, cityId);
+        return sb.toString();
+    }
+
+    /**
+     * A group response, with the daily forecast of each city in turn.  The real group endpoint
+     * only serves current conditions, so this is the shape a forecast-serving stand-in answers
+     * {@link OpenWeatherMapSource#GROUP_PATH} with.
+     */
+    static String createGroupForecastJson(long[] cityIds, int days, int seed) {
+        StringBuilder sb = new StringBuilder(64 + cityIds.length * (512 + days * 400));
+        sb.append("{\"cnt\":").append(cityIds.length).append(",\"list\":[");
+        for (int i = 0; i < cityIds.length; i++) {
+            if (i > 0) sb.append(',');
+            appendForecast(sb, days, seed, cityIds[i]);
+        }
+        sb.append("]}");
+        return sb.toString();
+    }
+
+    private static void appendForecast(StringBuilder sb, int days, int seed, long cityId) {
+        sb.append("{\"city\":{\"id\":").append(cityId)
+                .append(",\"name\":\"").append(CITY_NAME).append("\",")
+                .append("\"coord\":{\"lon\":").append(CITY_LON)
+                .append(",\"lat\":").append(CITY_LAT).append("},")
+                .append("\"country\":\"US\",\"population\":0},")
+                .append("\"cod\":\"200\",\"message\":0.0123,\"cnt\":").append(days)
+                .append(",\"list\":[");
+        for (int i = 0; i < days; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(String.format(Locale.US,
+                    "{\"dt\":%d,\"temp\":{\"day\":%.2f,\"min\":%.2f,\"max\":%.2f,\"night\":%.2f," +
+                            "\"eve\":%.2f,\"morn\":%.2f},\"pressure\":%.2f,\"humidity\":%d," +
+                            "\"weather\":[{\"id\":%d,\"main\":\"%s\",\"description\":\"sky is clear\"," +
+                            "\"icon\":\"01d\"}],\"speed\":%.2f,\"deg\":%d,\"clouds\":%d}",
+                    1419033600L + i * 86400L,
+                    18.0 + seed + i * 0.1,
+                    10.0 + seed + i * 0.1,
+                    22.0 + seed + i * 0.1,
+                    12.0, 17.0, 11.0,
+                    1013.25 + seed + i,
+                    (60 + seed + i) % 100,
+                    800 + ((seed + i) % 4),
+                    (seed + i) % 2 == 0 ? "Clear" : "Clouds",
+                    3.5 + (seed + i) * 0.1,
+                    (180 + seed + i) % 360,
+                    (seed + i) % 100));
+        }
+        sb.append("]}");
+    }
+
+    /**
+     * @param slots number of elements in the "list" array, 3 hours apart
+     * @param seed shifts every value, like in {@link #createForecastJson(int, int)}
+     * @param startSeconds the first slot starts at this time rounded down to 3 hours
+     */
+    static String createHourlyForecastJson(int slots, int seed, long startSeconds) {
+        long first = startSeconds - startSeconds % HOURLY_SLOT_SECONDS;
+        StringBuilder sb = new StringBuilder(512 + slots * 450);
+        sb.append("{\"cod\":\"200\",\"message\":0.0036,\"cnt\":").append(slots)
+                .append(",\"list\":[");
+        for (int i = 0; i < slots; i++) {
+            if (i > 0) sb.append(',');
+            long dt = first + i * HOURLY_SLOT_SECONDS;
+            sb.append(String.format(Locale.US,
+                    "{\"dt\":%d,\"main\":{\"temp\":%.2f,\"temp_min\":%.2f,\"temp_max\":%.2f," +
+                            "\"pressure\":%.2f,\"sea_level\":%.2f,\"grnd_level\":%.2f," +
+                            "\"humidity\":%d,\"temp_kf\":0.5},\"weather\":[{\"id\":%d," +
+                            "\"main\":\"%s\",\"description\":\"sky is clear\",\"icon\":\"01d\"}]," +
+                            "\"clouds\":{\"all\":%d},\"wind\":{\"speed\":%.2f,\"deg\":%d}," +
+                            "\"sys\":{\"pod\":\"d\"},\"dt_txt\":\"%s\"}",
+                    dt,
+                    15.0 + seed + (i % 8),
+                    14.0 + seed + (i % 8),
+                    16.0 + seed + (i % 8),
+                    1013.25 + seed + i,
+                    1020.0, 1013.0,
+                    (60 + seed + i) % 100,
+                    800 + ((seed + i) % 4),
+                    (seed + i) % 2 == 0 ? "Clear" : "Clouds",
+                    (seed + i) % 100,
+                    3.5 + (seed + i) * 0.1,
+                    (180 + seed + i) % 360,
+                    "2015-12-20 00:00:00"));
+        }
+        sb.append("],\"city\":{\"id\":5375480,\"name\":\"").append(CITY_NAME).append("\",")
+                .append("\"coord\":{\"lon\":").append(CITY_LON)
+                .append(",\"lat\":").append(CITY_LAT).append("},\"country\":\"US\"}}");
+        return sb.toString();
+    }
+}
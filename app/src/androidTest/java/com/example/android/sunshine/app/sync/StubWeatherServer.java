@@ -0,0 +1,355 @@
+package com.example.android.sunshine.app.sync;
+
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    A stand-in for the OpenWeatherMap forecast API on the loopback interface, so the whole sync
+    pipeline can be run and timed without a network.  Latency, payload size, error rate, timeout
+    rate and whether conditional requests get a 304 are all configurable, and the random errors
+    and timeouts come from a fixed seed so runs are reproducible.  Bodies are gzipped for
+    clients that accept it, unless gzip is turned off.
+
+    Both the daily forecast and the 5 day / 3 hour forecast are served.  The daily one carries
+    an ETag that changes whenever changeForecast() is called, the 3 hour one has no validators,
+    just like the real API.  The daily one honors the cnt parameter, up to the configured number
+    of days, and each number of days has its own ETag.
+
+    Every location query resolves to its own city ID, and the group endpoint serves the daily
+    forecasts of up to MAX_GROUP_SIZE of those cities in one response.  OpenWeatherMap's group
+    endpoint only serves current conditions, so this one stands in for a server that groups
+    forecasts.
+ */
+public class StubWeatherServer {
+    static final String API_PATH = "/data/2.5/";
+    static final String DAILY_PATH = API_PATH + OpenWeatherMapSource.DAILY_PATH + "?";
+    static final String HOURLY_PATH = API_PATH + OpenWeatherMapSource.HOURLY_PATH + "?";
+    static final String GROUP_PATH = API_PATH + OpenWeatherMapSource.GROUP_PATH + "?";
+    static final int MAX_GROUP_SIZE = 20;
+    private static final long CITY_ID_BASE = 1000000;
+    static final int HOURLY_SLOTS = 40;
+    // How long a request picked to time out hangs before it's answered, which is far longer
+    // than any read timeout the tests use
+    static final long HANG_MILLIS = 10 * 1000;
+
+    private final StubHttpServer mServer;
+    private final Random mRandom;
+
+    private volatile long mLatencyMillis;
+    private volatile int mDays = 14;
+    private volatile float mErrorRate;
+    private volatile float mTimeoutRate;
+    private volatile boolean mNotModifiedEnabled = true;
+    private volatile boolean mGzipEnabled = true;
+    private volatile int mChunkBytes;
+    private volatile long mChunkDelayMillis;
+    private volatile int mVersion;
+
+    private final AtomicInteger mErrors = new AtomicInteger();
+    private final AtomicInteger mTimeouts = new AtomicInteger();
+    private final AtomicInteger mNotModified = new AtomicInteger();
+    private final AtomicInteger mBytesServed = new AtomicInteger();
+    private final AtomicInteger mDaysServed = new AtomicInteger();
+    private final AtomicInteger mGroupRequests = new AtomicInteger();
+
+    public StubWeatherServer() {
+        this(0);
+    }
+
+    public StubWeatherServer(long seed) {
+        mRandom = new Random(seed);
+        mServer = new StubHttpServer(new StubHttpServer.Handler() {
+            @Override
+            public StubHttpServer.Response handle(StubHttpServer.Request request) throws IOException {
+                return respond(request);
+            }
+        });
+    }
+
+    public void start() throws IOException {
+        mServer.start();
+    }
+
+    public void shutdown() {
+        mServer.shutdown();
+    }
+
+    /*
+        A source that runs the production OpenWeatherMap request code against this server.
+     */
+    public WeatherSource createSource() {
+        return new OpenWeatherMapSource(mServer.getUrl(API_PATH), "stub");
+    }
+
+    /*
+        Like createSource(), but giving up on a response after readTimeoutMillis.
+     */
+    public WeatherSource createSource(int readTimeoutMillis) {
+        return new OpenWeatherMapSource(mServer.getUrl(API_PATH), "stub",
+                new SyncHttpClient(readTimeoutMillis, readTimeoutMillis));
+    }
+
+    /*
+        Like createSource(), but failing any response that decodes to more than maxResponseBytes.
+     */
+    public WeatherSource createBoundedSource(long maxResponseBytes) {
+        return new OpenWeatherMapSource(mServer.getUrl(API_PATH), "stub",
+                SyncHttpClient.getInstance(), 0, maxResponseBytes);
+    }
+
+    /*
+        Like createSource(), but fetching up to maxGroupSize cities at once through the group
+        endpoint.
+     */
+    public WeatherSource createGroupSource(int maxGroupSize) {
+        return new OpenWeatherMapSource(mServer.getUrl(API_PATH), "stub",
+                SyncHttpClient.getInstance(), maxGroupSize);
+    }
+
+    /*
+        The city ID a location query resolves to.
+     */
+    public static long getCityId(String locationQuery) {
+        return CITY_ID_BASE + (locationQuery.hashCode() & 0xffffff);
+    }
+
+    public StubWeatherServer setLatencyMillis(long latencyMillis) {
+        mLatencyMillis = latencyMillis;
+        return this;
+    }
+
+    /*
+        The number of days in each forecast, which sets the payload size at roughly 400 bytes
+        a day.
+     */
+    public StubWeatherServer setDays(int days) {
+        mDays = days;
+        return this;
+    }
+
+    /*
+        The fraction of requests, from 0 to 1, that fail with a 503.
+     */
+    public StubWeatherServer setErrorRate(float errorRate) {
+        mErrorRate = errorRate;
+        return this;
+    }
+
+    /*
+        The fraction of requests, from 0 to 1, that hang without an answer until the client
+        times out.  Requests are picked to fail with a 503 first.
+     */
+    public StubWeatherServer setTimeoutRate(float timeoutRate) {
+        mTimeoutRate = timeoutRate;
+        return this;
+    }
+
+    /*
+        Whether a request carrying the current ETag gets a 304.  If not, it gets the full body.
+     */
+    public StubWeatherServer setNotModifiedEnabled(boolean enabled) {
+        mNotModifiedEnabled = enabled;
+        return this;
+    }
+
+    public StubWeatherServer setGzipEnabled(boolean enabled) {
+        mGzipEnabled = enabled;
+        return this;
+    }
+
+    /*
+        Sends bodies a few bytes at a time, pausing after each piece, so a download can be
+        caught part way.  A delay of 0 sends them whole.
+     */
+    public StubWeatherServer setTrickle(int chunkBytes, long chunkDelayMillis) {
+        mChunkBytes = chunkBytes;
+        mChunkDelayMillis = chunkDelayMillis;
+        return this;
+    }
+
+    /*
+        Makes the next responses carry a different forecast and ETag.
+     */
+    public void changeForecast() {
+        mVersion++;
+    }
+
+    public String getETag(int days) {
+        return "\"forecast-v" + mVersion + "-" + days + "\"";
+    }
+
+    public int getRequestCount() {
+        return mServer.getRequestCount();
+    }
+
+    public int getConnectionCount() {
+        return mServer.getConnectionCount();
+    }
+
+    public int getErrorCount() {
+        return mErrors.get();
+    }
+
+    public int getTimeoutCount() {
+        return mTimeouts.get();
+    }
+
+    public int getNotModifiedCount() {
+        return mNotModified.get();
+    }
+
+    /*
+        Days asked for over all the daily requests, including ones answered with a 304.
+     */
+    public int getDaysRequested() {
+        return mDaysServed.get();
+    }
+
+    /*
+        Body bytes sent, after gzip for the responses that were gzipped.
+     */
+    public int getGroupRequestCount() {
+        return mGroupRequests.get();
+    }
+
+    public int getBytesServed() {
+        return mBytesServed.get();
+    }
+
+    private StubHttpServer.Response respond(StubHttpServer.Request request) {
+        if (!sleep(mLatencyMillis)) {
+            return StubHttpServer.Response.status(503);
+        }
+
+        boolean fail;
+        boolean hang;
+        synchronized (mRandom) {
+            fail = mRandom.nextFloat() < mErrorRate;
+            hang = !fail && mRandom.nextFloat() < mTimeoutRate;
+        }
+        if (fail) {
+            mErrors.incrementAndGet();
+            return StubHttpServer.Response.status(503);
+        }
+        if (hang) {
+            mTimeouts.incrementAndGet();
+            sleep(HANG_MILLIS);
+            return StubHttpServer.Response.status(503);
+        }
+
+        if (request.path.startsWith(GROUP_PATH)) {
+            return respondToGroup(request);
+        } else if (request.path.startsWith(HOURLY_PATH)) {
+            return serve(request, StubHttpServer.Response.ok(
+                    ForecastFixtures.createHourlyForecastJson(HOURLY_SLOTS, mVersion,
+                            System.currentTimeMillis() / 1000)));
+        } else if (!request.path.startsWith(DAILY_PATH)) {
+            return StubHttpServer.Response.status(404);
+        }
+
+        int days = getDaysRequested(request.path);
+        mDaysServed.addAndGet(days);
+        String eTag = getETag(days);
+        if (mNotModifiedEnabled && eTag.equals(request.getHeader(HttpValidators.HEADER_IF_NONE_MATCH))) {
+            mNotModified.incrementAndGet();
+            return StubHttpServer.Response.notModified().header(HttpValidators.HEADER_ETAG, eTag);
+        }
+
+        long cityId = getCityId(getQueryParameter(request.path, OpenWeatherMapSource.QUERY_PARAM));
+        return serve(request,
+                StubHttpServer.Response.ok(ForecastFixtures.createForecastJson(days, mVersion, cityId))
+                .header(HttpValidators.HEADER_ETAG, eTag));
+    }
+
+    private StubHttpServer.Response respondToGroup(StubHttpServer.Request request) {
+        String ids = getQueryParameter(request.path, OpenWeatherMapSource.CITY_IDS_PARAM);
+        if (ids == null || ids.isEmpty()) {
+            return badRequest("no city IDs");
+        }
+        String[] idStrings = ids.split(",");
+        if (idStrings.length > MAX_GROUP_SIZE) {
+            return badRequest("too many city IDs");
+        }
+        long[] cityIds = new long[idStrings.length];
+        for (int i = 0; i < cityIds.length; i++) {
+            cityIds[i] = Long.parseLong(idStrings[i]);
+        }
+
+        mGroupRequests.incrementAndGet();
+        int days = getDaysRequested(request.path);
+        mDaysServed.addAndGet(days * cityIds.length);
+        return serve(request, StubHttpServer.Response.ok(
+                ForecastFixtures.createGroupForecastJson(cityIds, days, mVersion)));
+    }
+
+    /*
+        Errors come with a body carrying the code, like the real API's.
+     */
+    private static StubHttpServer.Response badRequest(String message) {
+        StubHttpServer.Response ok = StubHttpServer.Response.ok(
+                "{\"cod\":\"400\",\"message\":\"" + message + "\"}");
+        StubHttpServer.Response response = new StubHttpServer.Response(400, ok.body);
+        response.headers.putAll(ok.headers);
+        return response;
+    }
+
+    /*
+        The days asked for, up to the configured number of days.
+     */
+    private int getDaysRequested(String path) {
+        String days = getQueryParameter(path, OpenWeatherMapSource.DAYS_PARAM);
+        try {
+            return days != null ? Math.min(mDays, Integer.parseInt(days)) : mDays;
+        } catch (NumberFormatException e) {
+            return mDays;
+        }
+    }
+
+    private static String getQueryParameter(String path, String name) {
+        String prefix = name + "=";
+        for (String param : path.substring(path.indexOf('?') + 1).split("&")) {
+            if (param.startsWith(prefix)) {
+                try {
+                    return URLDecoder.decode(param.substring(prefix.length()), "UTF-8");
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        }
+        return null;
+    }
+
+    /*
+        Returns false if interrupted, which means the server is shutting down and nobody is
+        going to read the response.
+     */
+    private static boolean sleep(long millis) {
+        if (millis <= 0) {
+            return true;
+        }
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /*
+        Gzips the response if the client accepts it, and counts the bytes that go on the wire.
+     */
+    private StubHttpServer.Response serve(StubHttpServer.Request request,
+                                          StubHttpServer.Response response) {
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        if (mGzipEnabled && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            response = response.gzip();
+        }
+        mBytesServed.addAndGet(response.body.length);
+        return response.trickle(mChunkBytes, mChunkDelayMillis);
+    }
+}
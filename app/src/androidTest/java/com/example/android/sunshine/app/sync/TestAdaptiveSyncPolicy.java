@@ -0,0 +1,84 @@
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+public class TestAdaptiveSyncPolicy extends AndroidTestCase {
+    private static final long HOUR_IN_MILLIS = 1000 * 60 * 60;
+
+    /*
+        A clock that only moves when the test says so.
+     */
+    static class FakeClock implements Clock {
+        long now = 1000 * HOUR_IN_MILLIS;
+
+        @Override
+        public long currentTimeMillis() {
+            return now;
+        }
+    }
+
+    private FakeClock mClock;
+    private AdaptiveSyncPolicy mPolicy;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mClock = new FakeClock();
+        mPolicy = new AdaptiveSyncPolicy(mClock);
+    }
+
+    private SyncPolicy.Signals freshSignals(float volatility, boolean consumersActive) {
+        SyncPolicy.Signals signals = new SyncPolicy.Signals();
+        signals.volatility = volatility;
+        signals.lastFetchMillis = mClock.now;
+        signals.hasForecastForToday = true;
+        signals.consumersActive = consumersActive;
+        return signals;
+    }
+
+    public void testStableForecastSyncsLessOften() {
+        assertEquals("Error: A stable forecast should wait the longest interval",
+                AdaptiveSyncPolicy.MAX_INTERVAL, mPolicy.getSyncInterval(freshSignals(0f, true)));
+        assertEquals("Error: A volatile forecast should wait the shortest interval",
+                AdaptiveSyncPolicy.MIN_INTERVAL, mPolicy.getSyncInterval(freshSignals(0.9f, true)));
+
+        long between = mPolicy.getSyncInterval(freshSignals(0.3f, true));
+        assertTrue("Error: Interval should fall between the bounds: " + between,
+                between > AdaptiveSyncPolicy.MIN_INTERVAL && between < AdaptiveSyncPolicy.MAX_INTERVAL);
+        assertTrue("Error: More volatility should not mean a longer interval",
+                mPolicy.getSyncInterval(freshSignals(0.4f, true)) <= between);
+    }
+
+    public void testIdleConsumersSyncLessOften() {
+        long active = mPolicy.getSyncInterval(freshSignals(0.3f, true));
+        long idle = mPolicy.getSyncInterval(freshSignals(0.3f, false));
+        assertEquals("Error: Nobody watching should double the interval", active * 2, idle);
+
+        assertEquals("Error: The idle interval should be capped",
+                AdaptiveSyncPolicy.IDLE_INTERVAL, mPolicy.getSyncInterval(freshSignals(0f, false)));
+    }
+
+    public void testMissingForecastSyncsSoon() {
+        SyncPolicy.Signals signals = freshSignals(0f, false);
+        signals.hasForecastForToday = false;
+        assertEquals(AdaptiveSyncPolicy.MIN_INTERVAL, mPolicy.getSyncInterval(signals));
+
+        signals = freshSignals(0f, false);
+        signals.lastFetchMillis = -1;
+        assertEquals(AdaptiveSyncPolicy.MIN_INTERVAL, mPolicy.getSyncInterval(signals));
+    }
+
+    /*
+        As the stored forecast ages the interval shrinks, so it never gets older than MAX_AGE.
+     */
+    public void testStaleForecastSyncsSooner() {
+        SyncPolicy.Signals signals = freshSignals(0f, false);
+
+        mClock.now += 8 * HOUR_IN_MILLIS;
+        assertEquals(AdaptiveSyncPolicy.MAX_AGE - 8 * 60 * 60, mPolicy.getSyncInterval(signals));
+
+        mClock.now += 8 * HOUR_IN_MILLIS;
+        assertEquals("Error: A forecast past its maximum age should sync as soon as allowed",
+                AdaptiveSyncPolicy.MIN_INTERVAL, mPolicy.getSyncInterval(signals));
+    }
+}
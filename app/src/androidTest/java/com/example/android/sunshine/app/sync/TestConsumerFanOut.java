@@ -0,0 +1,92 @@
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class TestConsumerFanOut extends AndroidTestCase {
+    private static final long MILLIS_IN_NANOS = 1000000;
+
+    private static ConsumerFanOut.Consumer sleeper(String name, int stage, final long sleepMillis,
+                                                   long timeoutMillis) {
+        return new ConsumerFanOut.Consumer(name, stage, timeoutMillis) {
+            @Override
+            void update() throws InterruptedException {
+                Thread.sleep(sleepMillis);
+            }
+        };
+    }
+
+    /*
+        Dispatch should return right away and the consumers should run side by side, each with
+        its own latency recorded.
+     */
+    public void testConsumersRunInParallel() throws Throwable {
+        ConsumerFanOut fanOut = new ConsumerFanOut();
+        SyncMetrics metrics = new SyncMetrics();
+        List<ConsumerFanOut.Consumer> consumers = new ArrayList<ConsumerFanOut.Consumer>();
+        consumers.add(sleeper("widgets", SyncMetrics.STAGE_WIDGETS, 300, 5000));
+        consumers.add(sleeper("Muzei", SyncMetrics.STAGE_MUZEI, 300, 5000));
+        consumers.add(sleeper("watch", SyncMetrics.STAGE_WATCH, 100, 5000));
+
+        long start = System.nanoTime();
+        List<Future<?>> futures = fanOut.dispatch(consumers, metrics);
+        assertTrue("Error: Dispatch should not wait for the consumers",
+                System.nanoTime() - start < 200 * MILLIS_IN_NANOS);
+
+        for (Future<?> future : futures) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+        assertTrue("Error: Consumers should run in parallel, not one after the other",
+                System.nanoTime() - start < 650 * MILLIS_IN_NANOS);
+
+        assertTrue(metrics.getStageNanos(SyncMetrics.STAGE_WIDGETS) >= 300 * MILLIS_IN_NANOS);
+        assertTrue(metrics.getStageNanos(SyncMetrics.STAGE_MUZEI) >= 300 * MILLIS_IN_NANOS);
+        long watchNanos = metrics.getStageNanos(SyncMetrics.STAGE_WATCH);
+        assertTrue("Error: Each consumer should have its own latency: " + watchNanos,
+                watchNanos >= 100 * MILLIS_IN_NANOS && watchNanos < 300 * MILLIS_IN_NANOS);
+    }
+
+    /*
+        A consumer that overruns its timeout should be interrupted, without holding up the
+        others, and its latency should stop at the timeout.
+     */
+    public void testSlowConsumerTimesOut() throws Throwable {
+        ConsumerFanOut fanOut = new ConsumerFanOut();
+        SyncMetrics metrics = new SyncMetrics();
+        final CountDownLatch interrupted = new CountDownLatch(1);
+
+        List<ConsumerFanOut.Consumer> consumers = new ArrayList<ConsumerFanOut.Consumer>();
+        consumers.add(new ConsumerFanOut.Consumer("notification", SyncMetrics.STAGE_NOTIFY, 200) {
+            @Override
+            void update() throws InterruptedException {
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                    throw e;
+                }
+            }
+        });
+        consumers.add(sleeper("widgets", SyncMetrics.STAGE_WIDGETS, 50, 5000));
+
+        List<Future<?>> futures = fanOut.dispatch(consumers, metrics);
+        futures.get(1).get(5, TimeUnit.SECONDS);
+        try {
+            futures.get(0).get(5, TimeUnit.SECONDS);
+            fail("Error: The slow consumer should have been canceled");
+        } catch (CancellationException expected) {
+        }
+
+        assertTrue("Error: The slow consumer should have been interrupted",
+                interrupted.await(5, TimeUnit.SECONDS));
+        long notifyNanos = metrics.getStageNanos(SyncMetrics.STAGE_NOTIFY);
+        assertTrue("Error: Latency should stop at the timeout: " + notifyNanos,
+                notifyNanos >= 200 * MILLIS_IN_NANOS && notifyNanos < 2000 * MILLIS_IN_NANOS);
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class TestForecastChanges extends AndroidTestCase {
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int DAYS = 14;
+
+    private static ContentValues day(long date, int weatherId, double low, double high,
+                                     double humidity, double pressure) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.WeatherEntry.COLUMN_DATE, date);
+        values.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+        values.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
+        values.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
+        values.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
+        values.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
+        return values;
+    }
+
+    private static Map<Long, ContentValues> stored() {
+        Map<Long, ContentValues> stored = new HashMap<Long, ContentValues>();
+        for (int i = 0; i < DAYS; i++) {
+            stored.put(i * DAY_IN_MILLIS, day(i * DAY_IN_MILLIS, 800, 10.5 + i, 20.25 + i, 60, 1013));
+        }
+        return stored;
+    }
+
+    /*
+        A refetch usually brings every day back a little different: temperatures a few tenths of
+        a degree off, and humidity and pressure moved.  That's a stable forecast, and the policy
+        should treat it as one.
+     */
+    public void testDriftIsNotAChange() {
+        List<ContentValues> fetched = new ArrayList<ContentValues>();
+        for (int i = 0; i < DAYS; i++) {
+            fetched.add(day(i * DAY_IN_MILLIS, 800, 10.5 + i + 0.37, 20.25 + i - 0.61,
+                    62 + i % 3, 1011.8));
+        }
+
+        int changed = ForecastChanges.count(stored(), fetched);
+        assertEquals("Error: Small drifts shouldn't count as changes", 0, changed);
+
+        SyncPolicy.Signals signals = new SyncPolicy.Signals();
+        signals.volatility = (float) changed / DAYS;
+        signals.lastFetchMillis = System.currentTimeMillis();
+        signals.hasForecastForToday = true;
+        signals.consumersActive = true;
+        assertEquals("Error: A drifting forecast should sync as seldom as a stable one",
+                AdaptiveSyncPolicy.MAX_INTERVAL, new AdaptiveSyncPolicy().getSyncInterval(signals));
+    }
+
+    public void testNoticeableChanges() {
+        List<ContentValues> fetched = new ArrayList<ContentValues>();
+        // The weather itself changes
+        fetched.add(day(0, 500, 10.5, 20.25, 60, 1013));
+        // The low drops by a degree and a half
+        fetched.add(day(DAY_IN_MILLIS, 800, 10, 21.25, 60, 1013));
+        // The high rises by exactly the threshold
+        fetched.add(day(2 * DAY_IN_MILLIS, 800, 12.5,
+                22.25 + ForecastChanges.TEMPERATURE_THRESHOLD, 60, 1013));
+        // Unchanged
+        fetched.add(day(3 * DAY_IN_MILLIS, 800, 13.5, 23.25, 60, 1013));
+        // A day that rolled into the window
+        fetched.add(day(DAYS * DAY_IN_MILLIS, 800, 10, 20, 60, 1013));
+
+        assertEquals(4, ForecastChanges.count(stored(), fetched));
+    }
+}
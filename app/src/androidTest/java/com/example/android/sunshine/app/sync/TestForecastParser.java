@@ -0,0 +1,305 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Checks that the streaming ForecastParser reads the same values as the JSONObject path it
+    replaced, and benchmarks the two against each other on 14 and 16 day documents.  The
+    benchmark only logs its numbers; run it with "adb logcat -s TestForecastParser" to see them.
+ */
+public class TestForecastParser extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastParser.class.getSimpleName();
+
+    private static final int WARMUP_ITERATIONS = 50;
+    private static final int BENCHMARK_ITERATIONS = 500;
+
+    /*
+        Row values we compare between the two parsers, in the same order for both.
+     */
+    static class Row {
+        int index;
+        double pressure;
+        int humidity;
+        double windSpeed;
+        double windDirection;
+        double high;
+        double low;
+        String description;
+        int weatherId;
+    }
+
+    static class RowCollector implements ForecastParser.Callback {
+        final List<Row> rows = new ArrayList<Row>();
+        long cityId;
+        String cityName;
+        double lat;
+        double lon;
+
+        @Override
+        public void onCity(long cityId, String cityName, double lat, double lon) {
+            this.cityId = cityId;
+            this.cityName = cityName;
+            this.lat = lat;
+            this.lon = lon;
+        }
+
+        @Override
+        public void onDay(ForecastParser.Day day) {
+            Row row = new Row();
+            row.index = day.index;
+            row.pressure = day.pressure;
+            row.humidity = day.humidity;
+            row.windSpeed = day.windSpeed;
+            row.windDirection = day.windDirection;
+            row.high = day.high;
+            row.low = day.low;
+            row.description = day.description;
+            row.weatherId = day.weatherId;
+            rows.add(row);
+        }
+    }
+
+    /*
+        This is the JSONObject path that SunshineSyncAdapter used before the streaming parser:
+        read the whole document into a String, build the object tree, then pull fields out.
+     */
+    static RowCollector parseWithJsonObject(InputStream in) throws IOException, JSONException {
+        StringBuilder buffer = new StringBuilder();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            buffer.append(line).append('\n');
+        }
+
+        RowCollector collector = new RowCollector();
+        JSONObject forecastJson = new JSONObject(buffer.toString());
+        JSONArray weatherArray = forecastJson.getJSONArray(ForecastParser.OWM_LIST);
+
+        JSONObject cityJson = forecastJson.getJSONObject(ForecastParser.OWM_CITY);
+        JSONObject cityCoord = cityJson.getJSONObject(ForecastParser.OWM_COORD);
+        collector.onCity(cityJson.optLong(ForecastParser.OWM_CITY_ID),
+                cityJson.getString(ForecastParser.OWM_CITY_NAME),
+                cityCoord.getDouble(ForecastParser.OWM_LATITUDE),
+                cityCoord.getDouble(ForecastParser.OWM_LONGITUDE));
+
+        ForecastParser.Day day = new ForecastParser.Day();
+        for (int i = 0; i < weatherArray.length(); i++) {
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+            day.index = i;
+            day.pressure = dayForecast.getDouble(ForecastParser.OWM_PRESSURE);
+            day.humidity = dayForecast.getInt(ForecastParser.OWM_HUMIDITY);
+            day.windSpeed = dayForecast.getDouble(ForecastParser.OWM_WINDSPEED);
+            day.windDirection = dayForecast.getDouble(ForecastParser.OWM_WIND_DIRECTION);
+
+            JSONObject weatherObject =
+                    dayForecast.getJSONArray(ForecastParser.OWM_WEATHER).getJSONObject(0);
+            day.description = weatherObject.getString(ForecastParser.OWM_DESCRIPTION);
+            day.weatherId = weatherObject.getInt(ForecastParser.OWM_WEATHER_ID);
+
+            JSONObject temperatureObject =
+                    dayForecast.getJSONObject(ForecastParser.OWM_TEMPERATURE);
+            day.high = temperatureObject.getDouble(ForecastParser.OWM_MAX);
+            day.low = temperatureObject.getDouble(ForecastParser.OWM_MIN);
+            collector.onDay(day);
+        }
+        return collector;
+    }
+
+    static RowCollector parseWithStreamingParser(InputStream in) throws IOException, JSONException {
+        RowCollector collector = new RowCollector();
+        new ForecastParser().parse(in, collector);
+        return collector;
+    }
+
+    private static InputStream streamOf(String json) throws IOException {
+        return new ByteArrayInputStream(json.getBytes("UTF-8"));
+    }
+
+    public void testParseForecast() throws Throwable {
+        String json = ForecastFixtures.createForecastJson(14);
+        RowCollector collector = new RowCollector();
+        int messageCode = new ForecastParser().parse(streamOf(json), collector);
+
+        assertEquals("Error: Unexpected message code", 200, messageCode);
+        assertEquals("Error: City name not parsed", ForecastFixtures.CITY_NAME, collector.cityName);
+        assertEquals(ForecastFixtures.CITY_ID, collector.cityId);
+        assertEquals(ForecastFixtures.CITY_LAT, collector.lat, 0.0001);
+        assertEquals(ForecastFixtures.CITY_LON, collector.lon, 0.0001);
+        assertEquals("Error: Wrong number of days parsed", 14, collector.rows.size());
+        for (int i = 0; i < collector.rows.size(); i++) {
+            assertEquals("Error: Days emitted out of order", i, collector.rows.get(i).index);
+        }
+    }
+
+    public void testMatchesJsonObjectPath() throws Throwable {
+        for (int days : new int[] {14, 16}) {
+            String json = ForecastFixtures.createForecastJson(days, 3);
+            RowCollector expected = parseWithJsonObject(streamOf(json));
+            RowCollector actual = parseWithStreamingParser(streamOf(json));
+
+            assertEquals(expected.cityName, actual.cityName);
+            assertEquals(expected.lat, actual.lat, 0.0);
+            assertEquals(expected.lon, actual.lon, 0.0);
+            assertEquals("Error: Row counts differ for " + days + " days",
+                    expected.rows.size(), actual.rows.size());
+            for (int i = 0; i < expected.rows.size(); i++) {
+                Row e = expected.rows.get(i);
+                Row a = actual.rows.get(i);
+                String error = "Error: Day " + i + " of " + days + " differs. ";
+                assertEquals(error, e.pressure, a.pressure, 0.0);
+                assertEquals(error, e.humidity, a.humidity);
+                assertEquals(error, e.windSpeed, a.windSpeed, 0.0);
+                assertEquals(error, e.windDirection, a.windDirection, 0.0);
+                assertEquals(error, e.high, a.high, 0.0);
+                assertEquals(error, e.low, a.low, 0.0);
+                assertEquals(error, e.description, a.description);
+                assertEquals(error, e.weatherId, a.weatherId);
+            }
+        }
+    }
+
+    /*
+        Interrupting the parsing thread, which is how a sync is canceled, should stop parsing
+        before the next day.
+     */
+    public void testInterrupted() throws Throwable {
+        String json = ForecastFixtures.createForecastJson(14);
+        RowCollector collector = new RowCollector() {
+            @Override
+            public void onDay(ForecastParser.Day day) {
+                super.onDay(day);
+                if (rows.size() == 2) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        try {
+            new ForecastParser().parse(streamOf(json), collector);
+            fail("Error: Parsing should stop once the thread is interrupted");
+        } catch (InterruptedIOException expected) {
+        } finally {
+            // Clears the interrupt so it doesn't leak into the next test
+            Thread.interrupted();
+        }
+        assertEquals("Error: Parsing should stop at the next day", 2, collector.rows.size());
+    }
+
+    public void testParseGroup() throws Throwable {
+        long[] cityIds = new long[] {1, 2, 3};
+        String json = ForecastFixtures.createGroupForecastJson(cityIds, 7, 0);
+        final List<RowCollector> forecasts = new ArrayList<RowCollector>();
+        final List<Integer> messageCodes = new ArrayList<Integer>();
+
+        int messageCode = new ForecastParser().parseGroup(streamOf(json),
+                new ForecastParser.GroupCallback() {
+                    @Override
+                    public ForecastParser.Callback onForecastStart() {
+                        return new RowCollector();
+                    }
+
+                    @Override
+                    public void onForecastEnd(ForecastParser.Callback forecast, int messageCode) {
+                        forecasts.add((RowCollector) forecast);
+                        messageCodes.add(messageCode);
+                    }
+                });
+
+        assertEquals(200, messageCode);
+        assertEquals(cityIds.length, forecasts.size());
+        for (int i = 0; i < cityIds.length; i++) {
+            assertEquals("Error: Forecasts out of order", cityIds[i], forecasts.get(i).cityId);
+            assertEquals(200, (int) messageCodes.get(i));
+            assertEquals(7, forecasts.get(i).rows.size());
+        }
+    }
+
+    public void testErrorMessageCode() throws Throwable {
+        RowCollector collector = new RowCollector();
+        int messageCode = new ForecastParser().parse(
+                streamOf("{\"cod\":\"404\",\"message\":\"Error: Not found city\"}"), collector);
+        assertEquals("Error: 404 message code not reported", 404, messageCode);
+        assertNull(collector.cityName);
+        assertTrue(collector.rows.isEmpty());
+    }
+
+    public void testMissingFieldIsInvalid() throws Throwable {
+        String json = ForecastFixtures.createForecastJson(2).replaceFirst("\"pressure\":", "\"p\":");
+        try {
+            new ForecastParser().parse(streamOf(json), new RowCollector());
+            fail("Error: A day without a pressure should be rejected");
+        } catch (JSONException expected) {
+        }
+    }
+
+    public void testMalformedIsInvalid() throws Throwable {
+        try {
+            new ForecastParser().parse(streamOf("{\"list\":[{\"pressure\":}]}"), new RowCollector());
+            fail("Error: Malformed JSON should be reported as a JSONException");
+        } catch (JSONException expected) {
+        }
+    }
+
+    public void testBenchmark14Days() throws Throwable {
+        benchmark(14);
+    }
+
+    public void testBenchmark16Days() throws Throwable {
+        benchmark(16);
+    }
+
+    private void benchmark(int days) throws Throwable {
+        byte[] payload = ForecastFixtures.createForecastJson(days).getBytes("UTF-8");
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            parseWithJsonObject(new ByteArrayInputStream(payload));
+            parseWithStreamingParser(new ByteArrayInputStream(payload));
+        }
+
+        long[] jsonObject = runIterations(payload, false);
+        long[] streaming = runIterations(payload, true);
+
+        Log.i(LOG_TAG, String.format("%d days, %d bytes, %d iterations", days, payload.length,
+                BENCHMARK_ITERATIONS));
+        Log.i(LOG_TAG, String.format("  JSONObject: %d us/parse, %d bytes allocated/parse",
+                jsonObject[0] / 1000 / BENCHMARK_ITERATIONS, jsonObject[1] / BENCHMARK_ITERATIONS));
+        Log.i(LOG_TAG, String.format("  streaming:  %d us/parse, %d bytes allocated/parse",
+                streaming[0] / 1000 / BENCHMARK_ITERATIONS, streaming[1] / BENCHMARK_ITERATIONS));
+    }
+
+    /*
+        Returns {elapsed nanoseconds, bytes allocated on this thread} over all iterations.
+     */
+    @SuppressWarnings("deprecation")
+    private static long[] runIterations(byte[] payload, boolean streaming) throws Throwable {
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            InputStream in = new ByteArrayInputStream(payload);
+            if (streaming) {
+                parseWithStreamingParser(in);
+            } else {
+                parseWithJsonObject(in);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        Debug.stopAllocCounting();
+        return new long[] {elapsed, Debug.getThreadAllocSize()};
+    }
+}
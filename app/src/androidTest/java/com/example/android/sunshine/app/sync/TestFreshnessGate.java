@@ -0,0 +1,57 @@
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+public class TestFreshnessGate extends AndroidTestCase {
+    private static final long MINUTE_IN_MILLIS = 60 * 1000;
+
+    private TestAdaptiveSyncPolicy.FakeClock mClock;
+    private FreshnessGate mGate;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mClock = new TestAdaptiveSyncPolicy.FakeClock();
+        mGate = new FreshnessGate(mClock, 10 * MINUTE_IN_MILLIS, null);
+    }
+
+    public void testSkipsWithinTtl() {
+        assertTrue("Error: A location never synced should be synced", mGate.shouldSync("a", false));
+        mGate.onSynced("a");
+
+        mClock.now += 10 * MINUTE_IN_MILLIS - 1;
+        assertFalse(mGate.shouldSync("a", false));
+        assertTrue("Error: Other locations aren't covered", mGate.shouldSync("b", false));
+
+        mClock.now += 1;
+        assertTrue("Error: The TTL is up", mGate.shouldSync("a", false));
+        assertEquals(1, mGate.getHitCount());
+        assertEquals(3, mGate.getMissCount());
+    }
+
+    public void testForce() {
+        mGate.onSynced("a");
+        assertTrue(mGate.shouldSync("a", true));
+        assertEquals(1, mGate.getForcedCount());
+        assertEquals("Error: A forced sync isn't a hit or a miss",
+                0, mGate.getHitCount() + mGate.getMissCount());
+    }
+
+    public void testTtl() {
+        mGate.onSynced("a");
+        mClock.now += MINUTE_IN_MILLIS;
+        mGate.setTtlMillis(0);
+        assertTrue("Error: A TTL of 0 should sync every time", mGate.shouldSync("a", false));
+        mGate.setTtlMillis(2 * MINUTE_IN_MILLIS);
+        assertFalse(mGate.shouldSync("a", false));
+    }
+
+    /*
+        A sync time from the future is left over from a clock that was turned back.
+     */
+    public void testClockTurnedBack() {
+        mGate.onSynced("a");
+        mClock.now -= MINUTE_IN_MILLIS;
+        assertTrue(mGate.shouldSync("a", false));
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.util.Arrays;
+
+public class TestHorizonPolicy extends AndroidTestCase {
+    private static final long HOUR_IN_MILLIS = 60 * 60 * 1000;
+    private static final long NOW = 1000 * HOUR_IN_MILLIS;
+
+    private static long[] fetchedHoursAgo(int hours) {
+        long[] fetched = new long[HorizonPolicy.NUM_DAYS];
+        Arrays.fill(fetched, NOW - hours * HOUR_IN_MILLIS);
+        return fetched;
+    }
+
+    public void testNothingCached() {
+        assertEquals(HorizonPolicy.NUM_DAYS,
+                HorizonPolicy.DEFAULT.getDaysToFetch(new long[HorizonPolicy.NUM_DAYS], NOW));
+        assertEquals("Error: Days missing from the array should count as not held",
+                HorizonPolicy.NUM_DAYS, HorizonPolicy.DEFAULT.getDaysToFetch(new long[0], NOW));
+    }
+
+    public void testDefaultHorizon() {
+        HorizonPolicy policy = HorizonPolicy.DEFAULT;
+        assertEquals("Error: The near days should be fetched on every sync",
+                3, policy.getDaysToFetch(fetchedHoursAgo(0), NOW));
+        assertEquals(3, policy.getDaysToFetch(fetchedHoursAgo(11), NOW));
+        assertEquals(7, policy.getDaysToFetch(fetchedHoursAgo(12), NOW));
+        assertEquals(7, policy.getDaysToFetch(fetchedHoursAgo(23), NOW));
+        assertEquals(HorizonPolicy.NUM_DAYS, policy.getDaysToFetch(fetchedHoursAgo(24), NOW));
+    }
+
+    /*
+        A single missing or stale day far out means asking for everything up to it.
+     */
+    public void testFurthestStaleDayWins() {
+        long[] fetched = fetchedHoursAgo(0);
+        fetched[9] = 0;
+        assertEquals(10, HorizonPolicy.DEFAULT.getDaysToFetch(fetched, NOW));
+
+        fetched = fetchedHoursAgo(0);
+        fetched[5] = NOW - 13 * HOUR_IN_MILLIS;
+        assertEquals(6, HorizonPolicy.DEFAULT.getDaysToFetch(fetched, NOW));
+    }
+
+    public void testFreshWindow() {
+        HorizonPolicy policy = new HorizonPolicy(HorizonPolicy.NUM_DAYS, HOUR_IN_MILLIS);
+        assertEquals(0, policy.getDaysToFetch(fetchedHoursAgo(0), NOW));
+        assertEquals(HorizonPolicy.NUM_DAYS, policy.getDaysToFetch(fetchedHoursAgo(1), NOW));
+        assertEquals(HorizonPolicy.NUM_DAYS,
+                HorizonPolicy.FULL.getDaysToFetch(fetchedHoursAgo(0), NOW));
+    }
+}
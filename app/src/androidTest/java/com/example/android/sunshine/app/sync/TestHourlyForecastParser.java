@@ -0,0 +1,69 @@
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestHourlyForecastParser extends AndroidTestCase {
+    // December 20th, 2014, which falls on a slot boundary
+    private static final long START_SECONDS = 1419033600L;
+
+    private static InputStream stream(String json) throws Exception {
+        return new ByteArrayInputStream(json.getBytes("UTF-8"));
+    }
+
+    private static class SlotCollector implements HourlyForecastParser.Callback {
+        final List<Long> dateTimes = new ArrayList<Long>();
+        final List<Double> temperatures = new ArrayList<Double>();
+        String firstDescription;
+        int firstWeatherId;
+
+        @Override
+        public void onSlot(HourlyForecastParser.Slot slot) {
+            if (dateTimes.isEmpty()) {
+                firstDescription = slot.description;
+                firstWeatherId = slot.weatherId;
+            }
+            dateTimes.add(slot.dateTime);
+            temperatures.add(slot.temperature);
+        }
+    }
+
+    public void testParsesEverySlot() throws Exception {
+        SlotCollector slots = new SlotCollector();
+        int messageCode = new HourlyForecastParser().parse(
+                stream(ForecastFixtures.createHourlyForecastJson(40, 0, START_SECONDS)), slots);
+
+        assertEquals(HttpURLConnection.HTTP_OK, messageCode);
+        assertEquals(40, slots.dateTimes.size());
+        assertEquals("Error: Slot times should be in milliseconds",
+                START_SECONDS * 1000, (long) slots.dateTimes.get(0));
+        assertEquals("Error: Slots should be 3 hours apart",
+                START_SECONDS * 1000 + 3 * 60 * 60 * 1000, (long) slots.dateTimes.get(1));
+        assertEquals(15.0, slots.temperatures.get(0), 0.001);
+        assertEquals("Clear", slots.firstDescription);
+        assertEquals(800, slots.firstWeatherId);
+    }
+
+    public void testErrorCode() throws Exception {
+        int messageCode = new HourlyForecastParser().parse(
+                stream("{\"cod\":\"404\",\"message\":\"city not found\"}"), new SlotCollector());
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, messageCode);
+    }
+
+    public void testMissingFieldFails() throws Exception {
+        String json = ForecastFixtures.createHourlyForecastJson(2, 0, START_SECONDS)
+                .replaceFirst("\"wind\":\\{[^}]*\\},", "");
+        try {
+            new HourlyForecastParser().parse(stream(json), new SlotCollector());
+            fail("Error: A slot without wind should be rejected");
+        } catch (JSONException expected) {
+        }
+    }
+}
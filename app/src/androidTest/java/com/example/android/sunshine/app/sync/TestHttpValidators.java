@@ -0,0 +1,116 @@
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/*
+    Runs conditional GETs against a stub server that answers 200 with validators the first time
+    and 304 when they come back, and checks the validators round-trip through the provider.
+ */
+public class TestHttpValidators extends AndroidTestCase {
+    private static final String TEST_LOCATION = "99705";
+    private static final String ETAG = "\"forecast-v1\"";
+    private static final String LAST_MODIFIED = "Sat, 20 Dec 2014 00:00:00 GMT";
+
+    private StubHttpServer mServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherContract.ValidatorEntry.CONTENT_URI, null, null);
+
+        final String body = ForecastFixtures.createForecastJson(14);
+        mServer = new StubHttpServer(new StubHttpServer.Handler() {
+            @Override
+            public StubHttpServer.Response handle(StubHttpServer.Request request) {
+                if (ETAG.equals(request.getHeader(HttpValidators.HEADER_IF_NONE_MATCH))) {
+                    return StubHttpServer.Response.notModified().header(HttpValidators.HEADER_ETAG, ETAG);
+                }
+                return StubHttpServer.Response.ok(body)
+                        .header(HttpValidators.HEADER_ETAG, ETAG)
+                        .header(HttpValidators.HEADER_LAST_MODIFIED, LAST_MODIFIED);
+            }
+        });
+        mServer.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        mContext.getContentResolver().delete(WeatherContract.ValidatorEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    private HttpURLConnection get(HttpValidators validators) throws IOException {
+        HttpURLConnection urlConnection =
+                (HttpURLConnection) new URL(mServer.getUrl("/forecast/daily")).openConnection();
+        urlConnection.setRequestMethod("GET");
+        validators.applyTo(urlConnection);
+        urlConnection.connect();
+        return urlConnection;
+    }
+
+    public void testNotModifiedAfterValidatorsStored() throws Throwable {
+        // Nothing stored yet, so the first fetch is unconditional and gets the full body
+        HttpValidators validators =
+                HttpValidators.load(mContext.getContentResolver(), TEST_LOCATION);
+        assertTrue("Error: Validators found before any were stored", validators.isEmpty());
+
+        HttpURLConnection urlConnection = get(validators);
+        assertEquals(HttpURLConnection.HTTP_OK, urlConnection.getResponseCode());
+        RowCountingCallback rows = new RowCountingCallback();
+        new ForecastParser().parse(urlConnection.getInputStream(), rows);
+        assertEquals("Error: 200 response should carry the forecast", 14, rows.days);
+
+        HttpValidators.fromResponse(urlConnection).save(mContext.getContentResolver(), TEST_LOCATION);
+        urlConnection.disconnect();
+        assertNull("Error: First request should not have been conditional",
+                mServer.getRequests().get(0).getHeader(HttpValidators.HEADER_IF_NONE_MATCH));
+
+        // The second fetch sends the stored validators back and gets a 304
+        validators = HttpValidators.load(mContext.getContentResolver(), TEST_LOCATION);
+        assertEquals(ETAG, validators.getETag());
+        assertEquals(LAST_MODIFIED, validators.getLastModified());
+
+        urlConnection = get(validators);
+        assertEquals("Error: Stored validators should produce a 304",
+                HttpURLConnection.HTTP_NOT_MODIFIED, urlConnection.getResponseCode());
+        urlConnection.disconnect();
+
+        StubHttpServer.Request conditional = mServer.getRequests().get(1);
+        assertEquals(ETAG, conditional.getHeader(HttpValidators.HEADER_IF_NONE_MATCH));
+        assertEquals(LAST_MODIFIED, conditional.getHeader(HttpValidators.HEADER_IF_MODIFIED_SINCE));
+    }
+
+    public void testSaveReplacesAndClears() {
+        new HttpValidators("\"a\"", null).save(mContext.getContentResolver(), TEST_LOCATION);
+        new HttpValidators("\"b\"", LAST_MODIFIED).save(mContext.getContentResolver(), TEST_LOCATION);
+
+        HttpValidators validators = HttpValidators.load(mContext.getContentResolver(), TEST_LOCATION);
+        assertEquals("Error: Newer validators should replace older ones", "\"b\"", validators.getETag());
+        assertEquals(LAST_MODIFIED, validators.getLastModified());
+
+        HttpValidators.NONE.save(mContext.getContentResolver(), TEST_LOCATION);
+        assertTrue("Error: Saving empty validators should clear the entry",
+                HttpValidators.load(mContext.getContentResolver(), TEST_LOCATION).isEmpty());
+    }
+
+    static class RowCountingCallback implements ForecastParser.Callback {
+        int days;
+
+        @Override
+        public void onCity(long cityId, String cityName, double lat, double lon) {
+        }
+
+        @Override
+        public void onDay(ForecastParser.Day day) {
+            days++;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestLocationSyncEngine extends AndroidTestCase {
+    private static final String HOST = "api.openweathermap.org";
+
+    private static List<String> locations(int count) {
+        List<String> locations = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            locations.add(Integer.toString(94040 + i));
+        }
+        return locations;
+    }
+
+    /*
+        Every location should be synced exactly once, with no more than MAX_REQUESTS_PER_HOST
+        of them talking to the same host at any time.
+     */
+    public void testPerHostLimit() throws Throwable {
+        final LocationSyncEngine engine = new LocationSyncEngine(4, 2);
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final List<String> synced = Collections.synchronizedList(new ArrayList<String>());
+
+        engine.run(locations(12), new LocationSyncEngine.LocationTask() {
+            @Override
+            public void sync(String locationSetting) throws InterruptedException {
+                engine.acquireHost(HOST);
+                try {
+                    int now = inFlight.incrementAndGet();
+                    synchronized (maxInFlight) {
+                        maxInFlight.set(Math.max(maxInFlight.get(), now));
+                    }
+                    Thread.sleep(20);
+                    inFlight.decrementAndGet();
+                } finally {
+                    engine.releaseHost(HOST);
+                }
+                synced.add(locationSetting);
+            }
+        });
+
+        assertEquals("Error: Every location should be synced once", 12, synced.size());
+        assertTrue("Error: More than 2 requests were in flight to one host: " + maxInFlight.get(),
+                maxInFlight.get() <= 2);
+    }
+
+    /*
+        Canceling should interrupt running locations, skip the rest, and make run() throw.
+     */
+    public void testCancel() throws Throwable {
+        final LocationSyncEngine engine = new LocationSyncEngine(2, 2);
+        final CountDownLatch started = new CountDownLatch(2);
+        final AtomicInteger completed = new AtomicInteger();
+
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    started.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) {
+                }
+                engine.cancel();
+            }
+        }.start();
+
+        long start = System.currentTimeMillis();
+        try {
+            engine.run(locations(10), new LocationSyncEngine.LocationTask() {
+                @Override
+                public void sync(String locationSetting) throws InterruptedException {
+                    started.countDown();
+                    Thread.sleep(10000);
+                    completed.incrementAndGet();
+                }
+            });
+            fail("Error: A canceled sync should throw InterruptedException");
+        } catch (InterruptedException expected) {
+        }
+
+        assertTrue("Error: Running locations should stop as soon as they're interrupted",
+                System.currentTimeMillis() - start < 5000);
+        assertEquals("Error: No location should complete after cancel", 0, completed.get());
+        assertTrue(engine.isCanceled());
+    }
+}
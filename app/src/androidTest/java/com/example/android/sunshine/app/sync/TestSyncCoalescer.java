@@ -0,0 +1,69 @@
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+public class TestSyncCoalescer extends AndroidTestCase {
+    private static final String LOCATION = "94043";
+    private static final String OTHER_LOCATION = "10001";
+
+    /*
+        A burst of requests for one location should produce a single sync until that sync
+        starts, while requests for another location go through.
+     */
+    public void testRequestsAreMerged() {
+        SyncCoalescer coalescer = new SyncCoalescer();
+
+        assertTrue("Error: The first request should start a sync", coalescer.requestSync(LOCATION, false, 0));
+        assertFalse(coalescer.requestSync(LOCATION, false, 10));
+        assertFalse(coalescer.requestSync(LOCATION, false, 20));
+        assertTrue("Error: Requests for another location should not be merged",
+                coalescer.requestSync(OTHER_LOCATION, false, 30));
+
+        assertEquals("Error: The sync should report the requests merged into it",
+                2, coalescer.onSyncStarted(LOCATION, false));
+        assertTrue("Error: Requests during the sync may come after it fetched the location, "
+                + "so they should start a new one", coalescer.requestSync(LOCATION, false, 50));
+        assertFalse("Error: Requests should merge into the sync queued behind the running one",
+                coalescer.requestSync(LOCATION, false, 60));
+        assertEquals(1, coalescer.onSyncStarted(LOCATION, false));
+        assertEquals("Error: A sync nobody requested has nothing merged into it",
+                0, coalescer.onSyncStarted(LOCATION, false));
+
+        assertEquals(6, coalescer.getRequestCount());
+        assertEquals(3, coalescer.getMergedRequestCount());
+    }
+
+    /*
+        A request that never turned into a sync should stop holding back new ones.
+     */
+    public void testPendingRequestExpires() {
+        SyncCoalescer coalescer = new SyncCoalescer();
+
+        assertTrue(coalescer.requestSync(LOCATION, false, 0));
+        assertFalse(coalescer.requestSync(LOCATION, false, SyncCoalescer.PENDING_TIMEOUT_MILLIS - 1));
+        assertTrue("Error: An expired request should not merge new ones",
+                coalescer.requestSync(LOCATION, false, SyncCoalescer.PENDING_TIMEOUT_MILLIS + 1));
+    }
+
+    /*
+        A forced refresh shouldn't be swallowed by a plain sync, which may skip fresh locations,
+        but a plain request is covered by a forced sync.
+     */
+    public void testForcedRequests() {
+        SyncCoalescer coalescer = new SyncCoalescer();
+
+        assertTrue(coalescer.requestSync(LOCATION, false, 0));
+        assertTrue("Error: A forced request should not merge into a plain sync",
+                coalescer.requestSync(LOCATION, true, 10));
+        assertFalse(coalescer.requestSync(LOCATION, true, 20));
+        assertFalse("Error: A plain request should merge into a pending forced sync",
+                coalescer.requestSync(LOCATION, false, 30));
+
+        assertEquals(0, coalescer.onSyncStarted(LOCATION, false));
+        assertEquals(2, coalescer.onSyncStarted(LOCATION, true));
+        assertTrue(coalescer.requestSync(LOCATION, true, 50));
+
+        assertEquals(5, coalescer.getRequestCount());
+        assertEquals(2, coalescer.getMergedRequestCount());
+    }
+}
@@ -0,0 +1,212 @@
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.Arrays;
+
+public class TestSyncHttpClient extends AndroidTestCase {
+    private static final long MILLIS_IN_NANOS = 1000000;
+
+    private StubHttpServer mServer;
+    private SyncHttpClient mClient;
+    private volatile byte[] mBody = new byte[1024];
+    private volatile int mStatus = 200;
+    private volatile long mLatencyMillis;
+    private volatile boolean mGzip;
+    private volatile long mChunkDelayMillis;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        Arrays.fill(mBody, (byte) 'x');
+        mServer = new StubHttpServer(new StubHttpServer.Handler() {
+            @Override
+            public StubHttpServer.Response handle(StubHttpServer.Request request) throws IOException {
+                try {
+                    Thread.sleep(mLatencyMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                StubHttpServer.Response response = new StubHttpServer.Response(mStatus, mBody);
+                String acceptEncoding = request.getHeader("Accept-Encoding");
+                if (mGzip && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                    response = response.gzip();
+                }
+                return response.trickle(1024, mChunkDelayMillis);
+            }
+        });
+        mServer.start();
+        mClient = new SyncHttpClient(5000, 5000);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    private SyncHttpClient.Exchange get() throws IOException {
+        return mClient.get(new URL(mServer.getUrl("/test")), HttpValidators.NONE);
+    }
+
+    private static int readAll(InputStream in) throws IOException {
+        byte[] buffer = new byte[512];
+        int total = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            total += read;
+        }
+        return total;
+    }
+
+    public void testConnectionIsReused() throws Throwable {
+        for (int i = 0; i < 10; i++) {
+            SyncHttpClient.Exchange exchange = get();
+            assertEquals(mBody.length, readAll(exchange.getBody()));
+            exchange.close();
+        }
+        assertEquals(10, mServer.getRequestCount());
+        assertEquals("Error: Sequential requests should share one connection",
+                1, mServer.getConnectionCount());
+    }
+
+    /*
+        A small body that nobody read, like an error page, is drained so its connection can
+        still be reused.
+     */
+    public void testUnreadBodyIsDrained() throws Throwable {
+        mStatus = 503;
+        get().close();
+        mStatus = 200;
+        get().close();
+        assertEquals(1, mServer.getConnectionCount());
+    }
+
+    /*
+        A large body abandoned early isn't worth reading to the end, so that connection is
+        dropped.
+     */
+    public void testAbandonedBodyDisconnects() throws Throwable {
+        mBody = new byte[SyncHttpClient.MAX_DRAIN_BYTES * 4];
+        SyncHttpClient.Exchange exchange = get();
+        exchange.getBody().read(new byte[16]);
+        exchange.close();
+
+        mBody = new byte[16];
+        exchange = get();
+        readAll(exchange.getBody());
+        exchange.close();
+        assertEquals(2, mServer.getConnectionCount());
+    }
+
+    public void testTimings() throws Throwable {
+        mLatencyMillis = 100;
+        mBody = new byte[64 * 1024];
+
+        SyncHttpClient.Exchange exchange = get();
+        assertEquals(mBody.length, readAll(exchange.getBody()));
+        exchange.close();
+
+        SyncHttpClient.Timings timings = exchange.getTimings();
+        assertTrue("Error: Time to first byte should include the server's latency",
+                timings.getFirstByteNanos() >= 100 * MILLIS_IN_NANOS);
+        assertTrue(timings.getConnectNanos() > 0);
+        assertTrue(timings.getTransferNanos() > 0);
+        assertEquals(mBody.length, timings.getBytes());
+    }
+
+    /*
+        A gzipped body should come out decoded, with only the compressed bytes counted as
+        transferred, and leave the connection reusable.
+     */
+    public void testGzippedBody() throws Throwable {
+        mGzip = true;
+        mBody = "{\"city\":\"Z\u00fcrich\",\"list\":[]}                                "
+                .getBytes("UTF-8");
+        for (int i = 0; i < 3; i++) {
+            SyncHttpClient.Exchange exchange = get();
+            assertTrue(exchange.isGzipped());
+            InputStream in = exchange.getBody();
+            ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+            byte[] buffer = new byte[512];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                decoded.write(buffer, 0, read);
+            }
+            exchange.close();
+
+            assertEquals("{\"city\":\"Z\u00fcrich\",", new String(decoded.toByteArray(), "UTF-8")
+                    .substring(0, 17));
+            assertEquals(mBody.length, decoded.size());
+            assertTrue("Error: Only the compressed bytes went over the wire",
+                    exchange.getTimings().getBytes() < mBody.length);
+        }
+        assertEquals(1, mServer.getConnectionCount());
+    }
+
+    public void testUncompressedBody() throws Throwable {
+        SyncHttpClient.Exchange exchange = get();
+        assertFalse(exchange.isGzipped());
+        assertEquals(mBody.length, readAll(exchange.getBody()));
+        exchange.close();
+        assertEquals(mBody.length, exchange.getTimings().getBytes());
+        assertEquals("Error: The client should have offered gzip", "gzip",
+                mServer.getRequests().get(0).getHeader("Accept-Encoding"));
+    }
+
+    /*
+        Aborting from another thread should fail a read that's waiting on a slow body right
+        away, and leave the client able to make new requests.
+     */
+    public void testAbort() throws Throwable {
+        mBody = new byte[64 * 1024];
+        mChunkDelayMillis = 100;
+        final SyncHttpClient.Exchange exchange = get();
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException ignored) {
+                }
+                exchange.abort();
+            }
+        }.start();
+
+        long start = System.nanoTime();
+        try {
+            readAll(exchange.getBody());
+            fail("Error: Reading an aborted body should fail");
+        } catch (IOException expected) {
+        }
+        exchange.close();
+        long elapsedMillis = (System.nanoTime() - start) / MILLIS_IN_NANOS;
+        assertTrue("Error: The read took " + elapsedMillis + "ms to notice the abort",
+                elapsedMillis < 2000);
+
+        mChunkDelayMillis = 0;
+        mBody = new byte[16];
+        SyncHttpClient.Exchange next = get();
+        assertEquals(16, readAll(next.getBody()));
+        next.close();
+        assertEquals("Error: The aborted connection shouldn't be reused",
+                2, mServer.getConnectionCount());
+    }
+
+    public void testReadTimeout() throws Throwable {
+        mLatencyMillis = 1000;
+        mClient = new SyncHttpClient(5000, 100);
+        try {
+            get();
+            fail("Error: The request should have timed out");
+        } catch (SocketTimeoutException expected) {
+        }
+    }
+}
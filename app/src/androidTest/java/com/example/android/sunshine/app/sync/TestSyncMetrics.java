@@ -0,0 +1,81 @@
+package com.example.android.sunshine.app.sync;
+
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.SyncMetricsEntry;
+
+import java.util.List;
+
+public class TestSyncMetrics extends AndroidTestCase {
+
+    private static SyncMetrics recordRun(int rowsWritten) {
+        SyncMetrics metrics = new SyncMetrics();
+        long start = SyncMetrics.startTimer();
+        metrics.addLocation();
+        metrics.addBytes(4000);
+        metrics.addRowsWritten(rowsWritten);
+        metrics.addFreshnessDecision(false, false);
+        metrics.addFreshnessDecision(false, true);
+        metrics.addFreshnessDecision(true, true);
+        metrics.addMergedRequests(2);
+        metrics.stopTimer(SyncMetrics.STAGE_FETCH, start);
+        metrics.stopTimer(SyncMetrics.STAGE_TOTAL, start);
+        SyncMetrics.record(metrics);
+        return metrics;
+    }
+
+    /*
+        The ring buffer should hold the last MAX_RUNS runs, newest first.
+     */
+    public void testRingBufferKeepsLastRuns() {
+        SyncMetrics last = null;
+        for (int i = 0; i < SyncMetrics.MAX_RUNS + 5; i++) {
+            last = recordRun(i);
+        }
+
+        List<SyncMetrics> runs = SyncMetrics.getRecentRuns();
+        assertEquals("Error: Ring buffer should be full", SyncMetrics.MAX_RUNS, runs.size());
+        assertSame("Error: Newest run should come first", last, runs.get(0));
+        for (int i = 1; i < runs.size(); i++) {
+            assertEquals("Error: Runs should be newest first",
+                    runs.get(i - 1).getRowsWritten() - 1, runs.get(i).getRowsWritten());
+        }
+    }
+
+    /*
+        The runs should come back through the provider with the requested columns.
+     */
+    public void testProviderServesRuns() {
+        SyncMetrics run = recordRun(14);
+
+        Cursor cursor = mContext.getContentResolver().query(SyncMetricsEntry.CONTENT_URI,
+                new String[]{SyncMetricsEntry.COLUMN_ROWS_WRITTEN, SyncMetricsEntry.COLUMN_BYTES,
+                        SyncMetricsEntry.COLUMN_TOTAL_MS},
+                null, null, null);
+        assertNotNull(cursor);
+        assertTrue("Error: No runs returned", cursor.moveToFirst());
+        assertEquals(3, cursor.getColumnCount());
+        assertEquals(14, cursor.getInt(0));
+        assertEquals(4000, cursor.getLong(1));
+        assertEquals(run.getStageNanos(SyncMetrics.STAGE_TOTAL) / 1e6, cursor.getDouble(2), 1e-9);
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(SyncMetricsEntry.CONTENT_URI,
+                new String[]{SyncMetricsEntry.COLUMN_FRESH_HITS,
+                        SyncMetricsEntry.COLUMN_FRESH_MISSES, SyncMetricsEntry.COLUMN_FRESH_FORCED,
+                        SyncMetricsEntry.COLUMN_MERGED_REQUESTS},
+                null, null, null);
+        assertNotNull(cursor);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: The freshness gate's decisions should be served per run",
+                1, cursor.getInt(0));
+        assertEquals(1, cursor.getInt(1));
+        assertEquals(1, cursor.getInt(2));
+        assertEquals(2, cursor.getInt(3));
+        cursor.close();
+
+        assertEquals(SyncMetricsEntry.CONTENT_TYPE,
+                mContext.getContentResolver().getType(SyncMetricsEntry.CONTENT_URI));
+    }
+}
@@ -0,0 +1,520 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+    Runs fetch, parse and store for several locations against StubWeatherServer, through the
+    same engine and source code the sync adapter uses, and logs how long it took.
+ */
+public class TestSyncPipeline extends AndroidTestCase {
+    private static final String LOG_TAG = TestSyncPipeline.class.getSimpleName();
+
+    private StubWeatherServer mServer;
+    private SunshineSyncAdapter mAdapter;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mServer = new StubWeatherServer();
+        mServer.start();
+        // Most tests want every sync to ask for the whole window
+        mAdapter = new SunshineSyncAdapter(mContext, false, mServer.createSource(),
+                HorizonPolicy.FULL);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.HourlyEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.ValidatorEntry.CONTENT_URI, null, null);
+    }
+
+    private static List<String> locations(int count) {
+        List<String> locations = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            locations.add("stub-" + i);
+        }
+        return locations;
+    }
+
+    /*
+        Syncs every location once and returns what each of them wrote, in no particular order.
+     */
+    private List<Integer> syncAll(List<String> locations) throws InterruptedException {
+        final LocationSyncEngine engine = new LocationSyncEngine();
+        final List<Integer> written = Collections.synchronizedList(new ArrayList<Integer>());
+        long start = System.nanoTime();
+        engine.run(locations, new LocationSyncEngine.LocationTask() {
+            @Override
+            public void sync(String locationSetting) throws InterruptedException {
+                written.add(mAdapter.syncLocation(engine, locationSetting, false));
+            }
+        });
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+        Log.d(LOG_TAG, locations.size() + " locations in " + elapsedMillis + "ms ("
+                + (locations.size() * 1000L / Math.max(1, elapsedMillis)) + " locations/s), "
+                + mServer.getBytesServed() + " bytes served");
+        return written;
+    }
+
+    /*
+        Syncs every location the way a full sync does, with the first one as the preferred
+        location, and returns what each of them wrote.  The sync is forced, since the tests
+        sync the same locations back to back.
+     */
+    private Map<String, Integer> syncAsSync(List<String> locations) throws InterruptedException {
+        long start = System.nanoTime();
+        int requests = mServer.getRequestCount();
+        Map<String, Integer> written = mAdapter.syncLocations(new LocationSyncEngine(), locations,
+                locations.get(0), true);
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+        Log.d(LOG_TAG, locations.size() + " locations in " + elapsedMillis + "ms, "
+                + (mServer.getRequestCount() - requests) + " requests");
+        return written;
+    }
+
+    private long getCachedCityId(String locationSetting) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry.COLUMN_CITY_ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting}, null);
+        assertTrue("Error: " + locationSetting + " wasn't stored", cursor.moveToFirst());
+        long cityId = cursor.isNull(0) ? -1 : cursor.getLong(0);
+        cursor.close();
+        return cityId;
+    }
+
+    private int countWeatherRows() {
+        return countRows(WeatherContract.WeatherEntry.CONTENT_URI);
+    }
+
+    private int countRows(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(uri, null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    public void testFullThenNotModifiedThenChanged() throws Throwable {
+        mServer.setLatencyMillis(20);
+        List<String> locations = locations(8);
+
+        for (int written : syncAll(locations)) {
+            assertEquals("Error: The first sync should write every day", 14, written);
+        }
+        assertEquals(8 * 14, countWeatherRows());
+        assertEquals("Error: Every location should have its 3 hour slots",
+                8 * StubWeatherServer.HOURLY_SLOTS, countRows(WeatherContract.HourlyEntry.CONTENT_URI));
+        SyncMetrics metrics = mAdapter.getCurrentMetrics();
+        assertEquals("Error: Every day and slot written should count as inserted",
+                8 * (14 + StubWeatherServer.HOURLY_SLOTS), metrics.getRowsInserted());
+        assertEquals(0, metrics.getRowsUpdated());
+
+        for (int written : syncAll(locations)) {
+            assertEquals("Error: An unchanged forecast should write nothing", 0, written);
+        }
+        assertEquals("Error: Every location should have been answered with a 304",
+                8, mServer.getNotModifiedCount());
+
+        mServer.changeForecast();
+        long insertedBefore = metrics.getRowsInserted();
+        for (int written : syncAll(locations)) {
+            assertEquals("Error: A changed forecast should rewrite every day", 14, written);
+        }
+        assertEquals("Error: Changed days should count as updated, not inserted",
+                8 * 14, metrics.getRowsUpdated());
+        assertEquals(8 * StubWeatherServer.HOURLY_SLOTS,
+                metrics.getRowsInserted() - insertedBefore);
+        assertEquals(8 * 14, countWeatherRows());
+        assertEquals("Error: Refetched slots should replace the stored ones",
+                8 * StubWeatherServer.HOURLY_SLOTS, countRows(WeatherContract.HourlyEntry.CONTENT_URI));
+    }
+
+    private int countFetchedSince(long since) {
+        Cursor cursor = mContext.getContentResolver().query(WeatherContract.WeatherEntry.CONTENT_URI,
+                null, WeatherContract.WeatherEntry.COLUMN_FETCHED + " >= ?",
+                new String[]{Long.toString(since)}, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private void setFetchedHoursAgo(int hours) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.WeatherEntry.COLUMN_FETCHED,
+                System.currentTimeMillis() - hours * 60 * 60 * 1000L);
+        mContext.getContentResolver().update(WeatherContract.WeatherEntry.CONTENT_URI, values,
+                null, null);
+    }
+
+    /*
+        With the default horizon, a sync right after a full one should only ask for the near
+        days, and the rest of the window should only be asked for again once it's gone stale.
+     */
+    public void testIncrementalHorizon() throws Throwable {
+        mAdapter = new SunshineSyncAdapter(mContext, false, mServer.createSource());
+        List<String> locations = locations(2);
+
+        for (int written : syncAll(locations)) {
+            assertEquals(14, written);
+        }
+        assertEquals(2 * 14, mServer.getDaysRequested());
+
+        // A shorter window is a different response, so it's fetched once, but nothing changed
+        for (int written : syncAll(locations)) {
+            assertEquals("Error: Refetching cached days should write nothing", 0, written);
+        }
+        assertEquals("Error: Only the first 3 days should have been asked for",
+                2 * 14 + 2 * 3, mServer.getDaysRequested());
+        assertEquals(2 * 14, countWeatherRows());
+
+        // and after that it's answered with a 304, which still counts as fetching those days
+        long beforeNotModified = System.currentTimeMillis();
+        syncAll(locations);
+        assertEquals(2, mServer.getNotModifiedCount());
+        assertEquals("Error: A 304 should refresh when the days it covers were fetched",
+                2 * 3, countFetchedSince(beforeNotModified));
+
+        setFetchedHoursAgo(13);
+        syncAll(locations);
+        assertEquals("Error: The rest of the first week should be refetched after 12 hours",
+                2 * 14 + 4 * 3 + 2 * 7, mServer.getDaysRequested());
+
+        setFetchedHoursAgo(25);
+        syncAll(locations);
+        assertEquals("Error: The whole window should be refetched after a day",
+                2 * 14 + 4 * 3 + 2 * 7 + 2 * 14, mServer.getDaysRequested());
+        assertEquals(2 * 14, countWeatherRows());
+    }
+
+    /*
+        Locations synced within the TTL should be skipped, and written down as not modified,
+        unless the sync is forced.  A skipped preferred location still reports its status.
+     */
+    public void testFreshnessGate() throws Throwable {
+        TestAdaptiveSyncPolicy.FakeClock clock = new TestAdaptiveSyncPolicy.FakeClock();
+        FreshnessGate gate = new FreshnessGate(clock, FreshnessGate.DEFAULT_TTL_MILLIS, null);
+        mAdapter = new SunshineSyncAdapter(mContext, false, mServer.createSource(),
+                HorizonPolicy.FULL, gate);
+        List<String> locations = locations(3);
+
+        for (int written : mAdapter.syncLocations(new LocationSyncEngine(), locations,
+                locations.get(0), false).values()) {
+            assertEquals(14, written);
+        }
+        int requests = mServer.getRequestCount();
+        assertEquals(3, gate.getMissCount());
+
+        clock.now += FreshnessGate.DEFAULT_TTL_MILLIS - 1;
+        // As after the user picks the location again in settings
+        Utility.resetLocationStatus(mContext);
+        for (int written : mAdapter.syncLocations(new LocationSyncEngine(), locations,
+                locations.get(0), false).values()) {
+            assertEquals(0, written);
+        }
+        assertEquals("Error: Fresh locations shouldn't be fetched",
+                requests, mServer.getRequestCount());
+        assertEquals("Error: A fresh preferred location should report OK",
+                SunshineSyncAdapter.LOCATION_STATUS_OK, Utility.getLocationStatus(mContext));
+        assertEquals(3, gate.getHitCount());
+
+        mAdapter.syncLocations(new LocationSyncEngine(), locations, locations.get(0), true);
+        assertTrue("Error: A forced sync should fetch every location",
+                mServer.getRequestCount() >= requests + 3);
+        assertEquals(3, gate.getForcedCount());
+
+        // The forced sync made them fresh again
+        clock.now += FreshnessGate.DEFAULT_TTL_MILLIS - 1;
+        requests = mServer.getRequestCount();
+        mAdapter.syncLocations(new LocationSyncEngine(), locations, locations.get(0), false);
+        assertEquals(requests, mServer.getRequestCount());
+
+        clock.now += 1;
+        mAdapter.syncLocations(new LocationSyncEngine(), locations, locations.get(0), false);
+        assertTrue("Error: Locations should be fetched again once the TTL is up",
+                mServer.getRequestCount() >= requests + 3);
+        assertEquals(6, gate.getHitCount());
+        assertEquals(6, gate.getMissCount());
+
+        // The adapter's metrics cover every call above, since none of them was a full sync
+        SyncMetrics metrics = mAdapter.getCurrentMetrics();
+        assertEquals(6, metrics.getFreshHits());
+        assertEquals(6, metrics.getFreshMisses());
+        assertEquals(3, metrics.getFreshForced());
+    }
+
+    /*
+        Gzipped forecasts should parse to the same rows for a fraction of the bytes on the wire.
+     */
+    public void testGzip() throws Throwable {
+        mServer.setGzipEnabled(false).setNotModifiedEnabled(false);
+        List<String> locations = locations(4);
+
+        syncAll(locations);
+        SyncMetrics plain = mAdapter.getCurrentMetrics();
+        assertEquals(mServer.getBytesServed(), plain.getWireBytes());
+        assertTrue(plain.getBytes() > 0);
+
+        // A new adapter starts a new set of counters
+        mAdapter = new SunshineSyncAdapter(mContext, false, mServer.createSource(),
+                HorizonPolicy.FULL);
+        mServer.setGzipEnabled(true);
+        int plainBytesServed = mServer.getBytesServed();
+        syncAll(locations);
+        SyncMetrics gzipped = mAdapter.getCurrentMetrics();
+
+        assertEquals("Error: Wire bytes should be what the server sent",
+                mServer.getBytesServed() - plainBytesServed, gzipped.getWireBytes());
+        assertEquals(plain.getRowsParsed(), gzipped.getRowsParsed());
+        assertEquals("Error: The decoded forecasts should be as big as the plain ones",
+                plain.getBytes(), gzipped.getBytes(), plain.getBytes() / 100);
+        assertTrue("Error: " + gzipped.getWireBytes() + " gzipped bytes for " + gzipped.getBytes()
+                + " decoded, the forecast should compress well",
+                gzipped.getWireBytes() < gzipped.getBytes() / 3);
+        assertEquals(4 * 14, countWeatherRows());
+    }
+
+    /*
+        Locations are fetched one by one until their city IDs are known, and after that every
+        saved location but the preferred one is fetched in a single group request.
+     */
+    public void testGroupFetch() throws Throwable {
+        mAdapter = new SunshineSyncAdapter(mContext, false,
+                mServer.createGroupSource(StubWeatherServer.MAX_GROUP_SIZE), HorizonPolicy.FULL);
+        List<String> locations = locations(8);
+
+        for (int written : syncAsSync(locations).values()) {
+            assertEquals(14, written);
+        }
+        assertEquals("Error: Nothing can be grouped before the city IDs are known",
+                0, mServer.getGroupRequestCount());
+        for (String locationSetting : locations) {
+            assertEquals("Error: The city ID should be cached with the location",
+                    StubWeatherServer.getCityId(locationSetting), getCachedCityId(locationSetting));
+        }
+
+        mServer.changeForecast();
+        int requests = mServer.getRequestCount();
+        Map<String, Integer> written = syncAsSync(locations);
+        assertEquals(1, mServer.getGroupRequestCount());
+        assertEquals("Error: Expected the preferred location's forecast, one group and every "
+                + "location's 3 hour slots", 1 + 1 + 8, mServer.getRequestCount() - requests);
+        assertEquals(14, (int) written.get(locations.get(0)));
+        for (String locationSetting : locations.subList(1, locations.size())) {
+            assertEquals("Error: The group should have rewritten every day of its 7 locations",
+                    7 * 14, (int) written.get(locationSetting));
+        }
+        assertEquals(8 * 14, countWeatherRows());
+        assertEquals(8 * StubWeatherServer.HOURLY_SLOTS,
+                countRows(WeatherContract.HourlyEntry.CONTENT_URI));
+    }
+
+    /*
+        A group the server can't answer leaves its locations to be fetched one by one.
+     */
+    public void testGroupFallsBack() throws Throwable {
+        List<String> locations = locations(StubWeatherServer.MAX_GROUP_SIZE + 2);
+        syncAsSync(locations);
+
+        // Asks for one more city than the server takes in a group
+        mAdapter = new SunshineSyncAdapter(mContext, false,
+                mServer.createGroupSource(StubWeatherServer.MAX_GROUP_SIZE + 1), HorizonPolicy.FULL);
+        mServer.changeForecast();
+        int requests = mServer.getRequestCount();
+        Map<String, Integer> written = syncAsSync(locations);
+
+        assertEquals(0, mServer.getGroupRequestCount());
+        assertEquals("Error: Expected the rejected group, then every location on its own",
+                1 + locations.size() * 2, mServer.getRequestCount() - requests);
+        for (String locationSetting : locations) {
+            assertEquals(14, (int) written.get(locationSetting));
+        }
+    }
+
+    /*
+        Not a correctness check, a load run for comparing group sizes.
+     */
+    public void testGroupSizes() throws Throwable {
+        mServer.setLatencyMillis(50).setNotModifiedEnabled(false);
+        List<String> locations = locations(32);
+        // Learn the city IDs
+        syncAsSync(locations);
+
+        for (int groupSize : new int[] {0, 4, 8, 16}) {
+            mAdapter = new SunshineSyncAdapter(mContext, false,
+                    mServer.createGroupSource(groupSize), HorizonPolicy.FULL);
+            mServer.changeForecast();
+            int groups = mServer.getGroupRequestCount();
+            int bytesServed = mServer.getBytesServed();
+            long start = System.nanoTime();
+            syncAsSync(locations);
+            Log.d(LOG_TAG, "Group size " + groupSize + ": "
+                    + (System.nanoTime() - start) / 1000000 + "ms, "
+                    + (mServer.getGroupRequestCount() - groups) + " groups, "
+                    + (mServer.getBytesServed() - bytesServed) + " bytes");
+            if (groupSize > 0) {
+                assertEquals((31 + groupSize - 1) / groupSize,
+                        mServer.getGroupRequestCount() - groups);
+            }
+        }
+        assertEquals(32 * 14, countWeatherRows());
+    }
+
+    /*
+        Canceling a sync part way through slow downloads should abort them and give the sync's
+        thread back promptly, with nothing written and nothing counted against the server.
+     */
+    public void testCancel() throws Throwable {
+        // Each forecast takes a couple of seconds to arrive
+        mServer.setGzipEnabled(false).setTrickle(256, 100);
+        final LocationSyncEngine engine = new LocationSyncEngine();
+        final AtomicLong canceledAt = new AtomicLong();
+        Thread canceler = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    while (mServer.getRequestCount() < 2) {
+                        Thread.sleep(10);
+                    }
+                    Thread.sleep(200);
+                } catch (InterruptedException ignored) {
+                }
+                canceledAt.set(System.nanoTime());
+                engine.cancel();
+            }
+        };
+        canceler.start();
+
+        try {
+            mAdapter.syncLocations(engine, locations(4), "stub-0", true);
+            fail("Error: A canceled sync should throw InterruptedException");
+        } catch (InterruptedException expected) {
+        }
+        long releasedMillis = (System.nanoTime() - canceledAt.get()) / 1000000;
+        canceler.join();
+
+        Log.d(LOG_TAG, "Canceled sync released its thread after " + releasedMillis + "ms");
+        assertTrue("Error: The canceled sync took " + releasedMillis + "ms to stop",
+                releasedMillis < 1000);
+        assertEquals("Error: Nothing should be written by a canceled sync", 0, countWeatherRows());
+        assertEquals("Error: Locations are only stored along with their forecasts",
+                0, countRows(WeatherContract.LocationEntry.CONTENT_URI));
+        assertEquals("Error: 3 hour slots are only stored along with the daily forecasts",
+                0, countRows(WeatherContract.HourlyEntry.CONTENT_URI));
+        assertEquals("Error: Aborted downloads aren't the server's fault",
+                0, mAdapter.getCurrentMetrics().getFailedFetches());
+    }
+
+    /*
+        A forecast past the source's byte budget should be cut off part way and reported as an
+        invalid response, with nothing stored, while one within the budget still goes through.
+     */
+    public void testOversizedResponse() throws Throwable {
+        final long maxBytes = 2048;
+        mAdapter = new SunshineSyncAdapter(mContext, false, mServer.createBoundedSource(maxBytes),
+                HorizonPolicy.FULL);
+        LocationSyncEngine engine = new LocationSyncEngine();
+
+        assertEquals(-1, mAdapter.syncLocation(engine, "stub-0", true));
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID,
+                Utility.getLocationStatus(mContext));
+        assertEquals(0, countWeatherRows());
+        SyncMetrics metrics = mAdapter.getCurrentMetrics();
+        assertTrue("Error: " + metrics.getBytes() + " bytes were read past a " + maxBytes
+                + " byte budget",
+                metrics.getBytes() <= maxBytes + SyncHttpClient.DEFAULT_BUFFER_SIZE);
+        assertEquals("Error: An oversized response isn't a network failure",
+                0, metrics.getFailedFetches());
+
+        mServer.setDays(3);
+        assertEquals(3, mAdapter.syncLocation(engine, "stub-0", true));
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, Utility.getLocationStatus(mContext));
+    }
+
+    public void testServerErrors() throws Throwable {
+        mServer.setErrorRate(1f);
+
+        // Fewer failures than it takes to open the breaker
+        for (int written : syncAll(locations(2))) {
+            assertEquals("Error: A failed fetch should store nothing", -1, written);
+        }
+        assertEquals(2, mServer.getErrorCount());
+        assertEquals(0, countWeatherRows());
+        assertEquals("Error: The hourly forecast shouldn't be fetched without a daily one",
+                2, mServer.getRequestCount());
+    }
+
+    public void testTimeouts() throws Throwable {
+        mServer.setTimeoutRate(1f);
+        mAdapter = new SunshineSyncAdapter(mContext, false, mServer.createSource(200));
+
+        long start = System.nanoTime();
+        for (int written : syncAll(locations(2))) {
+            assertEquals("Error: A timed out fetch should store nothing", -1, written);
+        }
+        assertTrue("Error: The fetches should have given up well before the server answered",
+                System.nanoTime() - start < StubWeatherServer.HANG_MILLIS / 2 * 1000000);
+        assertEquals(2, mServer.getTimeoutCount());
+        assertEquals(0, countWeatherRows());
+    }
+
+    /*
+        Once the breaker opens, the remaining locations shouldn't be fetched at all.  Requests
+        that already hold the host when it opens still go out.
+     */
+    public void testBreakerStopsFetching() throws Throwable {
+        mServer.setErrorRate(0.5f).setTimeoutRate(1f);
+        mAdapter = new SunshineSyncAdapter(mContext, false, mServer.createSource(200));
+
+        for (int written : syncAll(locations(16))) {
+            assertEquals(-1, written);
+        }
+        int requests = mServer.getRequestCount();
+        assertEquals(requests, mServer.getErrorCount() + mServer.getTimeoutCount());
+        assertTrue("Error: " + requests + " requests went out past the breaker",
+                requests >= SyncRetryPolicy.BREAKER_FAILURE_THRESHOLD
+                        && requests < SyncRetryPolicy.BREAKER_FAILURE_THRESHOLD
+                        + LocationSyncEngine.MAX_REQUESTS_PER_HOST);
+
+        // Still open on the next sync
+        syncAll(locations(4));
+        assertEquals(requests, mServer.getRequestCount());
+    }
+
+    /*
+        Not a correctness check, just a repeatable load run for comparing changes to the pipeline.
+     */
+    public void testThroughput() throws Throwable {
+        mServer.setLatencyMillis(50).setDays(16).setNotModifiedEnabled(false);
+        List<String> locations = locations(32);
+
+        List<Integer> written = syncAll(locations);
+        assertEquals(32, written.size());
+        // One daily and one 3 hourly request per location
+        assertEquals(64, mServer.getRequestCount());
+        assertTrue("Error: " + mServer.getConnectionCount() + " connections for 64 requests, "
+                + "they should be reused", mServer.getConnectionCount() <= 16);
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.SyncResult;
+import android.test.AndroidTestCase;
+
+import java.util.Random;
+
+public class TestSyncRetryPolicy extends AndroidTestCase {
+    private static final long MINUTE_IN_MILLIS = 60 * 1000;
+
+    private TestAdaptiveSyncPolicy.FakeClock mClock;
+    private SyncRetryPolicy mPolicy;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mClock = new TestAdaptiveSyncPolicy.FakeClock();
+        mPolicy = new SyncRetryPolicy(mClock, new Random(0));
+    }
+
+    /*
+        The breaker should open after the threshold, let a single trial through once the
+        cooldown is over, and double the cooldown if that trial fails too.
+     */
+    public void testBreakerOpensAndRecovers() {
+        CircuitBreaker breaker = new CircuitBreaker(mClock, 3, 5 * MINUTE_IN_MILLIS,
+                20 * MINUTE_IN_MILLIS);
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(breaker.allowRequest());
+            breaker.recordFailure();
+        }
+        assertTrue("Error: The breaker should open after 3 failures", breaker.isOpen());
+        assertFalse(breaker.allowRequest());
+        assertEquals(mClock.now + 5 * MINUTE_IN_MILLIS, breaker.getRetryAtMillis());
+
+        // A request that was already in flight failing doesn't push the cooldown out
+        breaker.recordFailure();
+        assertEquals(mClock.now + 5 * MINUTE_IN_MILLIS, breaker.getRetryAtMillis());
+
+        mClock.now += 5 * MINUTE_IN_MILLIS;
+        assertTrue("Error: A trial should be let through after the cooldown", breaker.allowRequest());
+        assertFalse("Error: Only one trial at a time", breaker.allowRequest());
+        breaker.recordFailure();
+        assertEquals("Error: A failed trial should double the cooldown",
+                mClock.now + 10 * MINUTE_IN_MILLIS, breaker.getRetryAtMillis());
+
+        mClock.now += 10 * MINUTE_IN_MILLIS;
+        assertTrue(breaker.allowRequest());
+        breaker.recordFailure();
+        mClock.now += 20 * MINUTE_IN_MILLIS;
+        assertTrue(breaker.allowRequest());
+        breaker.recordFailure();
+        assertEquals("Error: The cooldown should stop at the maximum",
+                mClock.now + 20 * MINUTE_IN_MILLIS, breaker.getRetryAtMillis());
+
+        mClock.now += 20 * MINUTE_IN_MILLIS;
+        assertTrue(breaker.allowRequest());
+        breaker.recordSuccess();
+        assertFalse(breaker.isOpen());
+        assertTrue("Error: A successful trial should close the breaker", breaker.allowRequest());
+        assertTrue(breaker.allowRequest());
+        assertEquals(4, breaker.getTripCount());
+    }
+
+    /*
+        A trial that never reports back shouldn't keep the breaker shut forever.
+     */
+    public void testLostTrial() {
+        CircuitBreaker breaker = new CircuitBreaker(mClock, 1, MINUTE_IN_MILLIS, MINUTE_IN_MILLIS);
+        breaker.recordFailure();
+        mClock.now += MINUTE_IN_MILLIS;
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+        mClock.now += MINUTE_IN_MILLIS;
+        assertTrue(breaker.allowRequest());
+    }
+
+    /*
+        Each delay should be between half and all of a backoff that doubles with every failed
+        sync, up to the maximum.
+     */
+    public void testBackoffGrowsWithJitter() {
+        for (int failedSyncs = 1; failedSyncs <= 12; failedSyncs++) {
+            long backoff = Math.min(SyncRetryPolicy.INITIAL_BACKOFF_MILLIS << (failedSyncs - 1),
+                    SyncRetryPolicy.MAX_BACKOFF_MILLIS);
+            long min = Long.MAX_VALUE;
+            long max = 0;
+            for (int i = 0; i < 200; i++) {
+                long delay = mPolicy.getBackoffMillis(failedSyncs);
+                assertTrue("Error: " + delay + " is outside the jitter range for " + failedSyncs,
+                        delay >= backoff / 2 && delay <= backoff);
+                min = Math.min(min, delay);
+                max = Math.max(max, delay);
+            }
+            assertTrue("Error: The delay should be jittered", max - min > backoff / 4);
+        }
+    }
+
+    /*
+        A sync with failed fetches should report them as I/O errors and be held back, and the
+        first clean sync should reset the backoff.
+     */
+    public void testSyncResult() {
+        SyncResult syncResult = new SyncResult();
+        mPolicy.onSyncFinished(syncResult, 2);
+        assertEquals(2, syncResult.stats.numIoExceptions);
+        long delayMillis = syncResult.delayUntil * 1000 - mClock.now;
+        assertTrue("Error: Wrong first backoff " + delayMillis,
+                delayMillis >= SyncRetryPolicy.INITIAL_BACKOFF_MILLIS / 2
+                        && delayMillis < SyncRetryPolicy.INITIAL_BACKOFF_MILLIS + 1000);
+
+        syncResult = new SyncResult();
+        mPolicy.onSyncFinished(syncResult, 1);
+        assertEquals(2, mPolicy.getFailedSyncs());
+        delayMillis = syncResult.delayUntil * 1000 - mClock.now;
+        assertTrue("Error: Wrong second backoff " + delayMillis,
+                delayMillis >= SyncRetryPolicy.INITIAL_BACKOFF_MILLIS);
+
+        syncResult = new SyncResult();
+        mPolicy.onSyncFinished(syncResult, 0);
+        assertEquals(0, syncResult.stats.numIoExceptions);
+        assertEquals(0, syncResult.delayUntil);
+        assertEquals(0, mPolicy.getFailedSyncs());
+    }
+
+    /*
+        The retry shouldn't come before the breaker lets fetches through again.
+     */
+    public void testRetryWaitsForBreaker() {
+        for (int i = 0; i < SyncRetryPolicy.BREAKER_FAILURE_THRESHOLD; i++) {
+            assertTrue(mPolicy.allowFetch());
+            mPolicy.onFetchFailed();
+        }
+        assertFalse(mPolicy.allowFetch());
+
+        SyncResult syncResult = new SyncResult();
+        mPolicy.onSyncFinished(syncResult, SyncRetryPolicy.BREAKER_FAILURE_THRESHOLD);
+        assertEquals((mClock.now + SyncRetryPolicy.BREAKER_INITIAL_COOLDOWN_MILLIS + 999) / 1000,
+                syncResult.delayUntil);
+    }
+}
@@ -0,0 +1,320 @@
+package com.example.android.sunshine.app.utils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/*
+    A minimal HTTP/1.1 server on the loopback interface, for running the sync code against
+    canned responses without a network.  Every request is recorded so tests can check what the
+    client sent, and a Handler decides what to answer.
+
+    Connections are kept alive between requests unless keep-alive is turned off, and the number
+    of connections accepted is counted so tests can check that the client reuses them.
+ */
+public class StubHttpServer {
+
+    public static class Request {
+        public final String method;
+        public final String path;
+        // Header names are lower-cased so lookups don't depend on what the client sent
+        public final Map<String, String> headers;
+
+        Request(String method, String path, Map<String, String> headers) {
+            this.method = method;
+            this.path = path;
+            this.headers = headers;
+        }
+
+        public String getHeader(String name) {
+            return headers.get(name.toLowerCase(Locale.US));
+        }
+    }
+
+    public static class Response {
+        public final int status;
+        public final Map<String, String> headers = new LinkedHashMap<String, String>();
+        public final byte[] body;
+        // The body is sent in pieces this big with a pause after each, like a slow network
+        int chunkBytes;
+        long chunkDelayMillis;
+
+        public Response(int status, byte[] body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        public static Response ok(String body) {
+            try {
+                return new Response(200, body.getBytes("UTF-8"))
+                        .header("Content-Type", "application/json; charset=utf-8");
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        public static Response notModified() {
+            return new Response(304, new byte[0]);
+        }
+
+        public static Response status(int status) {
+            return new Response(status, new byte[0]);
+        }
+
+        public Response header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        public Response trickle(int chunkBytes, long chunkDelayMillis) {
+            this.chunkBytes = chunkBytes;
+            this.chunkDelayMillis = chunkDelayMillis;
+            return this;
+        }
+
+        /*
+            A copy of this response with the body gzipped, as a server would send it to a client
+            that accepts gzip.
+         */
+        public Response gzip() {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4);
+            try {
+                GZIPOutputStream gzip = new GZIPOutputStream(out);
+                gzip.write(body);
+                gzip.close();
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+            Response gzipped = new Response(status, out.toByteArray());
+            gzipped.headers.putAll(headers);
+            gzipped.trickle(chunkBytes, chunkDelayMillis);
+            return gzipped.header("Content-Encoding", "gzip");
+        }
+    }
+
+    public interface Handler {
+        Response handle(Request request) throws IOException;
+    }
+
+    private final Handler mHandler;
+    private final List<Request> mRequests = Collections.synchronizedList(new ArrayList<Request>());
+    private final ExecutorService mWorkers = Executors.newCachedThreadPool();
+    private final Set<Socket> mSockets = Collections.synchronizedSet(new HashSet<Socket>());
+    private final AtomicInteger mConnections = new AtomicInteger();
+    private volatile boolean mKeepAlive = true;
+    private ServerSocket mServerSocket;
+    private Thread mAcceptThread;
+
+    public StubHttpServer(Handler handler) {
+        mHandler = handler;
+    }
+
+    public void start() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mAcceptThread = new Thread("StubHttpServer") {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        };
+        mAcceptThread.start();
+    }
+
+    public void shutdown() {
+        try {
+            if (mServerSocket != null) {
+                mServerSocket.close();
+            }
+        } catch (IOException ignored) {
+        }
+        mWorkers.shutdownNow();
+        // Workers waiting for the next request on a kept alive connection are blocked in a
+        // read, which doesn't notice the interrupt
+        synchronized (mSockets) {
+            for (Socket socket : mSockets) {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /*
+        Whether to keep serving requests on a connection after the first one.
+     */
+    public void setKeepAlive(boolean keepAlive) {
+        mKeepAlive = keepAlive;
+    }
+
+    public int getPort() {
+        return mServerSocket.getLocalPort();
+    }
+
+    public String getUrl(String path) {
+        return "http://127.0.0.1:" + getPort() + path;
+    }
+
+    public List<Request> getRequests() {
+        synchronized (mRequests) {
+            return new ArrayList<Request>(mRequests);
+        }
+    }
+
+    public int getRequestCount() {
+        return mRequests.size();
+    }
+
+    public int getConnectionCount() {
+        return mConnections.get();
+    }
+
+    private void acceptConnections() {
+        while (!mServerSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                // closed by shutdown()
+                return;
+            }
+            mConnections.incrementAndGet();
+            mSockets.add(socket);
+            mWorkers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    serve(socket);
+                }
+            });
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+
+            Request request;
+            while ((request = readRequest(in)) != null) {
+                mRequests.add(request);
+                boolean keepAlive = mKeepAlive && !"close".equalsIgnoreCase(request.getHeader("Connection"));
+                writeResponse(out, mHandler.handle(request), keepAlive);
+                if (!keepAlive) {
+                    break;
+                }
+            }
+        } catch (SocketException ignored) {
+            // the client went away, which some tests do on purpose
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            mSockets.remove(socket);
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static Request readRequest(InputStream in) throws IOException {
+        String requestLine = readLine(in);
+        if (requestLine == null || requestLine.length() == 0) {
+            return null;
+        }
+        String[] parts = requestLine.split(" ");
+        Map<String, String> headers = new LinkedHashMap<String, String>();
+        String line;
+        while ((line = readLine(in)) != null && line.length() > 0) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US),
+                        line.substring(colon + 1).trim());
+            }
+        }
+        return new Request(parts[0], parts.length > 1 ? parts[1] : "/", headers);
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                break;
+            }
+            if (c != '\r') {
+                line.write(c);
+            }
+        }
+        if (c == -1 && line.size() == 0) {
+            return null;
+        }
+        return line.toString("ISO-8859-1");
+    }
+
+    private static void writeResponse(OutputStream out, Response response, boolean keepAlive)
+            throws IOException {
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(response.status).append(' ')
+                .append(reasonPhrase(response.status)).append("\r\n");
+        for (Map.Entry<String, String> header : response.headers.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        if (response.status != 304) {
+            head.append("Content-Length: ").append(response.body.length).append("\r\n");
+        }
+        head.append(keepAlive ? "Connection: keep-alive\r\n\r\n" : "Connection: close\r\n\r\n");
+        out.write(head.toString().getBytes("ISO-8859-1"));
+        if (response.status != 304) {
+            writeBody(out, response);
+        }
+        out.flush();
+    }
+
+    private static void writeBody(OutputStream out, Response response) throws IOException {
+        if (response.chunkDelayMillis <= 0) {
+            out.write(response.body);
+            return;
+        }
+        for (int offset = 0; offset < response.body.length; offset += response.chunkBytes) {
+            out.write(response.body, offset,
+                    Math.min(response.chunkBytes, response.body.length - offset));
+            out.flush();
+            try {
+                Thread.sleep(response.chunkDelayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SocketException("Server shutting down");
+            }
+        }
+    }
+
+    private static String reasonPhrase(int status) {
+        switch (status) {
+            case 200: return "OK";
+            case 304: return "Not Modified";
+            case 404: return "Not Found";
+            case 500: return "Internal Server Error";
+            case 502: return "Bad Gateway";
+            case 503: return "Service Unavailable";
+            default: return "Status";
+        }
+    }
+}
@@ -142,10 +142,11 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         // automatically handle clicks on the Home/Up button, so long
         // as you specify a parent activity in AndroidManifest.xml.
         int id = item.getItemId();
-//        if (id == R.id.action_refresh) {
-//            updateWeather();
-//            return true;
-//        }
+        if (id == R.id.action_refresh) {
+            // The user wants the latest forecast, even if it was synced moments ago
+            SunshineSyncAdapter.syncImmediately(getActivity(), true);
+            return true;
+        }
         if (id == R.id.action_map) {
             openPreferredLocationInMap();
             return true;
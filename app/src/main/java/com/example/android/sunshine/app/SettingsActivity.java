@@ -135,6 +135,8 @@ public class SettingsActivity extends PreferenceActivity
             // we've changed the location
             // first clear locationStatus
             Utility.resetLocationStatus(this);
+            // keep it in the saved locations so it stays fresh after the user moves on
+            Utility.addSavedLocation(this, Utility.getPreferredLocation(this));
             SunshineSyncAdapter.syncImmediately(this);
         } else if ( key.equals(getString(R.string.pref_units_key)) ) {
             // units have changed. update lists of weather entries accordingly
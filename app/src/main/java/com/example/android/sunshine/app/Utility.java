@@ -25,6 +25,7 @@ import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.text.TextUtils;
 import android.text.format.Time;
 import android.util.Log;
 
@@ -40,7 +41,9 @@ import com.google.android.gms.wearable.Wearable;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 
 public class Utility {
@@ -50,6 +53,61 @@ public class Utility {
                 context.getString(R.string.pref_location_default));
     }
 
+    // Most locations we keep in the saved list, which is also the most we sync at once
+    static final int MAX_SAVED_LOCATIONS = 10;
+
+    // Separates entries in the saved locations preference.  Location settings can contain
+    // commas ("London, UK") but not newlines, since the location preference is single line.
+    private static final String SAVED_LOCATIONS_SEPARATOR = "\n";
+
+    /**
+     * Returns the saved locations, most recently used first.
+     */
+    public static List<String> getSavedLocations(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String saved = prefs.getString(context.getString(R.string.pref_saved_locations_key), "");
+        List<String> locations = new ArrayList<String>();
+        for (String location : saved.split(SAVED_LOCATIONS_SEPARATOR)) {
+            if (location.length() > 0 && !locations.contains(location)) {
+                locations.add(location);
+            }
+        }
+        return locations;
+    }
+
+    /**
+     * Moves a location to the front of the saved locations, dropping the least recently used
+     * one if the list is full.
+     */
+    public static void addSavedLocation(Context context, String locationSetting) {
+        List<String> locations = getSavedLocations(context);
+        locations.remove(locationSetting);
+        locations.add(0, locationSetting);
+        while (locations.size() > MAX_SAVED_LOCATIONS) {
+            locations.remove(locations.size() - 1);
+        }
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        prefs.edit()
+                .putString(context.getString(R.string.pref_saved_locations_key),
+                        TextUtils.join(SAVED_LOCATIONS_SEPARATOR, locations))
+                .apply();
+    }
+
+    /**
+     * Returns every location the sync adapter should keep fresh: the preferred location
+     * followed by the saved ones.
+     */
+    public static List<String> getSyncLocations(Context context) {
+        List<String> locations = getSavedLocations(context);
+        String preferred = getPreferredLocation(context);
+        locations.remove(preferred);
+        locations.add(0, preferred);
+        while (locations.size() > MAX_SAVED_LOCATIONS) {
+            locations.remove(locations.size() - 1);
+        }
+        return locations;
+    }
+
     public static boolean isMetric(Context context) {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
         return prefs.getString(context.getString(R.string.pref_units_key),
@@ -0,0 +1,193 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps location settings to their row IDs in the location table, and to OpenWeatherMap's city
+ * IDs, for the whole process.
+ *
+ * Writing a forecast needs the location's row ID, and looking it up was a query per location
+ * per sync.  The location table only holds the handful of locations the user has saved, so
+ * it's read whole, in one query, the first time it's needed and kept until it changes.  Only
+ * the sync's writes go through it.  The provider's reads match the location setting in SQL.
+ *
+ * The provider keeps the cache up to date with its own writes as it makes them, and the cache
+ * also drops everything when anything notifies a change to the location table.  Since it holds
+ * the whole table, a location that isn't in it is known to be absent until then, and looking
+ * it up again doesn't reload anything.
+ */
+public class LocationIdCache {
+
+    private static LocationIdCache sInstance;
+
+    private final ContentResolver mResolver;
+    // Null until loaded, and again once invalidated.  Replaced rather than changed, so it can be
+    // read outside the lock.
+    private Map<String, Entry> mEntries;
+    // Bumped by every invalidation, so a load that raced with one isn't kept
+    private int mGeneration;
+    private int mHits;
+    private int mMisses;
+    private int mLoads;
+
+    private static final class Entry {
+        final long locationId;
+        final long cityId;
+
+        Entry(long locationId, long cityId) {
+            this.locationId = locationId;
+            this.cityId = cityId;
+        }
+    }
+
+    public static synchronized LocationIdCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new LocationIdCache(context.getApplicationContext().getContentResolver());
+        }
+        return sInstance;
+    }
+
+    LocationIdCache(ContentResolver resolver) {
+        mResolver = resolver;
+        // Delivered on a binder thread, since there's no handler
+        resolver.registerContentObserver(LocationEntry.CONTENT_URI, true,
+                new ContentObserver(null) {
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        invalidate();
+                    }
+                });
+    }
+
+    /**
+     * @return the location's row ID, or -1 if it hasn't been added.
+     */
+    public long getLocationId(String locationSetting) {
+        Entry entry = getEntry(locationSetting);
+        return entry != null ? entry.locationId : -1;
+    }
+
+    /**
+     * @return OpenWeatherMap's ID for the location's city, or 0 if it hasn't been added or has
+     * no city ID.
+     */
+    public long getCityId(String locationSetting) {
+        Entry entry = getEntry(locationSetting);
+        return entry != null ? entry.cityId : 0;
+    }
+
+    /**
+     * @return the city ID of every location that has one, by location setting.
+     */
+    public Map<String, Long> getCityIds() {
+        Map<String, Long> cityIds = new HashMap<String, Long>();
+        for (Map.Entry<String, Entry> entry : getEntries().entrySet()) {
+            if (entry.getValue().cityId != 0) {
+                cityIds.put(entry.getKey(), entry.getValue().cityId);
+            }
+        }
+        return cityIds;
+    }
+
+    /**
+     * Records a location the provider has just inserted.
+     */
+    synchronized void put(String locationSetting, long locationId, long cityId) {
+        if (mEntries != null) {
+            Map<String, Entry> entries = new HashMap<String, Entry>(mEntries);
+            entries.put(locationSetting, new Entry(locationId, cityId));
+            mEntries = entries;
+        }
+    }
+
+    public synchronized void invalidate() {
+        mEntries = null;
+        mGeneration++;
+    }
+
+    private Entry getEntry(String locationSetting) {
+        Map<String, Entry> entries;
+        synchronized (this) {
+            entries = mEntries;
+        }
+        boolean loaded = entries == null;
+        if (loaded) {
+            entries = load();
+        }
+        Entry entry = entries.get(locationSetting);
+        synchronized (this) {
+            if (entry != null && !loaded) {
+                mHits++;
+            } else {
+                mMisses++;
+            }
+        }
+        return entry;
+    }
+
+    private Map<String, Entry> getEntries() {
+        synchronized (this) {
+            if (mEntries != null) {
+                return mEntries;
+            }
+        }
+        return load();
+    }
+
+    private Map<String, Entry> load() {
+        int generation;
+        synchronized (this) {
+            generation = mGeneration;
+        }
+
+        // Read outside the lock, since the provider calls back into the cache as it writes
+        Map<String, Entry> entries = new HashMap<String, Entry>();
+        Cursor cursor = mResolver.query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry.COLUMN_LOCATION_SETTING, LocationEntry._ID,
+                        LocationEntry.COLUMN_CITY_ID},
+                null, null, null);
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    entries.put(cursor.getString(0), new Entry(cursor.getLong(1),
+                            cursor.isNull(2) ? 0 : cursor.getLong(2)));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        synchronized (this) {
+            mLoads++;
+            if (generation == mGeneration) {
+                mEntries = entries;
+            }
+        }
+        return entries;
+    }
+
+    public synchronized int getHitCount() {
+        return mHits;
+    }
+
+    public synchronized int getMissCount() {
+        return mMisses;
+    }
+
+    public synchronized int getLoadCount() {
+        return mLoads;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "location IDs " + mHits + " hits, " + mMisses + " misses, " + mLoads + " loads";
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.app.data.WeatherContract.SyncLogEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Retention and aggregates for the sync log table.
+ *
+ * The log only grows by one row per sync, but syncs run every few hours for as long as the app
+ * is installed, so it's trimmed to the newest {@link #MAX_ROWS} rows no older than
+ * {@link #MAX_AGE_MILLIS} each time a row is added.
+ *
+ * Daily percentiles are computed here rather than in SQL, which has no percentile function.
+ * A day holds a few dozen runs at most, so reading one column of the whole table is cheap.
+ */
+public class SyncLog {
+
+    static final int MAX_ROWS = 1000;
+    static final long MAX_AGE_MILLIS = 30L * 24 * 60 * 60 * 1000;
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+
+    private static final String[] DAILY_COLUMNS = new String[] {
+            SyncLogEntry.COLUMN_DAY,
+            SyncLogEntry.COLUMN_RUNS,
+            SyncLogEntry.COLUMN_P50_MS,
+            SyncLogEntry.COLUMN_P95_MS,
+            SyncLogEntry.COLUMN_MAX_MS
+    };
+
+    /**
+     * Deletes the rows that started before the cutoff, and all but the newest maxRows of the
+     * rest.  Rows deleted from the middle of the log leave gaps that count against maxRows.
+     *
+     * @return the number of rows deleted.
+     */
+    static int trim(SQLiteDatabase db, int maxRows, long cutoffMillis) {
+        int deleted = db.delete(SyncLogEntry.TABLE_NAME,
+                SyncLogEntry.COLUMN_START_TIME + " < ?",
+                new String[]{Long.toString(cutoffMillis)});
+        // The ids only go up, and rows are only trimmed from the oldest end, so the newest
+        // maxRows rows are the ones within maxRows of the highest id.  Finding it is a single
+        // lookup, where counting back through the rows would read them all.
+        deleted += db.delete(SyncLogEntry.TABLE_NAME,
+                SyncLogEntry._ID + " <= (SELECT MAX(" + SyncLogEntry._ID + ") FROM "
+                        + SyncLogEntry.TABLE_NAME + ") - " + maxRows,
+                null);
+        return deleted;
+    }
+
+    static boolean isDurationColumn(String column) {
+        return Arrays.asList(SyncLogEntry.DURATION_COLUMNS).contains(column);
+    }
+
+    /**
+     * Builds a cursor with one row per UTC day that has runs, newest first.
+     *
+     * @param durationColumn the stage to aggregate, one of {@link SyncLogEntry#DURATION_COLUMNS}
+     * @param projection the columns to return, or null for all of them
+     */
+    static Cursor queryDaily(SQLiteDatabase db, String durationColumn, String[] projection) {
+        if (!isDurationColumn(durationColumn)) {
+            throw new IllegalArgumentException("Not a duration column: " + durationColumn);
+        }
+        if (projection == null) {
+            projection = DAILY_COLUMNS;
+        }
+        int[] indices = new int[projection.length];
+        for (int column = 0; column < projection.length; column++) {
+            indices[column] = Arrays.asList(DAILY_COLUMNS).indexOf(projection[column]);
+            if (indices[column] < 0) {
+                throw new IllegalArgumentException("Unknown column: " + projection[column]);
+            }
+        }
+
+        MatrixCursor result = new MatrixCursor(projection);
+        Cursor cursor = db.query(SyncLogEntry.TABLE_NAME,
+                new String[]{SyncLogEntry.COLUMN_START_TIME, durationColumn},
+                null, null, null, null,
+                SyncLogEntry.COLUMN_START_TIME + " DESC");
+        try {
+            long day = -1;
+            List<Double> durations = new ArrayList<Double>();
+            while (cursor.moveToNext()) {
+                long startTime = cursor.getLong(0);
+                long runDay = startTime - startTime % DAY_IN_MILLIS;
+                if (runDay != day && !durations.isEmpty()) {
+                    addDay(result, indices, day, durations);
+                    durations.clear();
+                }
+                day = runDay;
+                durations.add(cursor.getDouble(1));
+            }
+            if (!durations.isEmpty()) {
+                addDay(result, indices, day, durations);
+            }
+        } finally {
+            cursor.close();
+        }
+        return result;
+    }
+
+    private static void addDay(MatrixCursor result, int[] indices, long day,
+                               List<Double> durations) {
+        double[] sorted = new double[durations.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = durations.get(i);
+        }
+        Arrays.sort(sorted);
+        Object[] values = new Object[] {
+                day,
+                sorted.length,
+                percentile(sorted, 50),
+                percentile(sorted, 95),
+                sorted[sorted.length - 1]
+        };
+        Object[] row = new Object[indices.length];
+        for (int column = 0; column < indices.length; column++) {
+            row[column] = values[indices[column]];
+        }
+        result.addRow(row);
+    }
+
+    /**
+     * The nearest-rank percentile: the smallest value that at least p percent of the values are
+     * less than or equal to.
+     *
+     * @param sorted the values, in ascending order, at least one
+     */
+    static double percentile(double[] sorted, int p) {
+        int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+
+/**
+ * Weather rows held column by column in primitive arrays, so many days can be written without
+ * a ContentValues, and a boxed value for every column, per day.
+ *
+ * Every column but the fetch time is required, as in the table.  A fetch time of 0 stands for
+ * none.  The provider turns the weather rows it's given into batches and writes them with
+ * compiled statements.
+ */
+public class WeatherBatch {
+
+    // The columns a row holds, besides the location key, the date and the fetch time.  A
+    // ContentValues row with any other column can't be held in a batch.
+    private static final int DATA_COLUMNS = 8;
+
+    private int mSize;
+
+    long[] locationIds;
+    long[] dates;
+    int[] weatherIds;
+    String[] shortDescs;
+    double[] minTemps;
+    double[] maxTemps;
+    double[] humidities;
+    double[] pressures;
+    double[] windSpeeds;
+    double[] degrees;
+    long[] fetched;
+
+    public WeatherBatch(int capacity) {
+        capacity = Math.max(capacity, 1);
+        locationIds = new long[capacity];
+        dates = new long[capacity];
+        weatherIds = new int[capacity];
+        shortDescs = new String[capacity];
+        minTemps = new double[capacity];
+        maxTemps = new double[capacity];
+        humidities = new double[capacity];
+        pressures = new double[capacity];
+        windSpeeds = new double[capacity];
+        degrees = new double[capacity];
+        fetched = new long[capacity];
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public void add(long locationId, long date, int weatherId, String shortDesc,
+                    double minTemp, double maxTemp, double humidity, double pressure,
+                    double windSpeed, double windDirection, long fetchTime) {
+        if (shortDesc == null) {
+            throw new IllegalArgumentException("A row needs a description");
+        }
+        if (mSize == dates.length) {
+            grow(mSize * 2);
+        }
+        locationIds[mSize] = locationId;
+        dates[mSize] = date;
+        weatherIds[mSize] = weatherId;
+        shortDescs[mSize] = shortDesc;
+        minTemps[mSize] = minTemp;
+        maxTemps[mSize] = maxTemp;
+        humidities[mSize] = humidity;
+        pressures[mSize] = pressure;
+        windSpeeds[mSize] = windSpeed;
+        degrees[mSize] = windDirection;
+        fetched[mSize] = fetchTime;
+        mSize++;
+    }
+
+    private void grow(int capacity) {
+        locationIds = Arrays.copyOf(locationIds, capacity);
+        dates = Arrays.copyOf(dates, capacity);
+        weatherIds = Arrays.copyOf(weatherIds, capacity);
+        shortDescs = Arrays.copyOf(shortDescs, capacity);
+        minTemps = Arrays.copyOf(minTemps, capacity);
+        maxTemps = Arrays.copyOf(maxTemps, capacity);
+        humidities = Arrays.copyOf(humidities, capacity);
+        pressures = Arrays.copyOf(pressures, capacity);
+        windSpeeds = Arrays.copyOf(windSpeeds, capacity);
+        degrees = Arrays.copyOf(degrees, capacity);
+        fetched = Arrays.copyOf(fetched, capacity);
+    }
+
+    /**
+     * Normalizes every date to the start of its day, as the provider does for every row it
+     * stores.
+     */
+    void normalizeDates() {
+        Time time = new Time();
+        for (int i = 0; i < mSize; i++) {
+            dates[i] = WeatherContract.normalizeDate(dates[i], time);
+        }
+    }
+
+    /**
+     * @return the rows as a batch, or null if any of them is missing a column or has one a
+     * batch can't hold, in which case they have to be written as they are.
+     */
+    static WeatherBatch fromContentValues(ContentValues[] values) {
+        WeatherBatch batch = new WeatherBatch(values.length);
+        for (ContentValues value : values) {
+            Long fetchTime = value.getAsLong(WeatherEntry.COLUMN_FETCHED);
+            boolean hasFetchTime = value.containsKey(WeatherEntry.COLUMN_FETCHED);
+            if (hasFetchTime && fetchTime == null) {
+                // Clearing a fetch time is the one thing a batch can't say
+                return null;
+            }
+            int expectedSize = DATA_COLUMNS + 2 + (hasFetchTime ? 1 : 0);
+            Long locationId = value.getAsLong(WeatherEntry.COLUMN_LOC_KEY);
+            Long date = value.getAsLong(WeatherEntry.COLUMN_DATE);
+            Integer weatherId = value.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID);
+            String shortDesc = value.getAsString(WeatherEntry.COLUMN_SHORT_DESC);
+            Double minTemp = value.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP);
+            Double maxTemp = value.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP);
+            Double humidity = value.getAsDouble(WeatherEntry.COLUMN_HUMIDITY);
+            Double pressure = value.getAsDouble(WeatherEntry.COLUMN_PRESSURE);
+            Double windSpeed = value.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED);
+            Double windDirection = value.getAsDouble(WeatherEntry.COLUMN_DEGREES);
+            if (value.size() != expectedSize || locationId == null || date == null
+                    || weatherId == null || shortDesc == null || minTemp == null
+                    || maxTemp == null || humidity == null || pressure == null
+                    || windSpeed == null || windDirection == null) {
+                return null;
+            }
+            batch.add(locationId, date, weatherId, shortDesc, minTemp, maxTemp, humidity,
+                    pressure, windSpeed, windDirection, fetchTime != null ? fetchTime : 0);
+        }
+        return batch;
+    }
+
+    ContentValues[] toContentValues() {
+        ContentValues[] values = new ContentValues[mSize];
+        for (int i = 0; i < mSize; i++) {
+            ContentValues value = new ContentValues(DATA_COLUMNS + 3);
+            value.put(WeatherEntry.COLUMN_LOC_KEY, locationIds[i]);
+            value.put(WeatherEntry.COLUMN_DATE, dates[i]);
+            value.put(WeatherEntry.COLUMN_WEATHER_ID, weatherIds[i]);
+            value.put(WeatherEntry.COLUMN_SHORT_DESC, shortDescs[i]);
+            value.put(WeatherEntry.COLUMN_MIN_TEMP, minTemps[i]);
+            value.put(WeatherEntry.COLUMN_MAX_TEMP, maxTemps[i]);
+            value.put(WeatherEntry.COLUMN_HUMIDITY, humidities[i]);
+            value.put(WeatherEntry.COLUMN_PRESSURE, pressures[i]);
+            value.put(WeatherEntry.COLUMN_WIND_SPEED, windSpeeds[i]);
+            value.put(WeatherEntry.COLUMN_DEGREES, degrees[i]);
+            if (fetched[i] != 0) {
+                value.put(WeatherEntry.COLUMN_FETCHED, fetched[i]);
+            }
+            values[i] = value;
+        }
+        return values;
+    }
+}
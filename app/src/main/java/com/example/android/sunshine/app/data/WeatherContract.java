@@ -43,12 +43,21 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_VALIDATOR = "validator";
+    public static final String PATH_SYNC_METRICS = "sync_metrics";
+    public static final String PATH_HOURLY = "hourly";
+    public static final String PATH_SYNC_LOG = "sync_log";
+    public static final String PATH_DAILY = "daily";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
     public static long normalizeDate(long startDate) {
+        return normalizeDate(startDate, new Time());
+    }
+
+    // The same, reusing a Time for normalizing many dates in a row
+    static long normalizeDate(long startDate, Time time) {
         // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
         time.set(startDate);
         int julianDay = Time.getJulianDay(startDate, time.gmtoff);
         return time.setJulianDay(julianDay);
@@ -81,11 +90,254 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // OpenWeatherMap's ID for the city the location setting resolved to, which is what a
+        // group request asks for.  Null until the location's forecast has been fetched once.
+        public static final String COLUMN_CITY_ID = "city_id";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
     }
 
+    /* Inner class that defines the table contents of the validator table */
+    public static final class ValidatorEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_VALIDATOR).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_VALIDATOR;
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_VALIDATOR;
+
+        // Table name
+        public static final String TABLE_NAME = "validator";
+
+        // The location setting the forecast was requested for.  This is keyed on the setting
+        // rather than the location row, since we send validators before the location is known.
+        public static final String COLUMN_LOCATION_SETTING = "location_setting";
+
+        // HTTP cache validators from the last forecast we stored for this location, sent back
+        // as If-None-Match and If-Modified-Since.  Either may be null.
+        public static final String COLUMN_ETAG = "etag";
+        public static final String COLUMN_LAST_MODIFIED = "last_modified";
+
+        public static Uri buildValidatorUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id);
+        }
+    }
+
+    /*
+        Inner class that defines the table contents of the hourly table, which holds the
+        forecast in 3-hour slots for the next five days.  There is one row per slot per location.
+     */
+    public static final class HourlyEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HOURLY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HOURLY;
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HOURLY;
+
+        public static final String TABLE_NAME = "hourly";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // Start of the slot, stored as long in milliseconds since the epoch.  Unlike the weather
+        // table's date this is not normalized to the day.
+        public static final String COLUMN_DATE_TIME = "date_time";
+        // Weather id as returned by API, to identify the icon to be used
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+        // Short description of the weather, as provided by API
+        public static final String COLUMN_SHORT_DESC = "short_desc";
+
+        // Temperature for the slot, and the range it may vary over within the slot
+        public static final String COLUMN_TEMP = "temp";
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+
+        // Same units as the matching weather table columns
+        public static final String COLUMN_HUMIDITY = "humidity";
+        public static final String COLUMN_PRESSURE = "pressure";
+        public static final String COLUMN_WIND_SPEED = "wind";
+        public static final String COLUMN_DEGREES = "degrees";
+
+        // Query parameters bounding a range of slots, in milliseconds since the epoch.  The start
+        // is inclusive and the end exclusive.
+        public static final String QUERY_START = "start";
+        public static final String QUERY_END = "end";
+
+        public static Uri buildHourlyUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id);
+        }
+
+        public static Uri buildHourlyLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static Uri buildHourlyLocationWithRange(String locationSetting, long start, long end) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(QUERY_START, Long.toString(start))
+                    .appendQueryParameter(QUERY_END, Long.toString(end)).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getStartFromUri(Uri uri) {
+            String start = uri.getQueryParameter(QUERY_START);
+            return start != null && start.length() > 0 ? Long.parseLong(start) : 0;
+        }
+
+        public static long getEndFromUri(Uri uri) {
+            String end = uri.getQueryParameter(QUERY_END);
+            return end != null && end.length() > 0 ? Long.parseLong(end) : Long.MAX_VALUE;
+        }
+    }
+
+    /*
+        Inner class that defines the columns of the sync metrics.  These aren't a table: the
+        provider serves the last few sync runs from memory, newest first, for comparing where
+        syncs spend their time.  The cursor is read-only.
+     */
+    public static final class SyncMetricsEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_SYNC_METRICS).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SYNC_METRICS;
+
+        // Wall clock time the sync started, in milliseconds since the epoch
+        public static final String COLUMN_START_TIME = "start_time";
+
+        // Time spent in each stage, in milliseconds, measured with a monotonic clock.  Locations
+        // are synced in parallel, so the per-location stages (fetch through insert) are summed
+        // over all workers and can add up to more than the total.
+        public static final String COLUMN_TOTAL_MS = "total_ms";
+        public static final String COLUMN_FETCH_MS = "fetch_ms";
+        public static final String COLUMN_PARSE_MS = "parse_ms";
+        public static final String COLUMN_ADD_LOCATION_MS = "add_location_ms";
+        public static final String COLUMN_INSERT_MS = "insert_ms";
+        public static final String COLUMN_WIDGETS_MS = "widgets_ms";
+        public static final String COLUMN_MUZEI_MS = "muzei_ms";
+        public static final String COLUMN_NOTIFY_MS = "notify_ms";
+        public static final String COLUMN_WATCH_MS = "watch_ms";
+        // The network part of fetch and parse, summed over every request
+        public static final String COLUMN_CONNECT_MS = "connect_ms";
+        public static final String COLUMN_FIRST_BYTE_MS = "first_byte_ms";
+        public static final String COLUMN_TRANSFER_MS = "transfer_ms";
+
+        // Counters for the whole run
+        public static final String COLUMN_LOCATIONS = "locations";
+        public static final String COLUMN_REQUESTS = "requests";
+        // Body bytes as they came over the network, and as the parsers read them once decoded
+        public static final String COLUMN_WIRE_BYTES = "wire_bytes";
+        public static final String COLUMN_BYTES = "bytes";
+        public static final String COLUMN_ROWS_PARSED = "rows_parsed";
+        public static final String COLUMN_ROWS_WRITTEN = "rows_written";
+        public static final String COLUMN_ROWS_DELETED = "rows_deleted";
+        // The freshness gate's decisions for the run's locations: skipped because they were
+        // synced within the TTL, synced because they weren't, and synced because the caller
+        // forced a refresh
+        public static final String COLUMN_FRESH_HITS = "fresh_hits";
+        public static final String COLUMN_FRESH_MISSES = "fresh_misses";
+        public static final String COLUMN_FRESH_FORCED = "fresh_forced";
+        // Immediate sync requests that were merged into the run instead of queueing their own
+        public static final String COLUMN_MERGED_REQUESTS = "merged_requests";
+    }
+
+    /*
+        Inner class that defines the table contents of the sync log, which keeps one row per
+        sync run so performance can be compared over days and weeks.  Stage columns have the
+        same names and meaning as in SyncMetricsEntry.  The provider only keeps the most recent
+        runs, see WeatherProvider.
+
+        CONTENT_DAILY_URI serves aggregates of one duration column per UTC day, computed when
+        queried.
+     */
+    public static final class SyncLogEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_SYNC_LOG).build();
+        public static final Uri CONTENT_DAILY_URI =
+                CONTENT_URI.buildUpon().appendPath(PATH_DAILY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SYNC_LOG;
+        public static final String CONTENT_DAILY_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SYNC_LOG
+                        + "." + PATH_DAILY;
+
+        public static final String TABLE_NAME = "sync_log";
+
+        // Wall clock time the sync started, in milliseconds since the epoch
+        public static final String COLUMN_START_TIME = "start_time";
+
+        // Time spent in each stage, in milliseconds
+        public static final String COLUMN_TOTAL_MS = "total_ms";
+        public static final String COLUMN_FETCH_MS = "fetch_ms";
+        public static final String COLUMN_PARSE_MS = "parse_ms";
+        public static final String COLUMN_ADD_LOCATION_MS = "add_location_ms";
+        public static final String COLUMN_INSERT_MS = "insert_ms";
+        public static final String COLUMN_WIDGETS_MS = "widgets_ms";
+        public static final String COLUMN_MUZEI_MS = "muzei_ms";
+        public static final String COLUMN_NOTIFY_MS = "notify_ms";
+        public static final String COLUMN_WATCH_MS = "watch_ms";
+        public static final String COLUMN_CONNECT_MS = "connect_ms";
+        public static final String COLUMN_FIRST_BYTE_MS = "first_byte_ms";
+        public static final String COLUMN_TRANSFER_MS = "transfer_ms";
+
+        // The highest HTTP status any request of the run got, so a run that hit a server error
+        // shows it.  0 if no request got an answer.
+        public static final String COLUMN_HTTP_STATUS = "http_status";
+        public static final String COLUMN_REQUESTS = "requests";
+        public static final String COLUMN_WIRE_BYTES = "wire_bytes";
+        public static final String COLUMN_BYTES = "bytes";
+        // Weather and hourly rows the run inserted, updated in place, and deleted
+        public static final String COLUMN_ROWS_INSERTED = "rows_inserted";
+        public static final String COLUMN_ROWS_UPDATED = "rows_updated";
+        public static final String COLUMN_ROWS_DELETED = "rows_deleted";
+        public static final String COLUMN_FAILED_FETCHES = "failed_fetches";
+        // The location status the run left behind, one of SunshineSyncAdapter.LocationStatus
+        public static final String COLUMN_LOCATION_STATUS = "location_status";
+
+        // The columns that can be aggregated through CONTENT_DAILY_URI
+        public static final String[] DURATION_COLUMNS = new String[] {
+                COLUMN_TOTAL_MS, COLUMN_FETCH_MS, COLUMN_PARSE_MS, COLUMN_ADD_LOCATION_MS,
+                COLUMN_INSERT_MS, COLUMN_WIDGETS_MS, COLUMN_MUZEI_MS, COLUMN_NOTIFY_MS,
+                COLUMN_WATCH_MS, COLUMN_CONNECT_MS, COLUMN_FIRST_BYTE_MS, COLUMN_TRANSFER_MS
+        };
+
+        // Columns of the daily aggregates.  The day is the start of the UTC day in milliseconds
+        // since the epoch, and the percentiles are nearest-rank.
+        public static final String COLUMN_DAY = "day";
+        public static final String COLUMN_RUNS = "runs";
+        public static final String COLUMN_P50_MS = "p50_ms";
+        public static final String COLUMN_P95_MS = "p95_ms";
+        public static final String COLUMN_MAX_MS = "max_ms";
+
+        // Query parameter naming the duration column to aggregate, total_ms if left out
+        public static final String QUERY_COLUMN = "column";
+
+        public static Uri buildSyncLogUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id);
+        }
+
+        public static Uri buildDailyUri(String durationColumn) {
+            return CONTENT_DAILY_URI.buildUpon()
+                    .appendQueryParameter(QUERY_COLUMN, durationColumn).build();
+        }
+
+        public static String getDurationColumnFromUri(Uri uri) {
+            String column = uri.getQueryParameter(QUERY_COLUMN);
+            return column != null && column.length() > 0 ? column : COLUMN_TOTAL_MS;
+        }
+    }
+
     /* Inner class that defines the table contents of the weather table */
     public static final class WeatherEntry implements BaseColumns {
 
@@ -126,6 +378,10 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // When this day was last fetched, in milliseconds since the epoch, whether or not its
+        // values changed.  Null if unknown.
+        public static final String COLUMN_FETCHED = "fetched";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
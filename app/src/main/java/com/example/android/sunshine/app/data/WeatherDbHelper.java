@@ -15,84 +15,381 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SyncLogEntry;
+import com.example.android.sunshine.app.data.WeatherContract.ValidatorEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
 /**
  * Manages a local database for weather data.
+ *
+ * The database uses write-ahead logging where it's available, from Honeycomb on.  The lists,
+ * widgets, Muzei and the watch all read while the sync writes, and with the rollback journal
+ * every read waits for the sync's transaction to finish.  With the log, readers go on seeing
+ * the last committed data from connections of their own while the writer appends.  The
+ * framework keeps the pool of reader connections, sized for the device.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    // If you change the database schema, you must increment the database version, and add a
+    // step to MIGRATIONS that brings the previous version's schema up to date.
+    static final int DATABASE_VERSION = 9;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // The forecast list and the widgets read one location's days in date order.  This index
+    // starts with the location and date, so those reads are a range of it, and also holds
+    // every weather column the list shows, so they never touch the table itself.  The date
+    // first unique index stays for deleting the past days of every location.
+    static final String INDEX_WEATHER_LOCATION_DATE = "weather_location_date";
+    static final String SQL_CREATE_WEATHER_LOCATION_DATE_INDEX =
+            "CREATE INDEX " + INDEX_WEATHER_LOCATION_DATE + " ON " + WeatherEntry.TABLE_NAME
+                    + " (" + WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ", "
+                    + WeatherEntry.COLUMN_WEATHER_ID + ", " + WeatherEntry.COLUMN_SHORT_DESC + ", "
+                    + WeatherEntry.COLUMN_MAX_TEMP + ", " + WeatherEntry.COLUMN_MIN_TEMP + ");";
+
+    // The retention delete of 3 hour slots spans every location
+    static final String INDEX_HOURLY_DATE_TIME = "hourly_date_time";
+    static final String SQL_CREATE_HOURLY_DATE_TIME_INDEX =
+            "CREATE INDEX " + INDEX_HOURLY_DATE_TIME + " ON " + HourlyEntry.TABLE_NAME
+                    + " (" + HourlyEntry.COLUMN_DATE_TIME + ");";
+
+    // For trimming the sync log by age, and reading it in order for the daily aggregates
+    static final String INDEX_SYNC_LOG_START_TIME = "sync_log_start_time";
+    static final String SQL_CREATE_SYNC_LOG_START_TIME_INDEX =
+            "CREATE INDEX " + INDEX_SYNC_LOG_START_TIME + " ON " + SyncLogEntry.TABLE_NAME
+                    + " (" + SyncLogEntry.COLUMN_START_TIME + ");";
+
+    // Create a table to hold locations.  A location consists of the string supplied in the
+    // location setting, the city name, and the latitude and longitude
+    static final String SQL_CREATE_LOCATION_TABLE = "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
+            LocationEntry._ID + " INTEGER PRIMARY KEY," +
+            LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
+            LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
+            LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
+            LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+            LocationEntry.COLUMN_CITY_ID + " INTEGER " +
+            " );";
+
+    static final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
+            // Why AutoIncrement here, and not above?
+            // Unique keys will be auto-generated in either case.  But for weather
+            // forecasting, it's reasonable to assume the user will want information
+            // for a certain date and all dates *following*, so the forecast data
+            // should be sorted accordingly.
+            WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+
+            // the ID of the location entry associated with this weather data
+            WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+            WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+            WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+            WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+
+            WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+
+            WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_FETCHED + " INTEGER, " +
+
+            // Set up the location column as a foreign key to location table.
+            " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+            // To assure the application have just one weather entry per day
+            // per location, it's created a UNIQUE constraint with REPLACE strategy
+            " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
+            WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
+
+    // HTTP validators for the last forecast fetched for each location setting.  Only one
+    // set is ever kept per setting, so a newer response simply replaces the old one.
+    static final String SQL_CREATE_VALIDATOR_TABLE = "CREATE TABLE " + ValidatorEntry.TABLE_NAME + " (" +
+            ValidatorEntry._ID + " INTEGER PRIMARY KEY," +
+            ValidatorEntry.COLUMN_LOCATION_SETTING + " TEXT NOT NULL UNIQUE ON CONFLICT REPLACE, " +
+            ValidatorEntry.COLUMN_ETAG + " TEXT, " +
+            ValidatorEntry.COLUMN_LAST_MODIFIED + " TEXT " +
+            " );";
+
+    // The 3-hourly forecast.  The unique constraint puts the location first, so its index
+    // also serves range queries over one location's slots.
+    static final String SQL_CREATE_HOURLY_TABLE = "CREATE TABLE " + HourlyEntry.TABLE_NAME + " (" +
+            HourlyEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+            HourlyEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+            HourlyEntry.COLUMN_DATE_TIME + " INTEGER NOT NULL, " +
+            HourlyEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+            HourlyEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+
+            HourlyEntry.COLUMN_TEMP + " REAL NOT NULL, " +
+            HourlyEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+            HourlyEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+
+            HourlyEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+            HourlyEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+            HourlyEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+            HourlyEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+
+            " FOREIGN KEY (" + HourlyEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+            // A newer forecast for the same slot replaces the old one
+            " UNIQUE (" + HourlyEntry.COLUMN_LOC_KEY + ", " +
+            HourlyEntry.COLUMN_DATE_TIME + ") ON CONFLICT REPLACE);";
+
+    // One row per sync run.  Rows are only ever appended, and trimmed from the oldest end.
+    static final String SQL_CREATE_SYNC_LOG_TABLE = "CREATE TABLE " + SyncLogEntry.TABLE_NAME + " (" +
+            SyncLogEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+            SyncLogEntry.COLUMN_START_TIME + " INTEGER NOT NULL, " +
+
+            SyncLogEntry.COLUMN_TOTAL_MS + " REAL NOT NULL, " +
+            SyncLogEntry.COLUMN_FETCH_MS + " REAL NOT NULL, " +
+            SyncLogEntry.COLUMN_PARSE_MS + " REAL NOT NULL, " +
+            SyncLogEntry.COLUMN_ADD_LOCATION_MS + " REAL NOT NULL, " +
+            SyncLogEntry.COLUMN_INSERT_MS + " REAL NOT NULL, " +
+            SyncLogEntry.COLUMN_WIDGETS_MS + " REAL NOT NULL, " +
+            SyncLogEntry.COLUMN_MUZEI_MS + " REAL NOT NULL, " +
+            SyncLogEntry.COLUMN_NOTIFY_MS + " REAL NOT NULL, " +
+            SyncLogEntry.COLUMN_WATCH_MS + " REAL NOT NULL, " +
+            SyncLogEntry.COLUMN_CONNECT_MS + " REAL NOT NULL, " +
+            SyncLogEntry.COLUMN_FIRST_BYTE_MS + " REAL NOT NULL, " +
+            SyncLogEntry.COLUMN_TRANSFER_MS + " REAL NOT NULL, " +
+
+            SyncLogEntry.COLUMN_HTTP_STATUS + " INTEGER NOT NULL, " +
+            SyncLogEntry.COLUMN_REQUESTS + " INTEGER NOT NULL, " +
+            SyncLogEntry.COLUMN_WIRE_BYTES + " INTEGER NOT NULL, " +
+            SyncLogEntry.COLUMN_BYTES + " INTEGER NOT NULL, " +
+            SyncLogEntry.COLUMN_ROWS_INSERTED + " INTEGER NOT NULL, " +
+            SyncLogEntry.COLUMN_ROWS_UPDATED + " INTEGER NOT NULL, " +
+            SyncLogEntry.COLUMN_ROWS_DELETED + " INTEGER NOT NULL, " +
+            SyncLogEntry.COLUMN_FAILED_FETCHES + " INTEGER NOT NULL, " +
+            SyncLogEntry.COLUMN_LOCATION_STATUS + " INTEGER NOT NULL " +
+            " );";
+
+    // Every column of the sync log, for copying it into a rebuilt table
+    private static final String SYNC_LOG_COLUMNS = SyncLogEntry._ID + ", " +
+            SyncLogEntry.COLUMN_START_TIME + ", " +
+            SyncLogEntry.COLUMN_TOTAL_MS + ", " +
+            SyncLogEntry.COLUMN_FETCH_MS + ", " +
+            SyncLogEntry.COLUMN_PARSE_MS + ", " +
+            SyncLogEntry.COLUMN_ADD_LOCATION_MS + ", " +
+            SyncLogEntry.COLUMN_INSERT_MS + ", " +
+            SyncLogEntry.COLUMN_WIDGETS_MS + ", " +
+            SyncLogEntry.COLUMN_MUZEI_MS + ", " +
+            SyncLogEntry.COLUMN_NOTIFY_MS + ", " +
+            SyncLogEntry.COLUMN_WATCH_MS + ", " +
+            SyncLogEntry.COLUMN_CONNECT_MS + ", " +
+            SyncLogEntry.COLUMN_FIRST_BYTE_MS + ", " +
+            SyncLogEntry.COLUMN_TRANSFER_MS + ", " +
+            SyncLogEntry.COLUMN_HTTP_STATUS + ", " +
+            SyncLogEntry.COLUMN_REQUESTS + ", " +
+            SyncLogEntry.COLUMN_WIRE_BYTES + ", " +
+            SyncLogEntry.COLUMN_BYTES + ", " +
+            SyncLogEntry.COLUMN_ROWS_INSERTED + ", " +
+            SyncLogEntry.COLUMN_ROWS_UPDATED + ", " +
+            SyncLogEntry.COLUMN_ROWS_DELETED + ", " +
+            SyncLogEntry.COLUMN_FAILED_FETCHES + ", " +
+            SyncLogEntry.COLUMN_LOCATION_STATUS;
+
     public WeatherDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME);
+    }
+
+    /**
+     * @param name the database file, which tests point somewhere else than the app's own
+     */
+    WeatherDbHelper(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            enableWriteAheadLogging();
+        }
+    }
+
+    // Set before the database opens, so it's opened in WAL mode from the start
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void enableWriteAheadLogging() {
+        setWriteAheadLoggingEnabled(true);
     }
 
     @Override
-    public void onCreate(SQLiteDatabase sqLiteDatabase) {
-        // Create a table to hold locations.  A location consists of the string supplied in the
-        // location setting, the city name, and the latitude and longitude
-        final String SQL_CREATE_LOCATION_TABLE = "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
-                LocationEntry._ID + " INTEGER PRIMARY KEY," +
-                LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
-                LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
-                LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
-                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
-                " );";
-
-        final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
-                // Why AutoIncrement here, and not above?
-                // Unique keys will be auto-generated in either case.  But for weather
-                // forecasting, it's reasonable to assume the user will want information
-                // for a certain date and all dates *following*, so the forecast data
-                // should be sorted accordingly.
-                WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
-
-                // the ID of the location entry associated with this weather data
-                WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
-                WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
-                WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
-                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
-
-                WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
-
-                WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
-
-                // Set up the location column as a foreign key to location table.
-                " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
-                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
-
-                // To assure the application have just one weather entry per day
-                // per location, it's created a UNIQUE constraint with REPLACE strategy
-                " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
-                WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        // Honeycomb to ICS have no way to ask before opening, so it's switched on once open.
+        // It can't be changed inside a transaction, and onOpen runs after the upgrade's.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                && Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN
+                && !db.isReadOnly()) {
+            enableWriteAheadLogging(db);
+        }
+    }
 
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void enableWriteAheadLogging(SQLiteDatabase db) {
+        db.enableWriteAheadLogging();
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase sqLiteDatabase) {
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_VALIDATOR_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_HOURLY_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_SYNC_LOG_TABLE);
+
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_HOURLY_DATE_TIME_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_SYNC_LOG_START_TIME_INDEX);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
-        // Note that this only fires if you change the version number for your database.
-        // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
+        if (oldVersion < OLDEST_MIGRATED_VERSION) {
+            // Too old to migrate.  The data is only a cache of the online forecast, so it's
+            // discarded and fetched again.
+            dropTables(sqLiteDatabase);
+            onCreate(sqLiteDatabase);
+            return;
+        }
+        migrate(sqLiteDatabase, oldVersion, newVersion);
+    }
+
+    /**
+     * One version's change to the schema, made in place so the locations and forecasts already
+     * stored survive an app update.
+     *
+     * A step's SQL describes the schema as it was at its version.  Steps that create a table
+     * share the statement onCreate uses only while the table hasn't changed since; once it
+     * does, the step has to keep its own copy of the old statement.
+     */
+    abstract static class Migration {
+        // The version the step upgrades to, from the one before it
+        final int toVersion;
+
+        Migration(int toVersion) {
+            this.toVersion = toVersion;
+        }
+
+        abstract void migrate(SQLiteDatabase db);
+    }
+
+    // The first version that can be migrated rather than recreated
+    static final int OLDEST_MIGRATED_VERSION = 2;
+
+    static final Migration[] MIGRATIONS = new Migration[] {
+            // HTTP validators for conditional requests
+            new Migration(3) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL(SQL_CREATE_VALIDATOR_TABLE);
+                }
+            },
+            // The 3 hourly forecast
+            new Migration(4) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL(SQL_CREATE_HOURLY_TABLE);
+                }
+            },
+            // When each day was fetched.  Days stored before are left without a fetch time,
+            // which the sync takes as stale, so it fetches the whole window once.
+            new Migration(5) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + WeatherEntry.TABLE_NAME + " ADD COLUMN "
+                            + WeatherEntry.COLUMN_FETCHED + " INTEGER");
+                }
+            },
+            // City IDs for group requests, which the next sync of each location fills in
+            new Migration(6) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + LocationEntry.TABLE_NAME + " ADD COLUMN "
+                            + LocationEntry.COLUMN_CITY_ID + " INTEGER");
+                }
+            },
+            // The sync log, as it was before version 9 dropped its delete_ms column
+            new Migration(7) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE sync_log (" +
+                            "_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                            "start_time INTEGER NOT NULL, " +
+                            "total_ms REAL NOT NULL, " +
+                            "fetch_ms REAL NOT NULL, " +
+                            "parse_ms REAL NOT NULL, " +
+                            "add_location_ms REAL NOT NULL, " +
+                            "insert_ms REAL NOT NULL, " +
+                            "delete_ms REAL NOT NULL, " +
+                            "widgets_ms REAL NOT NULL, " +
+                            "muzei_ms REAL NOT NULL, " +
+                            "notify_ms REAL NOT NULL, " +
+                            "watch_ms REAL NOT NULL, " +
+                            "connect_ms REAL NOT NULL, " +
+                            "first_byte_ms REAL NOT NULL, " +
+                            "transfer_ms REAL NOT NULL, " +
+                            "http_status INTEGER NOT NULL, " +
+                            "requests INTEGER NOT NULL, " +
+                            "wire_bytes INTEGER NOT NULL, " +
+                            "bytes INTEGER NOT NULL, " +
+                            "rows_inserted INTEGER NOT NULL, " +
+                            "rows_updated INTEGER NOT NULL, " +
+                            "rows_deleted INTEGER NOT NULL, " +
+                            "failed_fetches INTEGER NOT NULL, " +
+                            "location_status INTEGER NOT NULL " +
+                            " );");
+                }
+            },
+            // Indexes for reading by location and date, and for the retention deletes
+            new Migration(8) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+                    db.execSQL(SQL_CREATE_HOURLY_DATE_TIME_INDEX);
+                    db.execSQL(SQL_CREATE_SYNC_LOG_START_TIME_INDEX);
+                }
+            },
+            // The deletes are applied in the same batch as the inserts, and no longer timed
+            // apart from them.  SQLite can't drop a column before 3.35, so the sync log is
+            // rebuilt without delete_ms, keeping its rows.
+            new Migration(9) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    String old = SyncLogEntry.TABLE_NAME + "_v8";
+                    db.execSQL("ALTER TABLE " + SyncLogEntry.TABLE_NAME + " RENAME TO " + old);
+                    db.execSQL(SQL_CREATE_SYNC_LOG_TABLE);
+                    db.execSQL("INSERT INTO " + SyncLogEntry.TABLE_NAME + " (" + SYNC_LOG_COLUMNS
+                            + ") SELECT " + SYNC_LOG_COLUMNS + " FROM " + old);
+                    // Drops the start time index too, which went along with the rename
+                    db.execSQL("DROP TABLE " + old);
+                    db.execSQL(SQL_CREATE_SYNC_LOG_START_TIME_INDEX);
+                }
+            }
+    };
+
+    /**
+     * Runs the steps from one version up to another, in order.  SQLiteOpenHelper already holds
+     * a transaction around onUpgrade, so a step that fails leaves the old version in place.
+     */
+    static void migrate(SQLiteDatabase db, int fromVersion, int toVersion) {
+        for (Migration migration : MIGRATIONS) {
+            if (migration.toVersion > fromVersion && migration.toVersion <= toVersion) {
+                migration.migrate(db);
+            }
+        }
+    }
+
+    private static void dropTables(SQLiteDatabase sqLiteDatabase) {
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + ValidatorEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HourlyEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + SyncLogEntry.TABLE_NAME);
     }
 }
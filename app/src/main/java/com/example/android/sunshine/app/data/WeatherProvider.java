@@ -17,25 +17,62 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.util.Log;
+
+import com.example.android.sunshine.app.sync.SyncMetrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 public class WeatherProvider extends ContentProvider {
+    private static final String LOG_TAG = WeatherProvider.class.getSimpleName();
 
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
+    private LocationIdCache mLocationIdCache;
+    // The batch being applied on the calling thread, if any
+    private final ThreadLocal<BatchState> mBatch = new ThreadLocal<BatchState>();
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
+    static final int VALIDATOR = 400;
+    static final int SYNC_METRICS = 500;
+    static final int HOURLY = 600;
+    static final int HOURLY_WITH_LOCATION = 601;
+    static final int SYNC_LOG = 700;
+    static final int SYNC_LOG_DAILY = 701;
+
+    /**
+     * What the operations of a batch share while it's applied: the statements its weather rows
+     * are reconciled through, what they wrote, and the notifications held back until it commits.
+     */
+    private static final class BatchState {
+        final Set<Uri> notifications = new LinkedHashSet<Uri>();
+        WeatherReconciler.Result result = new WeatherReconciler.Result();
+        WeatherReconciler.Session session;
+        // The count to report for the weather row being applied: 1 if it was updated in place
+        // or 0 if it was already stored as-is.  -1 if the operation isn't one, or inserted its
+        // row, which reports the URI like any insert.
+        int written;
+    }
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    // Package private, like the selections below, so the query plan tests explain the SQL the
+    // provider actually runs
+    static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    static final SQLiteQueryBuilder sHourlyByLocationSettingQueryBuilder;
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -49,21 +86,35 @@ public class WeatherProvider extends ContentProvider {
                         "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
                         " = " + WeatherContract.LocationEntry.TABLE_NAME +
                         "." + WeatherContract.LocationEntry._ID);
+
+        //hourly INNER JOIN location ON hourly.location_id = location._id
+        sHourlyByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+        sHourlyByLocationSettingQueryBuilder.setTables(
+                WeatherContract.HourlyEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.HourlyEntry.TABLE_NAME +
+                        "." + WeatherContract.HourlyEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
     }
 
+    // Reads match the location setting through the join rather than the location ID cache, so
+    // they see the location table as it is, however its rows were written.  The setting's
+    // unique index finds the location, and the weather and hourly indexes do the rest.
+
     //location.location_setting = ?
-    private static final String sLocationSettingSelection =
+    static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
 
     //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
+    static final String sLocationSettingWithStartDateSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
     //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
+    static final String sLocationSettingAndDaySelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
@@ -93,6 +144,28 @@ public class WeatherProvider extends ContentProvider {
         );
     }
 
+    //location.location_setting = ? AND date_time >= ? AND date_time < ?
+    static final String sLocationSettingWithSlotRangeSelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.HourlyEntry.COLUMN_DATE_TIME + " >= ? AND " +
+                    WeatherContract.HourlyEntry.COLUMN_DATE_TIME + " < ? ";
+
+    private Cursor getHourlyByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.HourlyEntry.getLocationSettingFromUri(uri);
+        long start = WeatherContract.HourlyEntry.getStartFromUri(uri);
+        long end = WeatherContract.HourlyEntry.getEndFromUri(uri);
+
+        return sHourlyByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                sLocationSettingWithSlotRangeSelection,
+                new String[]{locationSetting, Long.toString(start), Long.toString(end)},
+                null,
+                null,
+                sortOrder
+        );
+    }
+
     private Cursor getWeatherByLocationSettingAndDate(
             Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
@@ -130,6 +203,13 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_VALIDATOR, VALIDATOR);
+        matcher.addURI(authority, WeatherContract.PATH_SYNC_METRICS, SYNC_METRICS);
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY, HOURLY);
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY + "/*", HOURLY_WITH_LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_SYNC_LOG, SYNC_LOG);
+        matcher.addURI(authority, WeatherContract.PATH_SYNC_LOG + "/"
+                + WeatherContract.PATH_DAILY, SYNC_LOG_DAILY);
         return matcher;
     }
 
@@ -140,6 +220,7 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         mOpenHelper = new WeatherDbHelper(getContext());
+        mLocationIdCache = LocationIdCache.getInstance(getContext());
         return true;
     }
 
@@ -164,6 +245,17 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case VALIDATOR:
+                return WeatherContract.ValidatorEntry.CONTENT_TYPE;
+            case SYNC_METRICS:
+                return WeatherContract.SyncMetricsEntry.CONTENT_TYPE;
+            case HOURLY:
+            case HOURLY_WITH_LOCATION:
+                return WeatherContract.HourlyEntry.CONTENT_TYPE;
+            case SYNC_LOG:
+                return WeatherContract.SyncLogEntry.CONTENT_TYPE;
+            case SYNC_LOG_DAILY:
+                return WeatherContract.SyncLogEntry.CONTENT_DAILY_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -213,6 +305,61 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "validator"
+            case VALIDATOR: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.ValidatorEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "sync_metrics", kept in memory by the sync adapter rather than in the database
+            case SYNC_METRICS: {
+                retCursor = SyncMetrics.queryRecentRuns(projection);
+                break;
+            }
+            // "hourly/*", optionally limited to a range of slots
+            case HOURLY_WITH_LOCATION: {
+                retCursor = getHourlyByLocationSetting(uri, projection, sortOrder);
+                break;
+            }
+            // "hourly"
+            case HOURLY: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.HourlyEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "sync_log"
+            case SYNC_LOG: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.SyncLogEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "sync_log/daily?column=...", aggregated per day rather than read from a table
+            case SYNC_LOG_DAILY: {
+                retCursor = SyncLog.queryDaily(mOpenHelper.getReadableDatabase(),
+                        WeatherContract.SyncLogEntry.getDurationColumnFromUri(uri), projection);
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -233,6 +380,10 @@ public class WeatherProvider extends ContentProvider {
         switch (match) {
             case WEATHER: {
                 normalizeDate(values);
+                BatchState batch = mBatch.get();
+                if (batch != null) {
+                    return insertWeatherInBatch(db, batch, values);
+                }
                 long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
                 if ( _id > 0 )
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
@@ -242,16 +393,59 @@ public class WeatherProvider extends ContentProvider {
             }
             case LOCATION: {
                 long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+                if ( _id > 0 ) {
+                    Long cityId = values.getAsLong(WeatherContract.LocationEntry.COLUMN_CITY_ID);
+                    mLocationIdCache.put(values.getAsString(
+                            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING), _id,
+                            cityId != null ? cityId : 0);
+                }
                 if ( _id > 0 )
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
                 break;
             }
+            case VALIDATOR: {
+                long _id = db.insert(WeatherContract.ValidatorEntry.TABLE_NAME, null, values);
+                if ( _id > 0 )
+                    returnUri = WeatherContract.ValidatorEntry.buildValidatorUri(_id);
+                else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                break;
+            }
+            case HOURLY: {
+                long _id = db.insert(WeatherContract.HourlyEntry.TABLE_NAME, null, values);
+                if ( _id > 0 )
+                    returnUri = WeatherContract.HourlyEntry.buildHourlyUri(_id);
+                else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                break;
+            }
+            case SYNC_LOG: {
+                // Each new run pushes out the ones past the retention limits
+                long _id;
+                db.beginTransaction();
+                try {
+                    _id = db.insert(WeatherContract.SyncLogEntry.TABLE_NAME, null, values);
+                    if (_id > 0) {
+                        long startTime = values.getAsLong(
+                                WeatherContract.SyncLogEntry.COLUMN_START_TIME);
+                        SyncLog.trim(db, SyncLog.MAX_ROWS, startTime - SyncLog.MAX_AGE_MILLIS);
+                        db.setTransactionSuccessful();
+                    }
+                } finally {
+                    db.endTransaction();
+                }
+                if ( _id > 0 )
+                    returnUri = WeatherContract.SyncLogEntry.buildSyncLogUri(_id);
+                else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                break;
+            }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         return returnUri;
     }
 
@@ -270,13 +464,27 @@ public class WeatherProvider extends ContentProvider {
             case LOCATION:
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                // Dropped now, rather than when the notification reaches the cache
+                mLocationIdCache.invalidate();
+                break;
+            case VALIDATOR:
+                rowsDeleted = db.delete(
+                        WeatherContract.ValidatorEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            case HOURLY:
+                rowsDeleted = db.delete(
+                        WeatherContract.HourlyEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            case SYNC_LOG:
+                rowsDeleted = db.delete(
+                        WeatherContract.SyncLogEntry.TABLE_NAME, selection, selectionArgs);
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsDeleted;
     }
@@ -305,12 +513,24 @@ public class WeatherProvider extends ContentProvider {
             case LOCATION:
                 rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
                         selectionArgs);
+                mLocationIdCache.invalidate();
+                break;
+            case VALIDATOR:
+                rowsUpdated = db.update(WeatherContract.ValidatorEntry.TABLE_NAME, values, selection,
+                        selectionArgs);
+                break;
+            case HOURLY:
+                rowsUpdated = db.update(WeatherContract.HourlyEntry.TABLE_NAME, values, selection,
+                        selectionArgs);
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+        // Refreshing when days were fetched doesn't change anything observers show
+        boolean fetchTimeOnly = match == WEATHER && values.size() == 1
+                && values.containsKey(WeatherContract.WeatherEntry.COLUMN_FETCHED);
+        if (rowsUpdated != 0 && !fetchTimeOnly) {
+            notifyChange(uri);
         }
         return rowsUpdated;
     }
@@ -321,27 +541,197 @@ public class WeatherProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
-                db.beginTransaction();
+                // Rows with the usual columns, which is every row the sync writes, go through
+                // the compiled statements of the batch path
+                return bulkInsertWeather(WeatherBatch.fromContentValues(values), values);
+            case HOURLY:
+                // Slots are replaced wholesale by the table's unique constraint, so there is
+                // nothing to compare.  One transaction and one notification per batch.
+                // A canceled sync rolls the batch back, like the weather rows above.
                 int returnCount = 0;
+                boolean canceled = false;
+                db.beginTransaction();
                 try {
                     for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
+                        if (Thread.currentThread().isInterrupted()) {
+                            canceled = true;
+                            break;
+                        }
+                        if (db.insert(WeatherContract.HourlyEntry.TABLE_NAME, null, value) != -1) {
                             returnCount++;
                         }
                     }
-                    db.setTransactionSuccessful();
+                    if (!canceled) {
+                        db.setTransactionSuccessful();
+                    }
                 } finally {
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                if (canceled) {
+                    return 0;
+                }
+                if (returnCount > 0) {
+                    notifyChange(uri);
+                }
                 return returnCount;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Rows that are already stored with the same values are skipped, so the returned count is
+     * the number of rows actually inserted or updated.  A canceled sync interrupts the thread
+     * it calls us on, and everything written so far is rolled back.
+     *
+     * @param batch the rows as a batch, or null to write the values as they are
+     * @param values the rows, used only if there's no batch
+     */
+    private int bulkInsertWeather(WeatherBatch batch, ContentValues[] values) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        WeatherReconciler.Result result;
+        db.beginTransaction();
+        try {
+            if (batch != null) {
+                batch.normalizeDates();
+                result = WeatherReconciler.reconcile(db, batch);
+            } else {
+                for (ContentValues value : values) {
+                    normalizeDate(value);
+                }
+                result = WeatherReconciler.reconcile(db, values);
+            }
+            if (!result.canceled) {
+                db.setTransactionSuccessful();
+            }
+        } finally {
+            db.endTransaction();
+        }
+        Log.d(LOG_TAG, "bulkInsert: " + result);
+        if (result.canceled) {
+            return 0;
+        }
+        if (result.hasChanges()) {
+            notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+        }
+        return result.written();
+    }
+
+    /**
+     * Reconciles a day inserted as part of a batch, like the rows of a bulk insert, through
+     * statements the whole batch shares.  Only a day that is new or has changed notifies.
+     *
+     * @return the weather URI, since a day that was updated or unchanged has no new row to
+     * point to.
+     */
+    private Uri insertWeatherInBatch(SQLiteDatabase db, BatchState batch, ContentValues values) {
+        WeatherBatch row = WeatherBatch.fromContentValues(new ContentValues[]{values});
+        int insertedBefore = batch.result.inserted;
+        int updatedBefore = batch.result.updated;
+        if (row != null) {
+            if (batch.session == null) {
+                batch.session = new WeatherReconciler.Session(db);
+            }
+            batch.session.reconcile(row, 0, batch.result);
+        } else {
+            WeatherReconciler.Result result =
+                    WeatherReconciler.reconcile(db, new ContentValues[]{values});
+            batch.result.inserted += result.inserted;
+            batch.result.updated += result.updated;
+            batch.result.unchanged += result.unchanged;
+        }
+        boolean inserted = batch.result.inserted > insertedBefore;
+        boolean updated = batch.result.updated > updatedBefore;
+        batch.written = inserted ? -1 : updated ? 1 : 0;
+        if (inserted || updated) {
+            notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+        }
+        return WeatherContract.WeatherEntry.CONTENT_URI;
+    }
+
+    /**
+     * Applies the operations in one transaction, so they all commit or none of them do.  The
+     * transaction is only given up, to let other writers in, before an operation that allows
+     * it, and what committed up to there is announced then.  The sync's writes never allow it,
+     * since they have to commit as a whole.
+     *
+     * Observers hear about each URI changed once, when the batch commits, however many
+     * operations changed it.  Weather rows are reconciled as they are in a bulk insert.  A new
+     * day's result holds the weather URI, as any insert's does, while a day updated in place
+     * holds a count of 1 and one already stored as-is a count of 0.
+     *
+     * A canceled sync interrupts the thread it calls us on, which rolls back the whole batch.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final BatchState batch = new BatchState();
+        final ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+        boolean committed = false;
+        mBatch.set(batch);
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < results.length; i++) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new OperationApplicationException("Canceled after " + i
+                            + " of " + results.length + " operations");
+                }
+                ContentProviderOperation operation = operations.get(i);
+                if (i > 0 && operation.isYieldAllowed() && db.yieldIfContendedSafely()) {
+                    flushBatch(batch);
+                }
+                batch.written = -1;
+                results[i] = operation.apply(this, results, i);
+                if (batch.written >= 0) {
+                    results[i] = new ContentProviderResult(batch.written);
+                }
+            }
+            if (batch.session != null) {
+                batch.session.flushFetched();
+            }
+            db.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            db.endTransaction();
+            if (batch.session != null) {
+                batch.session.close();
+            }
+            mBatch.remove();
+            if (!committed) {
+                // Locations inserted by the batch were cached, and are gone again
+                mLocationIdCache.invalidate();
+            }
+        }
+        flushBatch(batch);
+        return results;
+    }
+
+    /**
+     * Logs and announces what a batch has committed so far.
+     */
+    private void flushBatch(BatchState batch) {
+        Log.d(LOG_TAG, "applyBatch: " + batch.result);
+        batch.result = new WeatherReconciler.Result();
+        for (Uri uri : batch.notifications) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+        batch.notifications.clear();
+    }
+
+    /**
+     * Tells observers a URI has changed, or inside a batch, holds the notification back until
+     * the batch commits.
+     */
+    private void notifyChange(Uri uri) {
+        BatchState batch = mBatch.get();
+        if (batch != null) {
+            batch.notifications.add(uri);
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
@@ -0,0 +1,343 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes incoming weather rows by comparing them with the stored rows for the same
+ * (location_id, date).  New days are inserted, days whose values differ are updated in place,
+ * and days that haven't changed are left alone, so a sync that brings nothing new doesn't
+ * rewrite the table or wake up its observers.
+ *
+ * The fetch time isn't part of the comparison.  For unchanged days it's brought up to date
+ * with a single update at the end, which doesn't count as a change.
+ *
+ * If the calling thread is interrupted, reconciling stops before the next row and the result
+ * is marked canceled, so the caller can roll its transaction back.
+ */
+public class WeatherReconciler {
+
+    private static final String sLocationAndDateSelection =
+            WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " = ?";
+
+    private static final String sIdSelection = WeatherEntry._ID + " = ?";
+
+    // For batches, which always hold the same columns, the SQL is fixed and compiled once per
+    // call.  The data columns are bound first, in this order, in all three statements.
+    private static final String sDataColumnsMatch =
+            WeatherEntry.COLUMN_WEATHER_ID + " = ? AND " +
+            WeatherEntry.COLUMN_SHORT_DESC + " = ? AND " +
+            WeatherEntry.COLUMN_MIN_TEMP + " = ? AND " +
+            WeatherEntry.COLUMN_MAX_TEMP + " = ? AND " +
+            WeatherEntry.COLUMN_HUMIDITY + " = ? AND " +
+            WeatherEntry.COLUMN_PRESSURE + " = ? AND " +
+            WeatherEntry.COLUMN_WIND_SPEED + " = ? AND " +
+            WeatherEntry.COLUMN_DEGREES + " = ?";
+
+    // The stored row's ID, negated if it matches the incoming values, or 0 if the day isn't
+    // stored, so one lookup answers both questions without an exception for new days.
+    // Package private for the query plan tests.
+    static final String sBatchLookupSql = "SELECT IFNULL((SELECT CASE WHEN " +
+            sDataColumnsMatch + " THEN -" + WeatherEntry._ID + " ELSE " + WeatherEntry._ID +
+            " END FROM " + WeatherEntry.TABLE_NAME + " WHERE " + sLocationAndDateSelection +
+            "), 0)";
+
+    private static final String sBatchInsertSql = "INSERT INTO " + WeatherEntry.TABLE_NAME +
+            " (" + WeatherEntry.COLUMN_WEATHER_ID + ", " + WeatherEntry.COLUMN_SHORT_DESC + ", " +
+            WeatherEntry.COLUMN_MIN_TEMP + ", " + WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherEntry.COLUMN_HUMIDITY + ", " + WeatherEntry.COLUMN_PRESSURE + ", " +
+            WeatherEntry.COLUMN_WIND_SPEED + ", " + WeatherEntry.COLUMN_DEGREES + ", " +
+            WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ", " +
+            WeatherEntry.COLUMN_FETCHED + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    // A row without a fetch time keeps the stored one, as an update without the column would
+    private static final String sBatchUpdateSql = "UPDATE " + WeatherEntry.TABLE_NAME +
+            " SET " + WeatherEntry.COLUMN_WEATHER_ID + " = ?, " +
+            WeatherEntry.COLUMN_SHORT_DESC + " = ?, " +
+            WeatherEntry.COLUMN_MIN_TEMP + " = ?, " + WeatherEntry.COLUMN_MAX_TEMP + " = ?, " +
+            WeatherEntry.COLUMN_HUMIDITY + " = ?, " + WeatherEntry.COLUMN_PRESSURE + " = ?, " +
+            WeatherEntry.COLUMN_WIND_SPEED + " = ?, " + WeatherEntry.COLUMN_DEGREES + " = ?, " +
+            WeatherEntry.COLUMN_FETCHED + " = IFNULL(?, " + WeatherEntry.COLUMN_FETCHED + ")" +
+            " WHERE " + sIdSelection;
+
+    /**
+     * How many of the incoming rows were inserted, updated or already stored as-is.
+     */
+    public static final class Result {
+        public int inserted;
+        public int updated;
+        public int unchanged;
+        public boolean canceled;
+
+        public boolean hasChanges() {
+            return inserted + updated > 0;
+        }
+
+        public int written() {
+            return inserted + updated;
+        }
+
+        @Override
+        public String toString() {
+            return inserted + " inserted, " + updated + " updated, " + unchanged + " unchanged"
+                    + (canceled ? ", canceled" : "");
+        }
+    }
+
+    /**
+     * Reconciles rows against the weather table.  Each row must carry a location key and an
+     * already normalized date.  Callers are expected to hold a transaction around this call.
+     */
+    public static Result reconcile(SQLiteDatabase db, ContentValues[] values) {
+        Result result = new Result();
+        String[] selectionArgs = new String[2];
+        // Unchanged rows whose fetch time needs refreshing, by fetch time
+        Map<Long, List<Long>> refetched = new LinkedHashMap<Long, List<Long>>();
+
+        for (ContentValues value : values) {
+            if (Thread.currentThread().isInterrupted()) {
+                result.canceled = true;
+                return result;
+            }
+            Long locationId = value.getAsLong(WeatherEntry.COLUMN_LOC_KEY);
+            Long date = value.getAsLong(WeatherEntry.COLUMN_DATE);
+            if (locationId == null || date == null) {
+                // Nothing to match on, so let the insert decide whether the row is valid
+                if (db.insert(WeatherEntry.TABLE_NAME, null, value) != -1) {
+                    result.inserted++;
+                }
+                continue;
+            }
+
+            selectionArgs[0] = Long.toString(locationId);
+            selectionArgs[1] = Long.toString(date);
+            Long fetched = value.getAsLong(WeatherEntry.COLUMN_FETCHED);
+            Set<Map.Entry<String, Object>> valueSet = value.valueSet();
+            List<String> columns = new ArrayList<String>(valueSet.size() + 1);
+            columns.add(WeatherEntry._ID);
+            for (Map.Entry<String, Object> entry : valueSet) {
+                if (!WeatherEntry.COLUMN_FETCHED.equals(entry.getKey())) {
+                    columns.add(entry.getKey());
+                }
+            }
+            String[] projection = columns.toArray(new String[columns.size()]);
+
+            Cursor cursor = db.query(WeatherEntry.TABLE_NAME, projection,
+                    sLocationAndDateSelection, selectionArgs, null, null, null);
+            try {
+                if (!cursor.moveToFirst()) {
+                    if (db.insert(WeatherEntry.TABLE_NAME, null, value) != -1) {
+                        result.inserted++;
+                    }
+                } else if (matches(cursor, projection, value)) {
+                    result.unchanged++;
+                    if (fetched != null) {
+                        List<Long> ids = refetched.get(fetched);
+                        if (ids == null) {
+                            ids = new ArrayList<Long>();
+                            refetched.put(fetched, ids);
+                        }
+                        ids.add(cursor.getLong(0));
+                    }
+                } else {
+                    long id = cursor.getLong(0);
+                    if (db.update(WeatherEntry.TABLE_NAME, value, sIdSelection,
+                            new String[]{Long.toString(id)}) > 0) {
+                        result.updated++;
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        for (Map.Entry<Long, List<Long>> entry : refetched.entrySet()) {
+            updateFetched(db, entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * Reconciles a batch the same way, binding its values to statements compiled once for the
+     * whole batch rather than building SQL and ContentValues for every row.  The batch's dates
+     * must already be normalized.  Callers are expected to hold a transaction around this call.
+     */
+    public static Result reconcile(SQLiteDatabase db, WeatherBatch batch) {
+        Result result = new Result();
+        Session session = new Session(db);
+        try {
+            for (int row = 0; row < batch.size(); row++) {
+                if (Thread.currentThread().isInterrupted()) {
+                    result.canceled = true;
+                    return result;
+                }
+                session.reconcile(batch, row, result);
+            }
+            session.flushFetched();
+        } finally {
+            session.close();
+        }
+        return result;
+    }
+
+    /**
+     * The batch statements, compiled once and kept for as many rows as are reconciled through
+     * them, which needn't arrive together.  A batch of provider operations hands its weather
+     * rows over one at a time, for instance.
+     */
+    static final class Session {
+        private final SQLiteDatabase mDb;
+        private final SQLiteStatement mLookup;
+        private final SQLiteStatement mInsert;
+        private final SQLiteStatement mUpdate;
+        // Unchanged rows whose fetch time needs refreshing, by fetch time
+        private final Map<Long, List<Long>> mRefetched = new LinkedHashMap<Long, List<Long>>();
+
+        Session(SQLiteDatabase db) {
+            mDb = db;
+            mLookup = db.compileStatement(sBatchLookupSql);
+            mInsert = db.compileStatement(sBatchInsertSql);
+            mUpdate = db.compileStatement(sBatchUpdateSql);
+        }
+
+        /**
+         * Reconciles one row of a batch and counts it in the result.  An unchanged row's fetch
+         * time is only brought up to date by {@link #flushFetched()}.
+         *
+         * @return whether the row was inserted or updated.
+         */
+        boolean reconcile(WeatherBatch batch, int row, Result result) {
+            bindDataColumns(mLookup, batch, row);
+            mLookup.bindLong(9, batch.locationIds[row]);
+            mLookup.bindLong(10, batch.dates[row]);
+            long found = mLookup.simpleQueryForLong();
+
+            if (found == 0) {
+                bindDataColumns(mInsert, batch, row);
+                mInsert.bindLong(9, batch.locationIds[row]);
+                mInsert.bindLong(10, batch.dates[row]);
+                bindFetched(mInsert, 11, batch.fetched[row]);
+                if (mInsert.executeInsert() != -1) {
+                    result.inserted++;
+                    return true;
+                }
+                return false;
+            } else if (found < 0) {
+                result.unchanged++;
+                long fetched = batch.fetched[row];
+                if (fetched != 0) {
+                    List<Long> ids = mRefetched.get(fetched);
+                    if (ids == null) {
+                        ids = new ArrayList<Long>();
+                        mRefetched.put(fetched, ids);
+                    }
+                    ids.add(-found);
+                }
+                return false;
+            } else {
+                bindDataColumns(mUpdate, batch, row);
+                bindFetched(mUpdate, 9, batch.fetched[row]);
+                mUpdate.bindLong(10, found);
+                mUpdate.execute();
+                result.updated++;
+                return true;
+            }
+        }
+
+        /**
+         * Brings the fetch times of the unchanged rows reconciled so far up to date.
+         */
+        void flushFetched() {
+            for (Map.Entry<Long, List<Long>> entry : mRefetched.entrySet()) {
+                updateFetched(mDb, entry.getKey(), entry.getValue());
+            }
+            mRefetched.clear();
+        }
+
+        void close() {
+            mLookup.close();
+            mInsert.close();
+            mUpdate.close();
+        }
+    }
+
+    private static void bindDataColumns(SQLiteStatement statement, WeatherBatch batch, int row) {
+        statement.bindLong(1, batch.weatherIds[row]);
+        statement.bindString(2, batch.shortDescs[row]);
+        statement.bindDouble(3, batch.minTemps[row]);
+        statement.bindDouble(4, batch.maxTemps[row]);
+        statement.bindDouble(5, batch.humidities[row]);
+        statement.bindDouble(6, batch.pressures[row]);
+        statement.bindDouble(7, batch.windSpeeds[row]);
+        statement.bindDouble(8, batch.degrees[row]);
+    }
+
+    private static void bindFetched(SQLiteStatement statement, int index, long fetched) {
+        if (fetched != 0) {
+            statement.bindLong(index, fetched);
+        } else {
+            statement.bindNull(index);
+        }
+    }
+
+    private static void updateFetched(SQLiteDatabase db, long fetched, List<Long> ids) {
+        StringBuilder selection = new StringBuilder(WeatherEntry._ID).append(" IN (");
+        for (int i = 0; i < ids.size(); i++) {
+            selection.append(i == 0 ? "" : ",").append(ids.get(i));
+        }
+        selection.append(')');
+
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_FETCHED, fetched);
+        db.update(WeatherEntry.TABLE_NAME, values, selection.toString(), null);
+    }
+
+    /**
+     * Compares the stored row under the cursor with the incoming values.  Numbers are compared
+     * by value, since SQLite hands back a REAL column as a double even if it went in as an int.
+     */
+    private static boolean matches(Cursor cursor, String[] projection, ContentValues value) {
+        for (int i = 1; i < projection.length; i++) {
+            Object expected = value.get(projection[i]);
+            if (expected == null) {
+                if (!cursor.isNull(i)) {
+                    return false;
+                }
+            } else if (cursor.isNull(i)) {
+                return false;
+            } else if (expected instanceof Number) {
+                if (cursor.getDouble(i) != ((Number) expected).doubleValue()) {
+                    return false;
+                }
+            } else if (!expected.toString().equals(cursor.getString(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.android.sunshine.app.sync;
+
+/**
+ * Syncs more often while the forecast keeps changing and less often while it holds steady, and
+ * backs off further when nothing outside the app is showing it.  However stable things look, the
+ * stored forecast is never allowed to get older than {@link #MAX_AGE}.
+ *
+ * All times are in seconds.
+ */
+public class AdaptiveSyncPolicy implements SyncPolicy {
+
+    static final long MIN_INTERVAL = 60 * 60;
+    static final long MAX_INTERVAL = 60 * 60 * 6;
+    // Used when no widget, watch face or Muzei is showing the forecast
+    static final long IDLE_INTERVAL = 60 * 60 * 12;
+    static final long MAX_AGE = 60 * 60 * 12;
+
+    // A day rolling over changes one day in fourteen, so anything around that is "stable"
+    static final float STABLE_VOLATILITY = 0.1f;
+    static final float VOLATILE_VOLATILITY = 0.5f;
+
+    private final Clock mClock;
+
+    public AdaptiveSyncPolicy() {
+        this(Clock.SYSTEM);
+    }
+
+    public AdaptiveSyncPolicy(Clock clock) {
+        mClock = clock;
+    }
+
+    @Override
+    public long getSyncInterval(Signals signals) {
+        if (!signals.hasForecastForToday || signals.lastFetchMillis < 0) {
+            // Nothing useful to show, so try again soon
+            return MIN_INTERVAL;
+        }
+
+        long interval;
+        if (signals.volatility <= STABLE_VOLATILITY) {
+            interval = MAX_INTERVAL;
+        } else if (signals.volatility >= VOLATILE_VOLATILITY) {
+            interval = MIN_INTERVAL;
+        } else {
+            float scale = (signals.volatility - STABLE_VOLATILITY)
+                    / (VOLATILE_VOLATILITY - STABLE_VOLATILITY);
+            interval = MAX_INTERVAL - (long) (scale * (MAX_INTERVAL - MIN_INTERVAL));
+        }
+
+        if (!signals.consumersActive) {
+            interval = Math.min(interval * 2, IDLE_INTERVAL);
+        }
+
+        long age = Math.max(0, (mClock.currentTimeMillis() - signals.lastFetchMillis) / 1000);
+        return Math.max(MIN_INTERVAL, Math.min(interval, MAX_AGE - age));
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.android.sunshine.app.sync;
+
+/**
+ * Stops requests to a failing server for a while instead of sending it one after another.
+ *
+ * After {@link #getFailureThreshold()} failures in a row the breaker opens and turns requests
+ * away for the cooldown.  Once the cooldown has passed a single trial request is let through:
+ * if it succeeds the breaker closes, if it fails the breaker opens again for twice as long, up
+ * to the maximum cooldown.
+ */
+class CircuitBreaker {
+
+    private final Clock mClock;
+    private final int mFailureThreshold;
+    private final long mInitialCooldownMillis;
+    private final long mMaxCooldownMillis;
+
+    private int mFailures;
+    private long mCooldownMillis;
+    // Requests are turned away until this time, if the breaker is open
+    private long mOpenUntil;
+    private boolean mTrialInFlight;
+    private int mTrips;
+
+    CircuitBreaker(Clock clock, int failureThreshold, long initialCooldownMillis,
+                   long maxCooldownMillis) {
+        mClock = clock;
+        mFailureThreshold = failureThreshold;
+        mInitialCooldownMillis = initialCooldownMillis;
+        mMaxCooldownMillis = maxCooldownMillis;
+        mCooldownMillis = initialCooldownMillis;
+    }
+
+    /**
+     * Call before each request, and make the request only if this returns true.
+     */
+    synchronized boolean allowRequest() {
+        if (mFailures < mFailureThreshold) {
+            return true;
+        }
+        long now = mClock.currentTimeMillis();
+        if (now < mOpenUntil) {
+            return false;
+        }
+        // Let this one through as the trial.  Everything else is still turned away until it
+        // reports back, or until another cooldown has passed in case it never does.
+        mTrialInFlight = true;
+        mOpenUntil = now + mCooldownMillis;
+        return true;
+    }
+
+    synchronized void recordSuccess() {
+        mFailures = 0;
+        mCooldownMillis = mInitialCooldownMillis;
+        mOpenUntil = 0;
+        mTrialInFlight = false;
+    }
+
+    synchronized void recordFailure() {
+        mFailures++;
+        if (mTrialInFlight) {
+            mTrialInFlight = false;
+            mCooldownMillis = Math.min(mCooldownMillis * 2, mMaxCooldownMillis);
+            mOpenUntil = mClock.currentTimeMillis() + mCooldownMillis;
+            mTrips++;
+        } else if (mFailures == mFailureThreshold) {
+            mOpenUntil = mClock.currentTimeMillis() + mCooldownMillis;
+            mTrips++;
+        }
+        // Otherwise it's a request that was already in flight when the breaker opened
+    }
+
+    synchronized boolean isOpen() {
+        return mFailures >= mFailureThreshold && mClock.currentTimeMillis() < mOpenUntil;
+    }
+
+    /**
+     * @return when requests will be let through again, or 0 if the breaker isn't open.
+     */
+    synchronized long getRetryAtMillis() {
+        return isOpen() ? mOpenUntil : 0;
+    }
+
+    int getFailureThreshold() {
+        return mFailureThreshold;
+    }
+
+    /**
+     * @return how many times the breaker has opened.
+     */
+    synchronized int getTripCount() {
+        return mTrips;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CircuitBreaker{" + (isOpen() ? "open" : "closed") + ", " + mFailures
+                + " failures, " + mTrips + " trips}";
+    }
+}
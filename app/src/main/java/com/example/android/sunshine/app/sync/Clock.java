@@ -0,0 +1,16 @@
+package com.example.android.sunshine.app.sync;
+
+/**
+ * Source of the current time, so that time-based sync decisions can be tested without waiting.
+ */
+public interface Clock {
+
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    long currentTimeMillis();
+}
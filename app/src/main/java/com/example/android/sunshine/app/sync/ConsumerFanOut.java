@@ -0,0 +1,128 @@
+package com.example.android.sunshine.app.sync;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tells everything that shows the forecast outside the app (widgets, Muzei, the notification and
+ * the watch) to refresh, without making the sync wait for them.  The consumers run in parallel
+ * on a pool of their own, and one that hasn't finished within its timeout is interrupted.
+ *
+ * Each consumer's latency, from dispatch until it finishes or times out, is added to its stage
+ * of the sync's {@link SyncMetrics}.  That happens after the sync itself has returned.
+ */
+class ConsumerFanOut {
+    private static final String LOG_TAG = ConsumerFanOut.class.getSimpleName();
+
+    static final int MAX_THREADS = 4;
+    static final long DEFAULT_TIMEOUT_MILLIS = 10 * 1000;
+    // Idle threads are let go after this long, so the pool costs nothing between syncs
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * Something to refresh once new weather data has been stored.
+     */
+    abstract static class Consumer {
+        final String name;
+        final int stage;
+        final long timeoutMillis;
+
+        /**
+         * @param stage the {@link SyncMetrics} stage its latency is recorded under
+         */
+        Consumer(String name, int stage, long timeoutMillis) {
+            this.name = name;
+            this.stage = stage;
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        abstract void update() throws Exception;
+    }
+
+    private static ConsumerFanOut sInstance;
+
+    private final ThreadPoolExecutor mExecutor;
+    private final ScheduledThreadPoolExecutor mTimeouts;
+
+    static synchronized ConsumerFanOut getInstance() {
+        if (sInstance == null) {
+            sInstance = new ConsumerFanOut();
+        }
+        return sInstance;
+    }
+
+    ConsumerFanOut() {
+        ThreadFactory threadFactory = new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "ConsumerFanOut #" + mCount.incrementAndGet());
+            }
+        };
+        mExecutor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), threadFactory);
+        mExecutor.allowCoreThreadTimeOut(true);
+        mTimeouts = new ScheduledThreadPoolExecutor(1, threadFactory);
+        mTimeouts.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        mTimeouts.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Starts every consumer and returns right away.
+     *
+     * @return one future per consumer, done once it has finished or timed out.
+     */
+    List<Future<?>> dispatch(List<Consumer> consumers, final SyncMetrics metrics) {
+        List<Future<?>> futures = new ArrayList<Future<?>>(consumers.size());
+        for (final Consumer consumer : consumers) {
+            final long start = SyncMetrics.startTimer();
+            // Set by whichever of the consumer and its timeout finishes first, so the latency
+            // is only recorded once
+            final AtomicBoolean finished = new AtomicBoolean();
+
+            final Future<?> future = mExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        consumer.update();
+                    } catch (InterruptedException e) {
+                        // timed out, which the timeout has already reported
+                        Thread.currentThread().interrupt();
+                    } catch (Exception e) {
+                        Log.e(LOG_TAG, "Error updating " + consumer.name, e);
+                    } finally {
+                        if (finished.compareAndSet(false, true)) {
+                            metrics.stopTimer(consumer.stage, start);
+                        }
+                    }
+                }
+            });
+
+            mTimeouts.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (finished.compareAndSet(false, true)) {
+                        future.cancel(true);
+                        metrics.stopTimer(consumer.stage, start);
+                        Log.w(LOG_TAG, consumer.name + " timed out after "
+                                + consumer.timeoutMillis + "ms");
+                    }
+                }
+            }, consumer.timeoutMillis, TimeUnit.MILLISECONDS);
+
+            futures.add(future);
+        }
+        return futures;
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read through it, and optionally refuses to read more than a limit.
+ */
+class CountingInputStream extends FilterInputStream {
+    private final long mLimit;
+    private long mCount;
+
+    CountingInputStream(InputStream in) {
+        this(in, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param limit the most bytes that may be read.  The read that goes past it throws a
+     *              {@link ResponseTooLargeException}.
+     */
+    CountingInputStream(InputStream in, long limit) {
+        super(in);
+        mLimit = limit;
+    }
+
+    long getCount() {
+        return mCount;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+            count(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        int read = super.read(buffer, offset, count);
+        if (read > 0) {
+            count(read);
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long byteCount) throws IOException {
+        long skipped = super.skip(byteCount);
+        count(skipped);
+        return skipped;
+    }
+
+    private void count(long bytes) throws ResponseTooLargeException {
+        mCount += bytes;
+        if (mCount > mLimit) {
+            throw new ResponseTooLargeException(mLimit);
+        }
+    }
+
+    @Override
+    public boolean markSupported() {
+        // Re-reading after reset() would count the same bytes twice
+        return false;
+    }
+}
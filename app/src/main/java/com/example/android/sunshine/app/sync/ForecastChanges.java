@@ -0,0 +1,94 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts the days of a fetched forecast that changed in a way someone looking at it would
+ * notice, which is what the sync interval follows.
+ *
+ * The server hands back slightly different humidity, pressure, wind and temperature figures on
+ * almost every fetch, and the stored rows are rewritten for those, but a forecast that only
+ * drifts like that is as good as stable.  A day counts as changed if it's new, if its weather
+ * is different, or if its high or low moved by at least {@link #TEMPERATURE_THRESHOLD}.
+ */
+class ForecastChanges {
+
+    // In degrees Celsius, which is how temperatures are stored
+    static final double TEMPERATURE_THRESHOLD = 1.0;
+
+    private static final String[] STORED_PROJECTION = new String[] {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP
+    };
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_WEATHER_ID = 1;
+    private static final int INDEX_MIN_TEMP = 2;
+    private static final int INDEX_MAX_TEMP = 3;
+
+    private ForecastChanges() {
+    }
+
+    /**
+     * Compares the fetched days with the ones stored for the location, before they're written.
+     */
+    static int count(ContentResolver resolver, String locationSetting, List<ContentValues> days) {
+        Map<Long, ContentValues> stored = new HashMap<Long, ContentValues>();
+        Cursor cursor = resolver.query(
+                WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting),
+                STORED_PROJECTION, null, null, null);
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    ContentValues day = new ContentValues();
+                    day.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                            cursor.getInt(INDEX_WEATHER_ID));
+                    day.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+                            cursor.getDouble(INDEX_MIN_TEMP));
+                    day.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                            cursor.getDouble(INDEX_MAX_TEMP));
+                    stored.put(cursor.getLong(INDEX_DATE), day);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return count(stored, days);
+    }
+
+    /**
+     * @param stored the stored days, by date
+     */
+    static int count(Map<Long, ContentValues> stored, List<ContentValues> days) {
+        int changed = 0;
+        for (ContentValues day : days) {
+            ContentValues storedDay = stored.get(
+                    day.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+            if (storedDay == null || hasChanged(storedDay, day)) {
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    static boolean hasChanged(ContentValues stored, ContentValues fetched) {
+        return !stored.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID).equals(
+                fetched.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID))
+                || moved(stored, fetched, WeatherContract.WeatherEntry.COLUMN_MIN_TEMP)
+                || moved(stored, fetched, WeatherContract.WeatherEntry.COLUMN_MAX_TEMP);
+    }
+
+    private static boolean moved(ContentValues stored, ContentValues fetched, String column) {
+        return Math.abs(stored.getAsDouble(column) - fetched.getAsDouble(column))
+                >= TEMPERATURE_THRESHOLD;
+    }
+}
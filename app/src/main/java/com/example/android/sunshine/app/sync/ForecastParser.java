@@ -0,0 +1,346 @@
+package com.example.android.sunshine.app.sync;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+
+/**
+ * Pull parser for the OpenWeatherMap daily forecast response.
+ *
+ * Fields are read one at a time straight off the connection's stream and handed to a
+ * {@link Callback} as soon as each day is complete, so neither the raw document nor a
+ * JSONObject tree for it is ever held in memory.
+ *
+ * A group response, which carries the daily forecasts of several cities in its "list" array,
+ * is parsed the same way by {@link #parseGroup(InputStream, GroupCallback)}.
+ *
+ * If the parsing thread is interrupted, parsing stops at the next day with an
+ * {@link InterruptedIOException}.
+ */
+public class ForecastParser {
+
+    // Location information
+    static final String OWM_CITY = "city";
+    static final String OWM_CITY_ID = "id";
+    static final String OWM_CITY_NAME = "name";
+    static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    static final String OWM_LATITUDE = "lat";
+    static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    static final String OWM_LIST = "list";
+
+    static final String OWM_PRESSURE = "pressure";
+    static final String OWM_HUMIDITY = "humidity";
+    static final String OWM_WINDSPEED = "speed";
+    static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    static final String OWM_TEMPERATURE = "temp";
+    static final String OWM_MAX = "max";
+    static final String OWM_MIN = "min";
+
+    static final String OWM_WEATHER = "weather";
+    static final String OWM_DESCRIPTION = "main";
+    static final String OWM_WEATHER_ID = "id";
+
+    static final String OWM_MESSAGE_CODE = "cod";
+
+    // Bits used to check that a day carried every field the weather table needs.
+    private static final int FIELD_PRESSURE = 1;
+    private static final int FIELD_HUMIDITY = 1 << 1;
+    private static final int FIELD_WINDSPEED = 1 << 2;
+    private static final int FIELD_WIND_DIRECTION = 1 << 3;
+    private static final int FIELD_MAX = 1 << 4;
+    private static final int FIELD_MIN = 1 << 5;
+    private static final int FIELD_DESCRIPTION = 1 << 6;
+    private static final int FIELD_WEATHER_ID = 1 << 7;
+    private static final int FIELDS_REQUIRED = (1 << 8) - 1;
+
+    /**
+     * Receives the parsed document piece by piece.  The {@link Day} handed to
+     * {@link #onDay(Day)} is reused for the next element, so copy out what you need.
+     */
+    public interface Callback {
+        /**
+         * @param cityId OpenWeatherMap's ID for the city, or 0 if the document didn't carry one
+         */
+        void onCity(long cityId, String cityName, double lat, double lon);
+
+        void onDay(Day day);
+    }
+
+    /**
+     * Receives the forecasts of a group response, one city at a time.
+     */
+    public interface GroupCallback {
+        /**
+         * @return the callback that receives the next city's forecast.
+         */
+        Callback onForecastStart();
+
+        /**
+         * @param messageCode the city forecast's own message code
+         */
+        void onForecastEnd(Callback forecast, int messageCode);
+    }
+
+    /**
+     * One element of the "list" array.  {@link #index} is the position in the array, which is
+     * how callers map the element to a date.
+     */
+    public static final class Day {
+        public int index;
+        public double pressure;
+        public int humidity;
+        public double windSpeed;
+        public double windDirection;
+        public double high;
+        public double low;
+        public String description;
+        public int weatherId;
+    }
+
+    private final Day mDay = new Day();
+    private int mSeen;
+
+    /**
+     * Parses a forecast document, which is always read as UTF-8.
+     *
+     * @return the message code from the "cod" field, or {@link HttpURLConnection#HTTP_OK} if
+     * the document didn't carry one.
+     */
+    public int parse(InputStream in, Callback callback) throws IOException, JSONException {
+        return parse(new InputStreamReader(in, "UTF-8"), callback);
+    }
+
+    public int parse(Reader in, Callback callback) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(in);
+        try {
+            return readForecast(reader, callback);
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            // The stream itself was fine, it just wasn't a forecast.  Report it the same way
+            // org.json would have so callers can treat it as an invalid server response.
+            JSONException jsonException = new JSONException(e.getMessage());
+            jsonException.initCause(e);
+            throw jsonException;
+        }
+    }
+
+    /**
+     * Parses a group response, which is always read as UTF-8.
+     *
+     * @return the message code of the group as a whole, or {@link HttpURLConnection#HTTP_OK} if
+     * the document didn't carry one.
+     */
+    public int parseGroup(InputStream in, GroupCallback callback)
+            throws IOException, JSONException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            return readGroup(reader, callback);
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            JSONException jsonException = new JSONException(e.getMessage());
+            jsonException.initCause(e);
+            throw jsonException;
+        }
+    }
+
+    private int readGroup(JsonReader reader, GroupCallback callback)
+            throws IOException, JSONException {
+        int messageCode = HttpURLConnection.HTTP_OK;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_MESSAGE_CODE.equals(name)) {
+                messageCode = Integer.parseInt(reader.nextString());
+            } else if (OWM_LIST.equals(name)) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    Callback forecast = callback.onForecastStart();
+                    callback.onForecastEnd(forecast, readForecast(reader, forecast));
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return messageCode;
+    }
+
+    private int readForecast(JsonReader reader, Callback callback)
+            throws IOException, JSONException {
+        int messageCode = HttpURLConnection.HTTP_OK;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_MESSAGE_CODE.equals(name)) {
+                // OWM sends this both as a number and as a quoted string
+                messageCode = Integer.parseInt(reader.nextString());
+            } else if (OWM_CITY.equals(name)) {
+                readCity(reader, callback);
+            } else if (OWM_LIST.equals(name)) {
+                readList(reader, callback);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return messageCode;
+    }
+
+    private void readCity(JsonReader reader, Callback callback) throws IOException, JSONException {
+        long cityId = 0;
+        String cityName = null;
+        double lat = 0;
+        double lon = 0;
+        boolean hasCoord = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                cityName = reader.nextString();
+            } else if (OWM_CITY_ID.equals(name)) {
+                cityId = reader.nextLong();
+            } else if (OWM_COORD.equals(name)) {
+                hasCoord = true;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        lat = reader.nextDouble();
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        lon = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (cityName == null || !hasCoord) {
+            throw new JSONException("Forecast city is missing its name or coordinates");
+        }
+        callback.onCity(cityId, cityName, lat, lon);
+    }
+
+    private void readList(JsonReader reader, Callback callback) throws IOException, JSONException {
+        int index = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            checkInterrupted();
+            readDay(reader, index++);
+            callback.onDay(mDay);
+        }
+        reader.endArray();
+    }
+
+    private void readDay(JsonReader reader, int index) throws IOException, JSONException {
+        Day day = mDay;
+        day.index = index;
+        day.description = null;
+        mSeen = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_PRESSURE.equals(name)) {
+                day.pressure = reader.nextDouble();
+                mSeen |= FIELD_PRESSURE;
+            } else if (OWM_HUMIDITY.equals(name)) {
+                day.humidity = (int) reader.nextDouble();
+                mSeen |= FIELD_HUMIDITY;
+            } else if (OWM_WINDSPEED.equals(name)) {
+                day.windSpeed = reader.nextDouble();
+                mSeen |= FIELD_WINDSPEED;
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                day.windDirection = reader.nextDouble();
+                mSeen |= FIELD_WIND_DIRECTION;
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                readTemperature(reader, day);
+            } else if (OWM_WEATHER.equals(name)) {
+                readWeather(reader, day);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (mSeen != FIELDS_REQUIRED) {
+            throw new JSONException("Forecast day " + index + " is missing required fields");
+        }
+    }
+
+    private void readTemperature(JsonReader reader, Day day) throws IOException {
+        // Temperatures are in a child object called "temp".  Try not to name variables
+        // "temp" when working with temperature.  It confuses everybody.
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_MAX.equals(name)) {
+                day.high = reader.nextDouble();
+                mSeen |= FIELD_MAX;
+            } else if (OWM_MIN.equals(name)) {
+                day.low = reader.nextDouble();
+                mSeen |= FIELD_MIN;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private void readWeather(JsonReader reader, Day day) throws IOException {
+        // Description is in a child array called "weather", which is 1 element long.
+        // That element also contains a weather code.
+        reader.beginArray();
+        if (reader.hasNext() && reader.peek() == JsonToken.BEGIN_OBJECT) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_DESCRIPTION.equals(name)) {
+                    day.description = reader.nextString();
+                    mSeen |= FIELD_DESCRIPTION;
+                } else if (OWM_WEATHER_ID.equals(name)) {
+                    day.weatherId = (int) reader.nextDouble();
+                    mSeen |= FIELD_WEATHER_ID;
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        while (reader.hasNext()) {
+            reader.skipValue();
+        }
+        reader.endArray();
+    }
+
+    /**
+     * A canceled sync interrupts its worker.  Checked before each row, so parsing stops
+     * between rows rather than reading the rest of the document.
+     */
+    static void checkInterrupted() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Parsing interrupted");
+        }
+    }
+}
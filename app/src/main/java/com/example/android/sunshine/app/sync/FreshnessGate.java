@@ -0,0 +1,137 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Skips syncing a location whose forecast was synced successfully less than a TTL ago.
+ *
+ * The watch face, app start, settings changes and the periodic sync can all ask for a sync
+ * within minutes of each other, and the forecast hardly changes in that time.  Callers that
+ * need fresh data anyway, like a user asking to refresh, force their way through.  The hit and
+ * miss counters show how often the gate saves a fetch, for tuning the TTL.  They count since the
+ * process started; the sync also counts its own decisions in its {@link SyncMetrics}, which
+ * serves them per run.
+ *
+ * Sync times are kept in their own SharedPreferences file, so a location synced just before
+ * the process was killed is still fresh when the app starts again.
+ */
+public class FreshnessGate {
+
+    public static final long DEFAULT_TTL_MILLIS = 15 * 60 * 1000;
+
+    private static final String PREFERENCES_NAME = "sync_freshness";
+
+    private static FreshnessGate sInstance;
+
+    private final Clock mClock;
+    // Null if sync times are only kept in memory
+    private final SharedPreferences mPreferences;
+    // When each location was last synced, read from the preferences when first asked for
+    private final Map<String, Long> mSynced = new HashMap<String, Long>();
+
+    private long mTtlMillis;
+    private int mHits;
+    private int mMisses;
+    private int mForced;
+
+    public static synchronized FreshnessGate getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new FreshnessGate(Clock.SYSTEM, DEFAULT_TTL_MILLIS,
+                    context.getApplicationContext().getSharedPreferences(PREFERENCES_NAME,
+                            Context.MODE_PRIVATE));
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param preferences where sync times are kept, or null to keep them in memory only
+     */
+    FreshnessGate(Clock clock, long ttlMillis, SharedPreferences preferences) {
+        mClock = clock;
+        mTtlMillis = ttlMillis;
+        mPreferences = preferences;
+    }
+
+    public synchronized long getTtlMillis() {
+        return mTtlMillis;
+    }
+
+    /**
+     * @param ttlMillis how long after a successful sync a location is left alone, or 0 to sync
+     *                  it every time
+     */
+    public synchronized void setTtlMillis(long ttlMillis) {
+        mTtlMillis = ttlMillis;
+    }
+
+    /**
+     * Decides whether a location should be synced, and counts the decision.
+     *
+     * @param force sync even if the location is fresh
+     * @return false if the location was synced less than the TTL ago and isn't forced.
+     */
+    public synchronized boolean shouldSync(String locationSetting, boolean force) {
+        if (force) {
+            mForced++;
+            return true;
+        }
+        if (isFresh(locationSetting)) {
+            mHits++;
+            return false;
+        }
+        mMisses++;
+        return true;
+    }
+
+    /**
+     * @return true if the location was synced less than the TTL ago.
+     */
+    public synchronized boolean isFresh(String locationSetting) {
+        long synced = getSyncTime(locationSetting);
+        long age = mClock.currentTimeMillis() - synced;
+        // A sync time in the future means the clock was turned back, so don't trust it
+        return synced > 0 && age >= 0 && age < mTtlMillis;
+    }
+
+    /**
+     * Records that the location's forecast was fetched and stored, or found not modified.
+     */
+    public synchronized void onSynced(String locationSetting) {
+        long now = mClock.currentTimeMillis();
+        mSynced.put(locationSetting, now);
+        if (mPreferences != null) {
+            mPreferences.edit().putLong(locationSetting, now).apply();
+        }
+    }
+
+    private long getSyncTime(String locationSetting) {
+        Long synced = mSynced.get(locationSetting);
+        if (synced == null) {
+            synced = mPreferences != null ? mPreferences.getLong(locationSetting, 0) : 0;
+            mSynced.put(locationSetting, synced);
+        }
+        return synced;
+    }
+
+    public synchronized int getHitCount() {
+        return mHits;
+    }
+
+    public synchronized int getMissCount() {
+        return mMisses;
+    }
+
+    public synchronized int getForcedCount() {
+        return mForced;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "freshness " + mHits + " hits, " + mMisses + " misses, " + mForced + " forced (TTL "
+                + mTtlMillis / 1000 + "s)";
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.android.sunshine.app.sync;
+
+/**
+ * Decides how much of the forecast window to fetch, based on how long ago each day we hold was
+ * fetched.
+ *
+ * The daily forecast API always starts at today, so what we can choose is how many days to ask
+ * for: enough to cover the furthest day that is missing or older than its maximum age.  Near
+ * days change the most and are given short maximum ages, far days long ones, so a routine sync
+ * only asks for the first few days and the whole window is refreshed now and then.
+ */
+public class HorizonPolicy {
+
+    public static final int NUM_DAYS = 14;
+
+    private static final long HOUR_IN_MILLIS = 60 * 60 * 1000;
+
+    /**
+     * The first three days are fetched on every sync, the rest of the week twice a day, and the
+     * second week once a day.  The window is never all fresh, so every sync asks for at least
+     * the near days.  That's on purpose: the {@link FreshnessGate} already skips locations
+     * synced within its TTL, so a sync only gets here once the near days are that old anyway,
+     * or when the user forced a refresh and wants them fetched again.
+     */
+    public static final HorizonPolicy DEFAULT = new HorizonPolicy(NUM_DAYS,
+            0, 0, 0,
+            12 * HOUR_IN_MILLIS, 12 * HOUR_IN_MILLIS, 12 * HOUR_IN_MILLIS, 12 * HOUR_IN_MILLIS,
+            24 * HOUR_IN_MILLIS);
+
+    /**
+     * Fetches the whole window every time.
+     */
+    public static final HorizonPolicy FULL = new HorizonPolicy(NUM_DAYS, 0);
+
+    private final int mNumDays;
+    private final long[] mMaxAgeByDay;
+
+    /**
+     * @param numDays the size of the window, starting today
+     * @param maxAgeByDay how old each day may get, in milliseconds, before it's fetched again.
+     *                    The last value carries on for the rest of the window.
+     */
+    public HorizonPolicy(int numDays, long... maxAgeByDay) {
+        if (maxAgeByDay.length == 0) {
+            throw new IllegalArgumentException("No maximum ages given");
+        }
+        mNumDays = numDays;
+        mMaxAgeByDay = maxAgeByDay;
+    }
+
+    public int getNumDays() {
+        return mNumDays;
+    }
+
+    public long getMaxAge(int day) {
+        return mMaxAgeByDay[Math.min(day, mMaxAgeByDay.length - 1)];
+    }
+
+    /**
+     * @param fetchedByDay when each day of the window, starting today, was last fetched, or 0
+     *                     if we don't hold it
+     * @param now the current time, in milliseconds since the epoch
+     * @return the number of days to ask for, which is 0 if every day is fresh.
+     */
+    public int getDaysToFetch(long[] fetchedByDay, long now) {
+        for (int day = mNumDays - 1; day >= 0; day--) {
+            long fetched = day < fetchedByDay.length ? fetchedByDay[day] : 0;
+            if (fetched <= 0 || now - fetched >= getMaxAge(day)) {
+                return day + 1;
+            }
+        }
+        return 0;
+    }
+}
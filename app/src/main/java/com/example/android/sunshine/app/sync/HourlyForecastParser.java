@@ -0,0 +1,232 @@
+package com.example.android.sunshine.app.sync;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+
+/**
+ * Pull parser for the OpenWeatherMap 5 day / 3 hour forecast response.
+ *
+ * Like {@link ForecastParser}, slots are handed to a {@link Callback} one at a time as they are
+ * read off the stream.  The city block comes after the list in this response, and the caller
+ * already knows the location from the daily forecast, so it's skipped.  Parsing stops at the
+ * next slot if the thread is interrupted.
+ */
+public class HourlyForecastParser {
+
+    // Each slot's forecast is an element of the "list" array
+    static final String OWM_LIST = "list";
+    // Start of the slot, in seconds since the epoch
+    static final String OWM_DATE_TIME = "dt";
+
+    // Temperatures, pressure and humidity are children of the "main" object
+    static final String OWM_MAIN = "main";
+    static final String OWM_TEMPERATURE = "temp";
+    static final String OWM_MIN = "temp_min";
+    static final String OWM_MAX = "temp_max";
+    static final String OWM_PRESSURE = "pressure";
+    static final String OWM_HUMIDITY = "humidity";
+
+    // Wind is a child object of its own
+    static final String OWM_WIND = "wind";
+    static final String OWM_WINDSPEED = "speed";
+    static final String OWM_WIND_DIRECTION = "deg";
+
+    static final String OWM_WEATHER = "weather";
+    static final String OWM_DESCRIPTION = "main";
+    static final String OWM_WEATHER_ID = "id";
+
+    static final String OWM_MESSAGE_CODE = "cod";
+
+    // Bits used to check that a slot carried every field the hourly table needs.
+    private static final int FIELD_DATE_TIME = 1;
+    private static final int FIELD_TEMPERATURE = 1 << 1;
+    private static final int FIELD_MIN = 1 << 2;
+    private static final int FIELD_MAX = 1 << 3;
+    private static final int FIELD_PRESSURE = 1 << 4;
+    private static final int FIELD_HUMIDITY = 1 << 5;
+    private static final int FIELD_WINDSPEED = 1 << 6;
+    private static final int FIELD_WIND_DIRECTION = 1 << 7;
+    private static final int FIELD_DESCRIPTION = 1 << 8;
+    private static final int FIELD_WEATHER_ID = 1 << 9;
+    private static final int FIELDS_REQUIRED = (1 << 10) - 1;
+
+    /**
+     * Receives each slot as it is parsed.  The {@link Slot} is reused for the next element, so
+     * copy out what you need.
+     */
+    public interface Callback {
+        void onSlot(Slot slot);
+    }
+
+    /**
+     * One element of the "list" array.
+     */
+    public static final class Slot {
+        // Start of the slot, in milliseconds since the epoch
+        public long dateTime;
+        public double temperature;
+        public double low;
+        public double high;
+        public double pressure;
+        public int humidity;
+        public double windSpeed;
+        public double windDirection;
+        public String description;
+        public int weatherId;
+    }
+
+    private final Slot mSlot = new Slot();
+    private int mSeen;
+
+    /**
+     * Parses a forecast document, which is always read as UTF-8.
+     *
+     * @return the message code from the "cod" field, or {@link HttpURLConnection#HTTP_OK} if
+     * the document didn't carry one.
+     */
+    public int parse(InputStream in, Callback callback) throws IOException, JSONException {
+        return parse(new InputStreamReader(in, "UTF-8"), callback);
+    }
+
+    public int parse(Reader in, Callback callback) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(in);
+        try {
+            return readForecast(reader, callback);
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            JSONException jsonException = new JSONException(e.getMessage());
+            jsonException.initCause(e);
+            throw jsonException;
+        }
+    }
+
+    private int readForecast(JsonReader reader, Callback callback)
+            throws IOException, JSONException {
+        int messageCode = HttpURLConnection.HTTP_OK;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_MESSAGE_CODE.equals(name)) {
+                messageCode = Integer.parseInt(reader.nextString());
+            } else if (OWM_LIST.equals(name)) {
+                int index = 0;
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    ForecastParser.checkInterrupted();
+                    readSlot(reader, index++);
+                    callback.onSlot(mSlot);
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return messageCode;
+    }
+
+    private void readSlot(JsonReader reader, int index) throws IOException, JSONException {
+        Slot slot = mSlot;
+        slot.description = null;
+        mSeen = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_DATE_TIME.equals(name)) {
+                slot.dateTime = reader.nextLong() * 1000;
+                mSeen |= FIELD_DATE_TIME;
+            } else if (OWM_MAIN.equals(name)) {
+                readMain(reader, slot);
+            } else if (OWM_WIND.equals(name)) {
+                readWind(reader, slot);
+            } else if (OWM_WEATHER.equals(name)) {
+                readWeather(reader, slot);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (mSeen != FIELDS_REQUIRED) {
+            throw new JSONException("Forecast slot " + index + " is missing required fields");
+        }
+    }
+
+    private void readMain(JsonReader reader, Slot slot) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_TEMPERATURE.equals(name)) {
+                slot.temperature = reader.nextDouble();
+                mSeen |= FIELD_TEMPERATURE;
+            } else if (OWM_MIN.equals(name)) {
+                slot.low = reader.nextDouble();
+                mSeen |= FIELD_MIN;
+            } else if (OWM_MAX.equals(name)) {
+                slot.high = reader.nextDouble();
+                mSeen |= FIELD_MAX;
+            } else if (OWM_PRESSURE.equals(name)) {
+                slot.pressure = reader.nextDouble();
+                mSeen |= FIELD_PRESSURE;
+            } else if (OWM_HUMIDITY.equals(name)) {
+                slot.humidity = (int) reader.nextDouble();
+                mSeen |= FIELD_HUMIDITY;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private void readWind(JsonReader reader, Slot slot) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_WINDSPEED.equals(name)) {
+                slot.windSpeed = reader.nextDouble();
+                mSeen |= FIELD_WINDSPEED;
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                slot.windDirection = reader.nextDouble();
+                mSeen |= FIELD_WIND_DIRECTION;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private void readWeather(JsonReader reader, Slot slot) throws IOException {
+        // Same shape as in the daily forecast: a one element array
+        reader.beginArray();
+        if (reader.hasNext() && reader.peek() == JsonToken.BEGIN_OBJECT) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_DESCRIPTION.equals(name)) {
+                    slot.description = reader.nextString();
+                    mSeen |= FIELD_DESCRIPTION;
+                } else if (OWM_WEATHER_ID.equals(name)) {
+                    slot.weatherId = (int) reader.nextDouble();
+                    mSeen |= FIELD_WEATHER_ID;
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        while (reader.hasNext()) {
+            reader.skipValue();
+        }
+        reader.endArray();
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the server answers with an error status instead of a forecast, so callers that
+ * log the run can tell a server error from a failed connection.
+ */
+public class HttpStatusException extends IOException {
+
+    private final int mStatusCode;
+
+    public HttpStatusException(int statusCode, String message) {
+        super(message);
+        mStatusCode = statusCode;
+    }
+
+    public int getStatusCode() {
+        return mStatusCode;
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.net.HttpURLConnection;
+
+/**
+ * The ETag and Last-Modified validators from a forecast response, as kept in the validator
+ * table.  Sending them back lets the server answer with a 304 when the forecast hasn't changed,
+ * so we can skip the download, the parse and the database writes altogether.
+ */
+public class HttpValidators {
+    static final String HEADER_ETAG = "ETag";
+    static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    public static final HttpValidators NONE = new HttpValidators(null, null);
+
+    private static final String[] VALIDATOR_PROJECTION = new String[] {
+            WeatherContract.ValidatorEntry.COLUMN_ETAG,
+            WeatherContract.ValidatorEntry.COLUMN_LAST_MODIFIED
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_ETAG = 0;
+    private static final int INDEX_LAST_MODIFIED = 1;
+
+    private static final String sLocationSettingSelection =
+            WeatherContract.ValidatorEntry.COLUMN_LOCATION_SETTING + " = ?";
+
+    private final String mETag;
+    private final String mLastModified;
+
+    public HttpValidators(String eTag, String lastModified) {
+        mETag = eTag;
+        mLastModified = lastModified;
+    }
+
+    public String getETag() {
+        return mETag;
+    }
+
+    public String getLastModified() {
+        return mLastModified;
+    }
+
+    public boolean isEmpty() {
+        return mETag == null && mLastModified == null;
+    }
+
+    /**
+     * Turns the request into a conditional GET.  Must be called before the connection is made.
+     */
+    public void applyTo(HttpURLConnection urlConnection) {
+        if (mETag != null) {
+            urlConnection.setRequestProperty(HEADER_IF_NONE_MATCH, mETag);
+        }
+        if (mLastModified != null) {
+            urlConnection.setRequestProperty(HEADER_IF_MODIFIED_SINCE, mLastModified);
+        }
+    }
+
+    /**
+     * Reads the validators off a response.  Returns {@link #NONE} if the server sent neither.
+     */
+    public static HttpValidators fromResponse(HttpURLConnection urlConnection) {
+        String eTag = urlConnection.getHeaderField(HEADER_ETAG);
+        String lastModified = urlConnection.getHeaderField(HEADER_LAST_MODIFIED);
+        if (eTag == null && lastModified == null) {
+            return NONE;
+        }
+        return new HttpValidators(eTag, lastModified);
+    }
+
+    /**
+     * Looks up the validators stored for a location setting.
+     *
+     * @return the stored validators, or {@link #NONE} if we have never stored a forecast for it.
+     */
+    public static HttpValidators load(ContentResolver resolver, String locationSetting) {
+        Cursor cursor = resolver.query(
+                WeatherContract.ValidatorEntry.CONTENT_URI,
+                VALIDATOR_PROJECTION,
+                sLocationSettingSelection,
+                new String[]{locationSetting},
+                null);
+        if (cursor == null) {
+            return NONE;
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                return NONE;
+            }
+            return new HttpValidators(cursor.getString(INDEX_ETAG),
+                    cursor.getString(INDEX_LAST_MODIFIED));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Replaces the validators stored for a location setting with these ones.  Empty validators
+     * clear the entry, so we don't keep sending stale ones after the server stops providing them.
+     */
+    public void save(ContentResolver resolver, String locationSetting) {
+        if (isEmpty()) {
+            resolver.delete(WeatherContract.ValidatorEntry.CONTENT_URI, sLocationSettingSelection,
+                    new String[]{locationSetting});
+            return;
+        }
+        resolver.insert(WeatherContract.ValidatorEntry.CONTENT_URI, toValues(locationSetting));
+    }
+
+    /**
+     * Saves the validators the same way, as an operation to apply along with the forecast they
+     * describe.
+     */
+    public ContentProviderOperation toSaveOperation(String locationSetting) {
+        if (isEmpty()) {
+            return ContentProviderOperation.newDelete(WeatherContract.ValidatorEntry.CONTENT_URI)
+                    .withSelection(sLocationSettingSelection, new String[]{locationSetting})
+                    .build();
+        }
+        return ContentProviderOperation.newInsert(WeatherContract.ValidatorEntry.CONTENT_URI)
+                .withValues(toValues(locationSetting))
+                .build();
+    }
+
+    private ContentValues toValues(String locationSetting) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.ValidatorEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        values.put(WeatherContract.ValidatorEntry.COLUMN_ETAG, mETag);
+        values.put(WeatherContract.ValidatorEntry.COLUMN_LAST_MODIFIED, mLastModified);
+        return values;
+    }
+}
@@ -0,0 +1,205 @@
+package com.example.android.sunshine.app.sync;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Syncs several locations at once on a bounded pool of worker threads.  Network access is
+ * additionally limited per host, so syncing many locations doesn't open more than a couple of
+ * connections to the same server at a time.
+ *
+ * An engine runs a single sync.  Once {@link #cancel()} has been called it starts no new
+ * work, interrupts its workers, aborts the responses they are reading, and
+ * {@link #isCanceled()} tells tasks to stop at the next opportunity.  {@link #run} doesn't
+ * return until the workers have stopped, so nothing is still downloading or writing for a
+ * sync that has been canceled.
+ */
+class LocationSyncEngine {
+    private static final String LOG_TAG = LocationSyncEngine.class.getSimpleName();
+
+    // Number of locations processed at the same time
+    static final int MAX_WORKERS = 4;
+    // Number of requests in flight to any one host
+    static final int MAX_REQUESTS_PER_HOST = 2;
+    // How long a canceled run waits for its workers to stop before giving up on them
+    static final long CANCEL_TIMEOUT_MILLIS = 5 * 1000;
+
+    /**
+     * The work done for each location.  Implementations should wrap their network access in
+     * {@link #acquireHost(String)} and {@link #releaseHost(String)}.
+     */
+    interface LocationTask {
+        void sync(String locationSetting) throws InterruptedException;
+    }
+
+    private final int mWorkers;
+    private final int mRequestsPerHost;
+    private final Map<String, Semaphore> mHostPermits = new HashMap<String, Semaphore>();
+    private final List<Future<?>> mFutures = new ArrayList<Future<?>>();
+    private final Set<WeatherSource.Response> mResponses = new HashSet<WeatherSource.Response>();
+    private ExecutorService mExecutor;
+    private volatile boolean mCanceled;
+
+    LocationSyncEngine() {
+        this(MAX_WORKERS, MAX_REQUESTS_PER_HOST);
+    }
+
+    LocationSyncEngine(int workers, int requestsPerHost) {
+        mWorkers = workers;
+        mRequestsPerHost = requestsPerHost;
+    }
+
+    /**
+     * Runs the task for every location and waits for all of them to finish.  A failure in one
+     * location is logged and doesn't stop the others.
+     *
+     * @throws InterruptedException if the calling thread is interrupted or the engine is
+     * canceled while waiting.
+     */
+    void run(List<String> locationSettings, final LocationTask task) throws InterruptedException {
+        synchronized (this) {
+            if (mCanceled) {
+                throw new InterruptedException("Sync canceled");
+            }
+            mExecutor = Executors.newFixedThreadPool(Math.min(mWorkers, Math.max(1, locationSettings.size())));
+            for (final String locationSetting : locationSettings) {
+                mFutures.add(mExecutor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mCanceled) {
+                            return;
+                        }
+                        try {
+                            task.sync(locationSetting);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                }));
+            }
+            mExecutor.shutdown();
+        }
+
+        try {
+            for (int i = 0; i < mFutures.size(); i++) {
+                try {
+                    mFutures.get(i).get();
+                } catch (ExecutionException e) {
+                    Log.e(LOG_TAG, "Error syncing " + locationSettings.get(i), e.getCause());
+                } catch (CancellationException e) {
+                    // canceled along with the rest of the sync
+                }
+            }
+        } catch (InterruptedException e) {
+            cancel();
+            awaitWorkers();
+            throw e;
+        }
+        if (mCanceled) {
+            // A canceled future returns at once, while its worker may still be on its way out
+            awaitWorkers();
+            throw new InterruptedException("Sync canceled");
+        }
+    }
+
+    private void awaitWorkers() {
+        ExecutorService executor;
+        synchronized (this) {
+            executor = mExecutor;
+        }
+        if (executor == null) {
+            return;
+        }
+        boolean interrupted = Thread.interrupted();
+        try {
+            if (!executor.awaitTermination(CANCEL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                Log.w(LOG_TAG, "Workers still running " + CANCEL_TIMEOUT_MILLIS
+                        + "ms after the sync was canceled");
+            }
+        } catch (InterruptedException e) {
+            interrupted = true;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Stops the sync.  Locations that haven't started are skipped, running ones are
+     * interrupted, and responses being read are aborted.
+     */
+    void cancel() {
+        synchronized (this) {
+            mCanceled = true;
+            for (Future<?> future : mFutures) {
+                future.cancel(true);
+            }
+            if (mExecutor != null) {
+                mExecutor.shutdownNow();
+            }
+            for (WeatherSource.Response response : mResponses) {
+                response.abort();
+            }
+            mResponses.clear();
+        }
+    }
+
+    boolean isCanceled() {
+        return mCanceled;
+    }
+
+    /**
+     * Keeps track of a response while its body is read, so that canceling aborts it.
+     *
+     * @return false if the engine has already been canceled, in which case the response is
+     * aborted right away.
+     */
+    synchronized boolean addResponse(WeatherSource.Response response) {
+        if (mCanceled) {
+            response.abort();
+            return false;
+        }
+        mResponses.add(response);
+        return true;
+    }
+
+    synchronized void removeResponse(WeatherSource.Response response) {
+        mResponses.remove(response);
+    }
+
+    /**
+     * Blocks until a request to this host may be made.
+     */
+    void acquireHost(String host) throws InterruptedException {
+        hostPermits(host).acquire();
+    }
+
+    void releaseHost(String host) {
+        hostPermits(host).release();
+    }
+
+    private Semaphore hostPermits(String host) {
+        synchronized (mHostPermits) {
+            Semaphore permits = mHostPermits.get(host);
+            if (permits == null) {
+                permits = new Semaphore(mRequestsPerHost);
+                mHostPermits.put(host, permits);
+            }
+            return permits;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.example.android.sunshine.app.sync;
+
+import android.net.Uri;
+
+import com.example.android.sunshine.app.BuildConfig;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Fetches forecasts from OpenWeatherMap's forecast APIs over HTTP.  The base URL can be swapped
+ * out to point the same request code at a stand-in server.
+ *
+ * OpenWeatherMap's own group endpoint only serves current conditions, so group requests for
+ * daily forecasts are off unless the source is given a group size, for a server (a caching
+ * proxy, say) that answers {@link #GROUP_PATH} with daily forecasts.
+ *
+ * Response bodies are held to a byte budget as they're read.  A body that runs past it fails
+ * with a {@link ResponseTooLargeException}, so a misbehaving server or proxy can't push an
+ * arbitrary amount of data through the parser.
+ */
+public class OpenWeatherMapSource implements WeatherSource {
+    // Possible parameters are avaiable at OWM's forecast API page, at
+    // http://openweathermap.org/API#forecast
+    static final String API_BASE_URL = "http://api.openweathermap.org/data/2.5/";
+    static final String DAILY_PATH = "forecast/daily";
+    static final String HOURLY_PATH = "forecast";
+    static final String GROUP_PATH = "forecast/daily/group";
+    static final String QUERY_PARAM = "q";
+    static final String FORMAT_PARAM = "mode";
+    static final String UNITS_PARAM = "units";
+    static final String DAYS_PARAM = "cnt";
+    static final String CITY_IDS_PARAM = "id";
+    static final String APPID_PARAM = "APPID";
+
+    // Decoded bytes allowed in one response.  A 16 day forecast is under 8KB and the 3 hourly
+    // one under 20KB, so this leaves room for large groups.
+    public static final long DEFAULT_MAX_RESPONSE_BYTES = 512 * 1024;
+
+    private static final String FORMAT = "json";
+    private static final String UNITS = "metric";
+
+    private final String mBaseUrl;
+    private final String mApiKey;
+    private final SyncHttpClient mClient;
+    private final int mMaxGroupSize;
+    private final long mMaxResponseBytes;
+
+    public OpenWeatherMapSource() {
+        this(API_BASE_URL, BuildConfig.OPEN_WEATHER_MAP_API_KEY);
+    }
+
+    /**
+     * @param baseUrl the URL the forecast paths are appended to, ending in a slash
+     */
+    public OpenWeatherMapSource(String baseUrl, String apiKey) {
+        this(baseUrl, apiKey, SyncHttpClient.getInstance());
+    }
+
+    public OpenWeatherMapSource(String baseUrl, String apiKey, SyncHttpClient client) {
+        this(baseUrl, apiKey, client, 0);
+    }
+
+    /**
+     * @param maxGroupSize the most cities a group request may ask for, or 0 if the server
+     *                     doesn't serve daily forecasts in groups
+     */
+    public OpenWeatherMapSource(String baseUrl, String apiKey, SyncHttpClient client,
+                                int maxGroupSize) {
+        this(baseUrl, apiKey, client, maxGroupSize, DEFAULT_MAX_RESPONSE_BYTES);
+    }
+
+    /**
+     * @param maxResponseBytes the most a response body may decode to before reading it fails
+     */
+    public OpenWeatherMapSource(String baseUrl, String apiKey, SyncHttpClient client,
+                                int maxGroupSize, long maxResponseBytes) {
+        mBaseUrl = baseUrl;
+        mApiKey = apiKey;
+        mClient = client;
+        mMaxGroupSize = maxGroupSize;
+        mMaxResponseBytes = maxResponseBytes;
+    }
+
+    @Override
+    public String getHost() {
+        return Uri.parse(mBaseUrl).getAuthority();
+    }
+
+    @Override
+    public WeatherSource.Response fetchForecast(String locationSetting, int numDays,
+                                                HttpValidators validators) throws IOException {
+        Uri builtUri = Uri.parse(mBaseUrl).buildUpon()
+                .appendEncodedPath(DAILY_PATH)
+                .appendQueryParameter(QUERY_PARAM, locationSetting)
+                .appendQueryParameter(FORMAT_PARAM, FORMAT)
+                .appendQueryParameter(UNITS_PARAM, UNITS)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
+                .appendQueryParameter(APPID_PARAM, mApiKey)
+                .build();
+        return get(builtUri, validators);
+    }
+
+    @Override
+    public WeatherSource.Response fetchHourlyForecast(String locationSetting) throws IOException {
+        Uri builtUri = Uri.parse(mBaseUrl).buildUpon()
+                .appendEncodedPath(HOURLY_PATH)
+                .appendQueryParameter(QUERY_PARAM, locationSetting)
+                .appendQueryParameter(FORMAT_PARAM, FORMAT)
+                .appendQueryParameter(UNITS_PARAM, UNITS)
+                .appendQueryParameter(APPID_PARAM, mApiKey)
+                .build();
+        return get(builtUri, HttpValidators.NONE);
+    }
+
+    @Override
+    public int getMaxGroupSize() {
+        return mMaxGroupSize;
+    }
+
+    @Override
+    public WeatherSource.Response fetchForecastGroup(long[] cityIds, int numDays)
+            throws IOException {
+        if (cityIds.length > mMaxGroupSize) {
+            throw new IllegalArgumentException(cityIds.length + " cities in one group, the most is "
+                    + mMaxGroupSize);
+        }
+        StringBuilder ids = new StringBuilder();
+        for (int i = 0; i < cityIds.length; i++) {
+            ids.append(i == 0 ? "" : ",").append(cityIds[i]);
+        }
+        Uri builtUri = Uri.parse(mBaseUrl).buildUpon()
+                .appendEncodedPath(GROUP_PATH)
+                .appendQueryParameter(CITY_IDS_PARAM, ids.toString())
+                .appendQueryParameter(FORMAT_PARAM, FORMAT)
+                .appendQueryParameter(UNITS_PARAM, UNITS)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
+                .appendQueryParameter(APPID_PARAM, mApiKey)
+                .build();
+        return get(builtUri, HttpValidators.NONE);
+    }
+
+    private WeatherSource.Response get(Uri builtUri, HttpValidators validators) throws IOException {
+        URL url = new URL(builtUri.toString());
+        SyncHttpClient.Exchange exchange = mClient.get(url, validators);
+        int responseCode = exchange.getResponseCode();
+        if (responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR) {
+            exchange.close();
+            throw new HttpStatusException(responseCode,
+                    "Server error " + responseCode + " for " + url.getPath());
+        }
+        return new HttpResponse(exchange, mMaxResponseBytes);
+    }
+
+    private static class HttpResponse implements WeatherSource.Response {
+        private final SyncHttpClient.Exchange mExchange;
+        private final long mMaxBytes;
+        private InputStream mBody;
+
+        HttpResponse(SyncHttpClient.Exchange exchange, long maxBytes) {
+            mExchange = exchange;
+            mMaxBytes = maxBytes;
+        }
+
+        @Override
+        public boolean isNotModified() {
+            return mExchange.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED;
+        }
+
+        @Override
+        public int getStatusCode() {
+            return mExchange.getResponseCode();
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (mBody == null) {
+                mBody = new CountingInputStream(mExchange.getBody(), mMaxBytes);
+            }
+            return mBody;
+        }
+
+        @Override
+        public HttpValidators getValidators() {
+            return HttpValidators.fromResponse(mExchange.getConnection());
+        }
+
+        @Override
+        public SyncHttpClient.Timings getTimings() {
+            return mExchange.getTimings();
+        }
+
+        @Override
+        public void abort() {
+            mExchange.abort();
+        }
+
+        @Override
+        public void close() {
+            mExchange.close();
+        }
+    }
+}
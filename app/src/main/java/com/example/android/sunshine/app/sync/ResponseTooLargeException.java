@@ -0,0 +1,15 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.IOException;
+
+/**
+ * Thrown while reading a response body that has gone past the source's byte budget.  The
+ * server is up but sending something other than a forecast, so this is treated as an invalid
+ * response rather than a network failure.
+ */
+public class ResponseTooLargeException extends IOException {
+
+    public ResponseTooLargeException(long maxBytes) {
+        super("Response body larger than " + maxBytes + " bytes");
+    }
+}
@@ -7,11 +7,12 @@ import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
-import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
@@ -22,34 +23,38 @@ import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.RemoteException;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
+import android.support.annotation.VisibleForTesting;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
 import android.text.format.Time;
 import android.util.Log;
 
 import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.LocationIdCache;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
-import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
@@ -62,6 +67,9 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL/3;
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
+    private static final long NOTIFY_TIMEOUT_MILLIS = 30 * 1000;
+    // 3 hour slots that started longer ago than this are deleted after every sync
+    private static final long HOURLY_RETENTION_MILLIS = 1000 * 60 * 60 * 12;
 
 
     private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
@@ -77,6 +85,22 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     private static final int INDEX_MIN_TEMP = 2;
     private static final int INDEX_SHORT_DESC = 3;
 
+    private static final String[] FETCHED_PROJECTION = new String[] {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_FETCHED
+    };
+    private static final int INDEX_FETCHED_DATE = 0;
+    private static final int INDEX_FETCHED = 1;
+
+    // A location's days from one date up to, but not including, another
+    private static final String sLocationWindowSelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = (SELECT "
+                    + WeatherContract.LocationEntry._ID + " FROM "
+                    + WeatherContract.LocationEntry.TABLE_NAME + " WHERE "
+                    + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?) AND "
+                    + WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? AND "
+                    + WeatherContract.WeatherEntry.COLUMN_DATE + " < ?";
+
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID,  LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
     public @interface LocationStatus {}
@@ -87,278 +111,1087 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final int LOCATION_STATUS_UNKNOWN = 3;
     public static final int LOCATION_STATUS_INVALID = 4;
 
+    // Extra that makes a sync fetch every location, however recently it was synced
+    public static final String SYNC_EXTRAS_FORCE_REFRESH = "force_refresh";
+
     public static final String WATCH_DATA_HIGHTEMP = "high_temp";
     public static final String WATCH_DATA_LOWTEMP = "low_temp";
     public static final String WATCH_DATA_COND = "weather_condition";
 
+    // The engine running the current sync, so that onSyncCanceled can stop it
+    private volatile LocationSyncEngine mSyncEngine;
+    private final SyncScheduler mScheduler;
+    private final WeatherSource mWeatherSource;
+    private final HorizonPolicy mHorizonPolicy;
+    private final FreshnessGate mFreshnessGate;
+    private final LocationIdCache mLocationIdCache;
+    private final SyncRetryPolicy mRetryPolicy = new SyncRetryPolicy();
+    // Timings and counters for the current sync.  Replaced at the start of every sync, so work
+    // done outside onPerformSync (by tests, for instance) lands in a run that's never recorded.
+    private volatile SyncMetrics mMetrics = new SyncMetrics();
+
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
+        this(context, autoInitialize, new OpenWeatherMapSource());
+    }
+
+    public SunshineSyncAdapter(Context context, boolean autoInitialize, WeatherSource weatherSource) {
+        this(context, autoInitialize, weatherSource, HorizonPolicy.DEFAULT);
+    }
+
+    public SunshineSyncAdapter(Context context, boolean autoInitialize, WeatherSource weatherSource,
+                               HorizonPolicy horizonPolicy) {
+        this(context, autoInitialize, weatherSource, horizonPolicy,
+                FreshnessGate.getInstance(context));
+    }
+
+    SunshineSyncAdapter(Context context, boolean autoInitialize, WeatherSource weatherSource,
+                        HorizonPolicy horizonPolicy, FreshnessGate freshnessGate) {
         super(context, autoInitialize);
+        mScheduler = new SyncScheduler(context);
+        mWeatherSource = weatherSource;
+        mHorizonPolicy = horizonPolicy;
+        mFreshnessGate = freshnessGate;
+        mLocationIdCache = LocationIdCache.getInstance(context);
     }
 
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
-        String locationQuery = Utility.getPreferredLocation(getContext());
+        final SyncMetrics metrics = new SyncMetrics();
+        mMetrics = metrics;
+        long syncStart = SyncMetrics.startTimer();
+
+        final String preferredLocation = Utility.getPreferredLocation(getContext());
+        List<String> locations = Utility.getSyncLocations(getContext());
+
+        // A manual sync usually follows a location change, in which case the widgets, Muzei and
+        // the watch still show the old location even if this one's forecast hasn't changed.
+        boolean forceUpdate = extras.getBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, false);
+        // Locations synced within the freshness TTL are skipped unless the caller insists
+        boolean forceRefresh = extras.getBoolean(SYNC_EXTRAS_FORCE_REFRESH, false);
+
+        // Requests to sync the preferred location were merged into this sync until it started.
+        // Other saved locations are synced too, but a request for one of them means it has just
+        // become the preferred location, which this sync doesn't treat as such.
+        final SyncCoalescer coalescer = SyncCoalescer.getInstance();
+        metrics.addMergedRequests(coalescer.onSyncStarted(preferredLocation, forceRefresh));
+
+        final LocationSyncEngine engine = new LocationSyncEngine();
+        mSyncEngine = engine;
+        // Everything the sync writes once it has the forecasts, applied together at the end
+        SyncWriteSet writes = new SyncWriteSet();
+        Map<String, Integer> results;
+        try {
+            results = syncLocations(engine, locations, preferredLocation, forceRefresh, writes);
+        } catch (InterruptedException e) {
+            Log.d(LOG_TAG, "Sync canceled");
+            recordMetrics(metrics, syncStart);
+            return;
+        } finally {
+            mSyncEngine = null;
+        }
 
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
+        boolean anyStored = false;
+        for (int stored : results.values()) {
+            anyStored |= stored >= 0;
+        }
+        int deleteWeather = -1;
+        int deleteHourly = -1;
+        if (anyStored) {
+            // delete old data so we don't build up an endless history
+            deleteWeather = writes.add(deleteOldWeather());
+            deleteHourly = writes.add(deleteOldHourly());
+        }
+
+        int deleted = 0;
+        if (storeWrites(writes, results, preferredLocation)) {
+            if (anyStored) {
+                deleted = writes.getCount(deleteWeather);
+                metrics.addRowsDeleted(deleted + writes.getCount(deleteHourly));
+            }
+        } else if (!Thread.currentThread().isInterrupted()) {
+            // Not canceled, so the database turned the batch down
+            syncResult.databaseError = true;
+        }
+        Integer preferredWritten = results.get(preferredLocation);
+
+        int written = preferredWritten != null ? preferredWritten : -1;
+        List<ConsumerFanOut.Consumer> consumers = new ArrayList<ConsumerFanOut.Consumer>();
+        if (written >= 0) {
+            // Downloads the large icon, so it gets longer than the others
+            consumers.add(new ConsumerFanOut.Consumer("notification", SyncMetrics.STAGE_NOTIFY,
+                    NOTIFY_TIMEOUT_MILLIS) {
+                @Override
+                void update() {
+                    notifyWeather();
+                }
+            });
+        }
+        // Only wake up the widgets, Muzei and the watch if what they show has changed
+        if ((written >= 0 && (forceUpdate || written > 0)) || deleted > 0) {
+            addConsumers(consumers);
+        }
+        // The sync doesn't wait for these, they record their own latency when they finish
+        ConsumerFanOut.getInstance().dispatch(consumers, metrics);
+
+        // Failed fetches make the sync manager retry, after our backoff
+        mRetryPolicy.onSyncFinished(syncResult, metrics.getFailedFetches());
+        if (syncResult.delayUntil > 0) {
+            Log.d(LOG_TAG, metrics.getFailedFetches() + " fetches failed, retrying in "
+                    + (syncResult.delayUntil - System.currentTimeMillis() / 1000) + "s, "
+                    + mRetryPolicy.getBreaker());
+        }
 
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
+        // Stable forecasts are fetched less often, changing ones more often
+        mScheduler.reschedule(hasForecastForToday(preferredLocation));
+        Log.d(LOG_TAG, "Sync Complete. " + locations.size() + " Locations, " + deleted + " Deleted, "
+                + coalescer + ", " + mFreshnessGate + ", " + mLocationIdCache);
+        recordMetrics(metrics, syncStart);
+    }
 
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
+    /**
+     * Finishes off a run's metrics, adds them to the ones served by the provider and writes
+     * them to the sync log.  The consumers are still running at this point and fill in their
+     * stages as they finish, so the log doesn't have their times.
+     */
+    private void recordMetrics(SyncMetrics metrics, long syncStart) {
+        metrics.stopTimer(SyncMetrics.STAGE_TOTAL, syncStart);
+        SyncMetrics.record(metrics);
+        getContext().getContentResolver().notifyChange(
+                WeatherContract.SyncMetricsEntry.CONTENT_URI, null);
+        Log.d(LOG_TAG, "Sync metrics: " + metrics);
 
         try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
-                    .appendQueryParameter(QUERY_PARAM, locationQuery)
-                    .appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
-
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
+            getContext().getContentResolver().insert(WeatherContract.SyncLogEntry.CONTENT_URI,
+                    metrics.toSyncLogValues(Utility.getLocationStatus(getContext())));
+        } catch (android.database.SQLException e) {
+            // Losing a log row isn't worth failing the sync for
+            Log.e(LOG_TAG, "Error writing the sync log", e);
+        }
+    }
+
+    @Override
+    public void onSyncCanceled() {
+        LocationSyncEngine engine = mSyncEngine;
+        if (engine != null) {
+            engine.cancel();
+        }
+        super.onSyncCanceled();
+    }
+
+    /**
+     * Syncs every location that isn't fresh, and stores what they fetched in one batch, as a
+     * full sync does, less the deletes of the old days.
+     *
+     * @return what each location wrote, as {@link #syncLocation} returns it, except that
+     * locations stored in a group report the rows written for the whole group, and fresh
+     * locations report 0, as if they hadn't been modified.
+     */
+    @VisibleForTesting
+    Map<String, Integer> syncLocations(LocationSyncEngine engine, List<String> locations,
+                                       String preferredLocation, boolean forceRefresh)
+            throws InterruptedException {
+        SyncWriteSet writes = new SyncWriteSet();
+        Map<String, Integer> results = syncLocations(engine, locations, preferredLocation,
+                forceRefresh, writes);
+        storeWrites(writes, results, preferredLocation);
+        return results;
+    }
+
+    /**
+     * Syncs every location that isn't fresh on the engine.  If the source takes group requests,
+     * the daily forecasts of the saved locations it can are fetched in groups first, and the
+     * workers then only fetch those locations' 3 hourly forecasts.
+     *
+     * @param forceRefresh sync the locations the freshness gate would skip as well
+     * @param writes collects the daily forecasts and validators to store, which the results
+     *               only count once {@link #storeWrites} has applied them
+     * @return for each location, 0 if its forecast was added to the writes, wasn't modified or
+     * is fresh, or -1 if nothing could be stored.
+     */
+    private Map<String, Integer> syncLocations(final LocationSyncEngine engine,
+                                               List<String> locations,
+                                               final String preferredLocation,
+                                               boolean forceRefresh, final SyncWriteSet writes)
+            throws InterruptedException {
+        // Filled in by the workers and read once they have all finished
+        final Map<String, Integer> results = new ConcurrentHashMap<String, Integer>();
+        List<String> stale = new ArrayList<String>();
+        for (String locationSetting : locations) {
+            boolean sync = mFreshnessGate.shouldSync(locationSetting, forceRefresh);
+            mMetrics.addFreshnessDecision(forceRefresh, sync);
+            if (sync) {
+                stale.add(locationSetting);
+            } else {
+                // What's stored is current, as when the horizon says the forecast is fresh
+                results.put(locationSetting, 0);
+                setLocationStatus(locationSetting.equals(preferredLocation), LOCATION_STATUS_OK);
+            }
+        }
+        final Map<String, Integer> grouped = syncGroups(engine, stale, preferredLocation,
+                writes);
+        engine.run(stale, new LocationSyncEngine.LocationTask() {
+            @Override
+            public void sync(final String locationSetting) throws InterruptedException {
+                Integer written = grouped.get(locationSetting);
+                if (written != null) {
+                    mMetrics.addLocation();
+                    syncHourlyIfStored(engine, locationSetting, written, writes);
+                } else {
+                    written = syncLocation(engine, locationSetting,
+                            locationSetting.equals(preferredLocation), writes);
+                }
+                if (written >= 0) {
+                    writes.addSynced(locationSetting);
+                }
+                results.put(locationSetting, written);
+            }
+        });
+        return results;
+    }
+
+    /**
+     * Fetches, parses and stores the daily and 3 hourly forecasts for one location.  Only the
+     * preferred location reports its outcome through the location status.
+     *
+     * @return the number of weather rows written, which is 0 if the forecast was not modified,
+     * or -1 if nothing could be stored.
+     */
+    @VisibleForTesting
+    int syncLocation(LocationSyncEngine engine, String locationQuery, boolean preferred)
+            throws InterruptedException {
+        SyncWriteSet writes = new SyncWriteSet();
+        Map<String, Integer> results = new HashMap<String, Integer>();
+        results.put(locationQuery, syncLocation(engine, locationQuery, preferred, writes));
+        if (results.get(locationQuery) >= 0) {
+            writes.addSynced(locationQuery);
+        }
+        storeWrites(writes, results, preferred ? locationQuery : null);
+        return results.get(locationQuery);
+    }
+
+    /**
+     * Fetches and parses the daily and 3 hourly forecasts for one location and adds them to the
+     * writes.
+     *
+     * @return 0 if the daily forecast was added to the writes or not modified, or -1 if it
+     * couldn't be fetched.
+     */
+    private int syncLocation(LocationSyncEngine engine, String locationQuery, boolean preferred,
+                             SyncWriteSet writes) throws InterruptedException {
+        mMetrics.addLocation();
+
+        int written = syncDailyForecast(engine, locationQuery, preferred, writes);
+        syncHourlyIfStored(engine, locationQuery, written, writes);
+        return written;
+    }
+
+    private void syncHourlyIfStored(LocationSyncEngine engine, String locationQuery,
+                                    int dailyWritten, SyncWriteSet writes)
+            throws InterruptedException {
+        if (dailyWritten >= 0 && !engine.isCanceled()) {
+            // The 3 hour slots only add detail to the daily forecast, so they're fetched even
+            // when the daily one wasn't modified, and a failure doesn't touch the location status.
+            // They point at the location's row, which is either stored already or was added to
+            // the writes along with the daily forecast.
+            if (!writes.hasLocation(locationQuery)) {
+                long locationId = getLocationId(locationQuery);
+                if (locationId == -1) {
+                    return;
+                }
+                writes.addLocationId(locationQuery, locationId);
+            }
+            syncHourlyForecast(engine, locationQuery, writes);
+        }
+    }
+
+    /**
+     * Fetches and stores the daily forecasts of saved locations in groups, if the source takes
+     * group requests.  Only locations whose city ID we already know can be grouped.  The
+     * preferred location is always left to be fetched on its own, since it reports its status
+     * and can be answered with a 304.
+     *
+     * @return the rows written for each location that was dealt with, or -1 for locations whose
+     * group couldn't be fetched.  Locations left out are to be synced one by one.
+     */
+    private Map<String, Integer> syncGroups(LocationSyncEngine engine, List<String> locations,
+                                            String preferredLocation, SyncWriteSet writes)
+            throws InterruptedException {
+        Map<String, Integer> results = new HashMap<String, Integer>();
+        int maxGroupSize = mWeatherSource.getMaxGroupSize();
+        if (maxGroupSize < 2) {
+            return results;
+        }
+
+        Map<String, Long> cityIds = getCityIds();
+        long now = System.currentTimeMillis();
+        List<String> members = new ArrayList<String>();
+        int numDays = 0;
+        for (String locationSetting : locations) {
+            if (locationSetting.equals(preferredLocation) || !cityIds.containsKey(locationSetting)) {
+                continue;
+            }
+            int days = mHorizonPolicy.getDaysToFetch(getFetchTimes(locationSetting), now);
+            if (days == 0) {
+                results.put(locationSetting, 0);
+            } else {
+                // Every city in a group gets the same number of days
+                members.add(locationSetting);
+                numDays = Math.max(numDays, days);
+            }
+        }
+        // A group of one is no cheaper than fetching that location on its own
+        if (members.size() < 2) {
+            return results;
+        }
+
+        for (int start = 0; start < members.size() && !engine.isCanceled(); start += maxGroupSize) {
+            List<String> group = members.subList(start,
+                    Math.min(members.size(), start + maxGroupSize));
+            syncGroup(engine, group, cityIds, numDays, now, results, writes);
+        }
+        return results;
+    }
+
+    /**
+     * Fetches one group's daily forecasts and stores them.  If the server answers with something
+     * other than a group of forecasts, the locations are left to be synced one by one.
+     */
+    private void syncGroup(LocationSyncEngine engine, List<String> group,
+                           Map<String, Long> cityIds, int numDays, long now,
+                           Map<String, Integer> results, SyncWriteSet writes)
+            throws InterruptedException {
+        SyncMetrics metrics = mMetrics;
+        long[] ids = new long[group.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = cityIds.get(group.get(i));
+        }
+
+        WeatherSource.Response response = null;
+        String host = mWeatherSource.getHost();
+        boolean hostAcquired = false;
+        GroupRows rows;
+        try {
+            engine.acquireHost(host);
+            hostAcquired = true;
+            if (engine.isCanceled()) {
+                return;
+            }
+            if (!mRetryPolicy.allowFetch()) {
+                Log.d(LOG_TAG, "Not fetching a group of " + group.size() + ", backing off from "
+                        + host);
+                metrics.addFailedFetch();
+                putAll(results, group, -1);
                 return;
             }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
 
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
+            long fetchStart = SyncMetrics.startTimer();
+            response = mWeatherSource.fetchForecastGroup(ids, numDays);
+            metrics.stopTimer(SyncMetrics.STAGE_FETCH, fetchStart);
+            if (!engine.addResponse(response)) {
+                return;
             }
 
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+            long parseStart = SyncMetrics.startTimer();
+            CountingInputStream body = new CountingInputStream(response.getBody());
+            rows = new GroupRows();
+            int messageCode;
+            try {
+                messageCode = new ForecastParser().parseGroup(body, rows);
+            } finally {
+                metrics.stopTimer(SyncMetrics.STAGE_PARSE, parseStart);
+                metrics.addBytes(body.getCount());
+            }
+            mRetryPolicy.onFetchSucceeded();
+            metrics.addRowsParsed(rows.parsed);
+            if (messageCode != HttpURLConnection.HTTP_OK) {
+                Log.w(LOG_TAG, "Group of " + group.size() + " failed with " + messageCode);
                 return;
             }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
+        } catch (ResponseTooLargeException e) {
+            // Drop the connection rather than drain the rest, and try the locations one by one
+            response.abort();
+            Log.e(LOG_TAG, "Group of " + group.size() + ": " + e.getMessage());
+            return;
         } catch (IOException e) {
+            if (engine.isCanceled()) {
+                // Aborted by the cancel, which says nothing about the server
+                return;
+            }
+            recordHttpStatus(metrics, e);
+            Log.e(LOG_TAG, "Error fetching a group of " + group.size(), e);
+            mRetryPolicy.onFetchFailed();
+            metrics.addFailedFetch();
+            putAll(results, group, -1);
+            return;
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            return;
+        } finally {
+            if (response != null) {
+                engine.removeResponse(response);
+                response.close();
+                recordRequest(metrics, response);
+            }
+            if (hostAcquired) {
+                engine.releaseHost(host);
+            }
+        }
+
+        if (!engine.isCanceled()) {
+            storeGroup(group, cityIds, rows, now, metrics, results, writes);
+        }
+    }
+
+    /**
+     * Splits a group's forecasts out to the locations that asked for them, and adds them all to
+     * the writes together, so the group reports the rows written for all of them.  Locations
+     * whose city is missing from the group are left to be synced on their own.
+     */
+    private void storeGroup(List<String> group, Map<String, Long> cityIds, GroupRows rows,
+                            long fetched, SyncMetrics metrics, Map<String, Integer> results,
+                            SyncWriteSet writes) {
+        List<ContentValues[]> values = new ArrayList<ContentValues[]>(group.size());
+        List<String> stored = new ArrayList<String>(group.size());
+
+        long addLocationStart = SyncMetrics.startTimer();
+        for (String locationSetting : group) {
+            ForecastRows forecast = rows.byCityId.get(cityIds.get(locationSetting));
+            if (forecast == null) {
+                continue;
+            }
+            addLocation(writes, locationSetting, forecast.cityName, forecast.cityLatitude,
+                    forecast.cityLongitude, forecast.cityId);
+            // Two location settings can resolve to the same city, which is fine since each
+            // location's rows get their own location key in the writes
+            for (ContentValues weatherValues : forecast.values) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_FETCHED, fetched);
+            }
+            values.add(forecast.values.toArray(new ContentValues[forecast.values.size()]));
+            stored.add(locationSetting);
+        }
+        metrics.stopTimer(SyncMetrics.STAGE_ADD_LOCATION, addLocationStart);
+
+        if (!stored.isEmpty()) {
+            writes.addWeather(stored, values);
+        }
+        putAll(results, stored, 0);
+    }
+
+    private static void putAll(Map<String, Integer> results, List<String> locations, int value) {
+        for (String locationSetting : locations) {
+            results.put(locationSetting, value);
+        }
+    }
+
+    /**
+     * Fetches and parses the daily forecast for one location, and adds it and its validators to
+     * the writes.
+     *
+     * @return 0 if the forecast was added to the writes or not modified, or -1 if nothing could
+     * be stored.
+     */
+    private int syncDailyForecast(LocationSyncEngine engine, String locationQuery,
+                                  boolean preferred, SyncWriteSet writes)
+            throws InterruptedException {
+        SyncMetrics metrics = mMetrics;
+
+        // Declared outside the try/catch so that it can be closed in the finally block.
+        WeatherSource.Response response = null;
+        String host = mWeatherSource.getHost();
+        boolean hostAcquired = false;
+
+        // Only ask for as much of the window as has gone stale
+        long now = System.currentTimeMillis();
+        int numDays = mHorizonPolicy.getDaysToFetch(getFetchTimes(locationQuery), now);
+        if (numDays == 0) {
+            Log.d(LOG_TAG, "Forecast for " + locationQuery + " is fresh");
+            setLocationStatus(preferred, LOCATION_STATUS_OK);
+            return 0;
+        }
+
+        ForecastRows rows;
+        HttpValidators responseValidators;
+        try {
+            // Only ask for a conditional GET if we still hold today's forecast for this
+            // location, otherwise a 304 would leave us with nothing to show.
+            HttpValidators validators = hasForecastForToday(locationQuery)
+                    ? HttpValidators.load(getContext().getContentResolver(), locationQuery)
+                    : HttpValidators.NONE;
+
+            engine.acquireHost(host);
+            hostAcquired = true;
+            if (engine.isCanceled()) {
+                return -1;
+            }
+            // Checked only once we hold the host, so requests queued behind a failing one see
+            // the breaker open and don't go out
+            if (!mRetryPolicy.allowFetch()) {
+                Log.d(LOG_TAG, "Not fetching " + locationQuery + ", backing off from " + host);
+                metrics.addFailedFetch();
+                setLocationStatus(preferred, LOCATION_STATUS_SERVER_DOWN);
+                return -1;
+            }
+
+            long fetchStart = SyncMetrics.startTimer();
+            response = mWeatherSource.fetchForecast(locationQuery, numDays, validators);
+            metrics.stopTimer(SyncMetrics.STAGE_FETCH, fetchStart);
+            // Canceling the sync aborts the download from here on
+            if (!engine.addResponse(response)) {
+                return -1;
+            }
+            if (response.isNotModified()) {
+                // The forecast we already have is current.  Nothing to parse or write.
+                mRetryPolicy.onFetchSucceeded();
+                writes.add(markFetched(locationQuery, numDays, now));
+                Log.d(LOG_TAG, "Forecast for " + locationQuery + " not modified");
+                if (preferred) {
+                    writes.setForecastChanges(0, 0);
+                }
+                return 0;
+            }
+
+            // Parse straight off the input stream rather than reading it into a String first.
+            // An empty stream surfaces as an EOFException from the parser.
+            long parseStart = SyncMetrics.startTimer();
+            CountingInputStream body = new CountingInputStream(response.getBody());
+            try {
+                rows = getWeatherDataFromJson(body, preferred);
+            } finally {
+                metrics.stopTimer(SyncMetrics.STAGE_PARSE, parseStart);
+                metrics.addBytes(body.getCount());
+            }
+            mRetryPolicy.onFetchSucceeded();
+            if (rows != null) {
+                metrics.addRowsParsed(rows.values.size());
+            }
+            responseValidators = response.getValidators();
+        } catch (ResponseTooLargeException e) {
+            // The server is up but isn't sending a forecast.  Drop the connection rather than
+            // drain the rest of the body, and throw away the days parsed so far.
+            response.abort();
+            Log.e(LOG_TAG, "Forecast for " + locationQuery + ": " + e.getMessage());
+            setLocationStatus(preferred, LOCATION_STATUS_SERVER_INVALID);
+            return -1;
+        } catch (IOException e) {
+            if (engine.isCanceled()) {
+                // Aborted by the cancel, which says nothing about the server
+                Log.d(LOG_TAG, "Fetch of " + locationQuery + " canceled");
+                return -1;
+            }
+            recordHttpStatus(metrics, e);
             Log.e(LOG_TAG, "Error ", e);
+            mRetryPolicy.onFetchFailed();
+            metrics.addFailedFetch();
             // If the code didn't successfully get the weather data, there's no point in attempting
             // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+            setLocationStatus(preferred, LOCATION_STATUS_SERVER_DOWN);
+            return -1;
         } catch (JSONException e) {
             Log.e(LOG_TAG, e.getMessage(), e);
             e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            setLocationStatus(preferred, LOCATION_STATUS_SERVER_INVALID);
+            return -1;
         } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
-                }
+            if (response != null) {
+                engine.removeResponse(response);
+                response.close();
+                recordRequest(metrics, response);
+            }
+            if (hostAcquired) {
+                engine.releaseHost(host);
+            }
+        }
+
+        if (rows == null || engine.isCanceled()) {
+            return -1;
+        }
+        if (preferred) {
+            // Compared with what's stored before it's replaced
+            writes.setForecastChanges(rows.values.size(), ForecastChanges.count(
+                    getContext().getContentResolver(), locationQuery, rows.values));
+        }
+        storeWeatherData(locationQuery, rows, now, metrics, writes);
+
+        // The validators are stored along with the forecast they describe, or not at all.  The
+        // location status is only OK once they are.
+        writes.add(responseValidators.toSaveOperation(locationQuery));
+        return 0;
+    }
+
+    /**
+     * Fetches the 3 hourly forecast for a location and adds its slots to the writes.  Slots
+     * already stored for the same times are replaced.
+     *
+     * @return the number of slots added, or -1 if the forecast couldn't be fetched or parsed, in
+     * which case none are.
+     */
+    private int syncHourlyForecast(LocationSyncEngine engine, String locationQuery,
+                                   SyncWriteSet writes) throws InterruptedException {
+        SyncMetrics metrics = mMetrics;
+        WeatherSource.Response response = null;
+        String host = mWeatherSource.getHost();
+        boolean hostAcquired = false;
+
+        HourlyRows rows = new HourlyRows();
+        try {
+            engine.acquireHost(host);
+            hostAcquired = true;
+            if (engine.isCanceled() || !mRetryPolicy.allowFetch()) {
+                return -1;
+            }
+
+            long fetchStart = SyncMetrics.startTimer();
+            response = mWeatherSource.fetchHourlyForecast(locationQuery);
+            metrics.stopTimer(SyncMetrics.STAGE_FETCH, fetchStart);
+            if (!engine.addResponse(response)) {
+                return -1;
+            }
+
+            long parseStart = SyncMetrics.startTimer();
+            CountingInputStream body = new CountingInputStream(response.getBody());
+            int messageCode;
+            try {
+                messageCode = new HourlyForecastParser().parse(body, rows);
+            } finally {
+                metrics.stopTimer(SyncMetrics.STAGE_PARSE, parseStart);
+                metrics.addBytes(body.getCount());
+                metrics.addRowsParsed(rows.values.size());
+            }
+            mRetryPolicy.onFetchSucceeded();
+            if (messageCode != HttpURLConnection.HTTP_OK) {
+                Log.w(LOG_TAG, "Hourly forecast for " + locationQuery + " failed with "
+                        + messageCode);
+                return -1;
+            }
+        } catch (ResponseTooLargeException e) {
+            response.abort();
+            Log.e(LOG_TAG, "Hourly forecast for " + locationQuery + ": " + e.getMessage());
+            return -1;
+        } catch (IOException e) {
+            if (engine.isCanceled()) {
+                return -1;
+            }
+            recordHttpStatus(metrics, e);
+            // Counts against the breaker, but the sync isn't retried for it since the daily
+            // forecast was stored
+            Log.e(LOG_TAG, "Error fetching the hourly forecast for " + locationQuery, e);
+            mRetryPolicy.onFetchFailed();
+            return -1;
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, "Error parsing the hourly forecast for " + locationQuery, e);
+            return -1;
+        } finally {
+            if (response != null) {
+                engine.removeResponse(response);
+                response.close();
+                recordRequest(metrics, response);
+            }
+            if (hostAcquired) {
+                engine.releaseHost(host);
             }
         }
-        return;
+
+        if (engine.isCanceled()) {
+            return -1;
+        }
+        writes.addSlots(locationQuery, rows.values);
+        return rows.values.size();
+    }
+
+    SyncMetrics getCurrentMetrics() {
+        return mMetrics;
+    }
+
+    private static void recordRequest(SyncMetrics metrics, WeatherSource.Response response) {
+        SyncHttpClient.Timings timings = response.getTimings();
+        if (timings != null) {
+            metrics.addRequest(timings);
+        }
+        metrics.addHttpStatus(response.getStatusCode());
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
+     * Server errors fail the fetch before there's a response to record, so their status comes
+     * from the exception.
+     */
+    private static void recordHttpStatus(SyncMetrics metrics, IOException e) {
+        if (e instanceof HttpStatusException) {
+            metrics.addHttpStatus(((HttpStatusException) e).getStatusCode());
+        }
+    }
+
+    /**
+     * Read the forecast in JSON Format off the stream and pull out the data we need to
+     * populate the database.
+     *
+     * The document is parsed one field at a time by {@link ForecastParser}, so only the rows
+     * we're going to insert are ever held in memory.
      *
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * @param preferred whether to report a server error through the location status
+     * @return the parsed rows, or null if the server reported an error.
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
+    private ForecastRows getWeatherDataFromJson(InputStream forecastJson, boolean preferred)
+            throws JSONException, IOException {
 
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
+        // OWM returns daily forecasts based upon the local time of the city that is being
+        // asked for, which means that we need to know the GMT offset to translate this data
+        // properly.
 
-        // These are the names of the JSON objects that need to be extracted.
+        // Since this data is also sent in-order and the first day is always the
+        // current day, we're going to take advantage of that to get a nice
+        // normalized UTC date for all of our weather.
 
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
+        Time dayTime = new Time();
+        dayTime.setToNow();
 
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
+        // we start at the day returned by local time. Otherwise this is a mess.
+        int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
 
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
+        // now we work exclusively in UTC
+        dayTime = new Time();
 
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
+        ForecastRows rows = new ForecastRows(dayTime, julianStartDay);
+        int messageCode = new ForecastParser().parse(forecastJson, rows);
+
+        // do we have an error?
+        switch (messageCode) {
+            case HttpURLConnection.HTTP_OK:
+                break;
+            case HttpURLConnection.HTTP_NOT_FOUND:
+                setLocationStatus(preferred, LOCATION_STATUS_INVALID);
+                return null;
+            default:
+                setLocationStatus(preferred, LOCATION_STATUS_SERVER_DOWN);
+                return null;
+        }
 
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
+        if (rows.cityName == null) {
+            throw new JSONException("Forecast has no " + ForecastParser.OWM_CITY);
+        }
+        return rows;
+    }
 
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
+    /**
+     * Adds the location and its forecast to the writes.
+     */
+    private void storeWeatherData(String locationSetting, ForecastRows rows, long fetched,
+                                  SyncMetrics metrics, SyncWriteSet writes) {
+        long addLocationStart = SyncMetrics.startTimer();
+        addLocation(writes, locationSetting, rows.cityName, rows.cityLatitude,
+                rows.cityLongitude, rows.cityId);
+        metrics.stopTimer(SyncMetrics.STAGE_ADD_LOCATION, addLocationStart);
+
+        Vector<ContentValues> cVVector = rows.values;
+        for (ContentValues weatherValues : cVVector) {
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_FETCHED, fetched);
+        }
 
-        final String OWM_MESSAGE_CODE = "cod";
+        // add to the writes.  The provider only writes the days that are new or have changed,
+        // and tells us how many that was once they're applied.
+        if ( cVVector.size() > 0 ) {
+            ContentValues[] cvArray = new ContentValues[cVVector.size()];
+            cVVector.toArray(cvArray);
+            writes.addWeather(Collections.singletonList(locationSetting),
+                    Collections.singletonList(cvArray));
+        }
+    }
 
-        try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
+    /**
+     * Applies everything a sync collected as one batch, so that it all commits or none of it
+     * does, and observers hear about each table once.  The locations stored then report the
+     * rows they actually wrote, and the locations synced are only marked fresh, and the
+     * preferred one's status only set to OK, once their forecasts are stored.
+     *
+     * @return whether the writes were applied.  If not, the locations synced report -1.
+     */
+    private boolean storeWrites(SyncWriteSet writes, Map<String, Integer> results,
+                                String preferredLocation) {
+        SyncMetrics metrics = mMetrics;
+        Map<String, Integer> written = Collections.emptyMap();
+        if (writes.size() > 0) {
+            long insertStart = SyncMetrics.startTimer();
+            try {
+                written = writes.apply(getContext().getContentResolver());
+            } catch (RemoteException | OperationApplicationException
+                    | android.database.SQLException e) {
+                // Canceling the sync interrupts the provider, which rolls the batch back too
+                Log.e(LOG_TAG, "Error storing " + writes.size() + " writes", e);
+                List<String> synced = writes.getSynced();
+                for (String locationSetting : synced) {
+                    results.put(locationSetting, -1);
+                }
+                // The forecast came through but couldn't be used, which is all the location
+                // status can say about it.  A canceled sync says nothing about the forecast.
+                if (!Thread.currentThread().isInterrupted()) {
+                    setLocationStatus(synced.contains(preferredLocation),
+                            LOCATION_STATUS_SERVER_INVALID);
+                }
+                return false;
+            } finally {
+                metrics.stopTimer(SyncMetrics.STAGE_INSERT, insertStart);
+            }
+        }
 
-            // do we have an error?
-            if ( forecastJson.has(OWM_MESSAGE_CODE) ) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
+        int total = 0;
+        for (Map.Entry<String, Integer> entry : written.entrySet()) {
+            results.put(entry.getKey(), entry.getValue());
+            total += entry.getValue();
+        }
+        metrics.addRowsWritten(total + writes.getSlotsWritten());
+        metrics.addRowsInsertedAndUpdated(writes.getRowsInserted(), writes.getRowsUpdated());
+        List<String> synced = writes.getSynced();
+        for (String locationSetting : synced) {
+            mFreshnessGate.onSynced(locationSetting);
+        }
+        setLocationStatus(synced.contains(preferredLocation), LOCATION_STATUS_OK);
+        if (writes.getDaysFetched() >= 0) {
+            mScheduler.recordFetch(writes.getDaysFetched(), writes.getDaysChanged());
+        }
+        Log.d(LOG_TAG, "Stored " + writes.size() + " writes for " + written.size()
+                + " locations. " + total + " Written");
+        return true;
+    }
 
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
+    /**
+     * @return when each day of the window, starting today, was last fetched for a location, or
+     * 0 for days we don't hold.
+     */
+    private long[] getFetchTimes(String locationSetting) {
+        int numDays = mHorizonPolicy.getNumDays();
+        long[] fetched = new long[numDays];
+        long[] dates = getWindowDates(numDays);
+
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(locationSetting, dates[0]),
+                FETCHED_PROJECTION, null, null, null);
+        if (cursor == null) {
+            return fetched;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                if (cursor.isNull(INDEX_FETCHED)) {
+                    continue;
+                }
+                long date = cursor.getLong(INDEX_FETCHED_DATE);
+                for (int day = 0; day < numDays; day++) {
+                    if (dates[day] == date) {
+                        fetched[day] = cursor.getLong(INDEX_FETCHED);
                         break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
+                    }
                 }
             }
+        } finally {
+            cursor.close();
+        }
+        return fetched;
+    }
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+    /**
+     * Brings the fetch time of the first days of a location's window up to date, after the
+     * server told us they haven't changed.
+     */
+    private static ContentProviderOperation markFetched(String locationSetting, int numDays,
+                                                        long fetched) {
+        long[] dates = getWindowDates(numDays + 1);
+        return ContentProviderOperation.newUpdate(WeatherContract.WeatherEntry.CONTENT_URI)
+                .withValue(WeatherContract.WeatherEntry.COLUMN_FETCHED, fetched)
+                .withSelection(sLocationWindowSelection, new String[]{locationSetting,
+                        Long.toString(dates[0]), Long.toString(dates[numDays])})
+                .build();
+    }
 
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
+    /**
+     * @return the dates of the days starting today, as they're stored in the weather table.
+     */
+    private static long[] getWindowDates(int numDays) {
+        Time dayTime = new Time();
+        dayTime.setToNow();
+        int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+        dayTime = new Time();
+
+        long[] dates = new long[numDays];
+        for (int day = 0; day < numDays; day++) {
+            dates[day] = WeatherContract.normalizeDate(dayTime.setJulianDay(julianStartDay + day));
+        }
+        return dates;
+    }
+
+    /**
+     * Deletes the forecast for days before today, for every location.
+     */
+    private static ContentProviderOperation deleteOldWeather() {
+        Time dayTime = new Time();
+        dayTime.setToNow();
+        int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+        dayTime = new Time();
+
+        return ContentProviderOperation.newDelete(WeatherContract.WeatherEntry.CONTENT_URI)
+                .withSelection(WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))})
+                .build();
+    }
+
+    /**
+     * Deletes the 3 hour slots that are past the retention window, for every location.
+     */
+    private static ContentProviderOperation deleteOldHourly() {
+        return ContentProviderOperation.newDelete(WeatherContract.HourlyEntry.CONTENT_URI)
+                .withSelection(WeatherContract.HourlyEntry.COLUMN_DATE_TIME + " < ?",
+                        new String[] {Long.toString(
+                                System.currentTimeMillis() - HOURLY_RETENTION_MILLIS)})
+                .build();
+    }
+
+    /**
+     * Adds everything that displays the forecast outside of the app to the consumers to refresh.
+     */
+    private void addConsumers(List<ConsumerFanOut.Consumer> consumers) {
+        consumers.add(new ConsumerFanOut.Consumer("widgets", SyncMetrics.STAGE_WIDGETS,
+                ConsumerFanOut.DEFAULT_TIMEOUT_MILLIS) {
+            @Override
+            void update() {
+                updateWidgets();
+            }
+        });
+        consumers.add(new ConsumerFanOut.Consumer("Muzei", SyncMetrics.STAGE_MUZEI,
+                ConsumerFanOut.DEFAULT_TIMEOUT_MILLIS) {
+            @Override
+            void update() {
+                updateMuzei();
+            }
+        });
+        // Only covers handing the data to Play Services, the watch itself is updated later
+        consumers.add(new ConsumerFanOut.Consumer("watch", SyncMetrics.STAGE_WATCH,
+                ConsumerFanOut.DEFAULT_TIMEOUT_MILLIS) {
+            @Override
+            void update() {
+                Utility.sendDataToWatch(getContext(), false);
+            }
+        });
+    }
 
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
+    /**
+     * Checks whether today's forecast for a location is still in the database.
+     */
+    private boolean hasForecastForToday(String locationSetting) {
+        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                locationSetting, System.currentTimeMillis());
+        Cursor cursor = getContext().getContentResolver().query(weatherUri,
+                new String[]{WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID},
+                null, null, null);
+        if (cursor == null) {
+            return false;
+        }
+        boolean hasForecast = cursor.moveToFirst();
+        cursor.close();
+        return hasForecast;
+    }
 
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
+    /**
+     * Collects the rows emitted by {@link ForecastParser} as weather table values.  The
+     * location key is filled in once the city has been resolved to a row.
+     */
+    private static class ForecastRows implements ForecastParser.Callback {
+        final Vector<ContentValues> values = new Vector<ContentValues>(16);
+        private final Time mDayTime;
+        private final int mJulianStartDay;
+
+        long cityId;
+        String cityName;
+        double cityLatitude;
+        double cityLongitude;
+
+        ForecastRows(Time dayTime, int julianStartDay) {
+            mDayTime = dayTime;
+            mJulianStartDay = julianStartDay;
+        }
 
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
+        @Override
+        public void onCity(long id, String name, double lat, double lon) {
+            cityId = id;
+            cityName = name;
+            cityLatitude = lat;
+            cityLongitude = lon;
+        }
 
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
+        @Override
+        public void onDay(ForecastParser.Day day) {
+            ContentValues weatherValues = new ContentValues();
+
+            // Cheating to convert this to UTC time, which is what we want anyhow
+            long dateTime = mDayTime.setJulianDay(mJulianStartDay + day.index);
+
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, day.humidity);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, day.pressure);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, day.windSpeed);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, day.windDirection);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, day.high);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, day.low);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, day.description);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, day.weatherId);
+
+            values.add(weatherValues);
+        }
+    }
+
+    /**
+     * Collects each city's forecast from a group response, by city ID.  Cities the server
+     * reported an error for, or sent without a name, are dropped.
+     */
+    private static class GroupRows implements ForecastParser.GroupCallback {
+        final Map<Long, ForecastRows> byCityId = new HashMap<Long, ForecastRows>();
+        private final Time mDayTime;
+        private final int mJulianStartDay;
 
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
+        int parsed;
 
+        GroupRows() {
+            // Every city's days are dated the same way as a single forecast's
             Time dayTime = new Time();
             dayTime.setToNow();
+            mJulianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+            mDayTime = new Time();
+        }
 
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
-
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
-
-                double high;
-                double low;
-
-                String description;
-                int weatherId;
-
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
-
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
-
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
-
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
-
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
-
-                ContentValues weatherValues = new ContentValues();
-
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
-
-                cVVector.add(weatherValues);
-            }
-
-            int inserted = 0;
-            // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
+        @Override
+        public ForecastParser.Callback onForecastStart() {
+            return new ForecastRows(mDayTime, mJulianStartDay);
+        }
 
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
+        @Override
+        public void onForecastEnd(ForecastParser.Callback forecast, int messageCode) {
+            ForecastRows rows = (ForecastRows) forecast;
+            parsed += rows.values.size();
+            if (messageCode == HttpURLConnection.HTTP_OK && rows.cityName != null) {
+                byCityId.put(rows.cityId, rows);
             }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
-            Utility.sendDataToWatch(getContext(), false);
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+        }
+    }
+
+    /**
+     * Collects the 3 hour slots into rows for the hourly table.  The location key is filled in
+     * by the writes.  A forecast holds about 40 of them.
+     */
+    private static class HourlyRows implements HourlyForecastParser.Callback {
+        final List<ContentValues> values = new ArrayList<ContentValues>(40);
+
+        @Override
+        public void onSlot(HourlyForecastParser.Slot slot) {
+            ContentValues hourlyValues = new ContentValues();
+            hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_DATE_TIME, slot.dateTime);
+            hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_WEATHER_ID, slot.weatherId);
+            hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_SHORT_DESC, slot.description);
+            hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_TEMP, slot.temperature);
+            hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_MIN_TEMP, slot.low);
+            hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_MAX_TEMP, slot.high);
+            hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_HUMIDITY, slot.humidity);
+            hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_PRESSURE, slot.pressure);
+            hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_WIND_SPEED, slot.windSpeed);
+            hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_DEGREES, slot.windDirection);
+
+            values.add(hourlyValues);
         }
     }
 
@@ -488,28 +1321,34 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     }
 
     /**
-     * Helper method to handle insertion of a new location in the weather database.
+     * Helper method to handle insertion of a new location in the weather database.  The
+     * location is added to the writes, so the rows stored for it can point at it, and it's
+     * only stored along with them.
      *
      * @param locationSetting The location string used to request updates from the server.
      * @param cityName A human-readable city name, e.g "Mountain View"
      * @param lat the latitude of the city
      * @param lon the longitude of the city
-     * @return the row ID of the added location.
-     */
-    long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
-
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
+     * @param cityId OpenWeatherMap's ID for the city, which is kept for group requests, or 0 if
+     *               the forecast didn't carry one
+     */
+    private void addLocation(SyncWriteSet writes, String locationSetting, String cityName,
+                             double lat, double lon, long cityId) {
+        // First, check if the location with this city name exists in the db.  The cache
+        // answers without a query for every location that has been added.
+        long locationId = mLocationIdCache.getLocationId(locationSetting);
+
+        if (locationId != -1) {
+            writes.addLocationId(locationSetting, locationId);
+            // Locations added before city IDs were kept pick theirs up here
+            if (cityId != 0 && mLocationIdCache.getCityId(locationSetting) != cityId) {
+                writes.add(ContentProviderOperation
+                        .newUpdate(WeatherContract.LocationEntry.CONTENT_URI)
+                        .withValue(WeatherContract.LocationEntry.COLUMN_CITY_ID, cityId)
+                        .withSelection(WeatherContract.LocationEntry._ID + " = ?",
+                                new String[]{Long.toString(locationId)})
+                        .build());
+            }
         } else {
             // Now that the content provider is set up, inserting rows of data is pretty simple.
             // First create a ContentValues object to hold the data you want to insert.
@@ -521,20 +1360,27 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
             locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
             locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
             locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+            if (cityId != 0) {
+                locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_ID, cityId);
+            }
 
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
+            // Finally, add the insert to the writes, which give its row ID to the rows after it.
+            writes.addLocation(locationSetting, locationValues);
         }
+    }
 
-        locationCursor.close();
-        // Wait, that worked?  Yes!
-        return locationId;
+    /**
+     * @return OpenWeatherMap's city ID for every location that has one, by location setting.
+     */
+    private Map<String, Long> getCityIds() {
+        return mLocationIdCache.getCityIds();
+    }
+
+    /**
+     * @return the row ID of a location that has already been added, or -1 if there is none.
+     */
+    private long getLocationId(String locationSetting) {
+        return mLocationIdCache.getLocationId(locationSetting);
     }
 
     /**
@@ -557,13 +1403,31 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     }
 
     /**
-     * Helper method to have the sync adapter sync immediately
+     * Helper method to have the sync adapter sync immediately.  If a sync of the preferred
+     * location is already pending, the request is merged into it instead.
+     * Locations synced within the freshness TTL aren't fetched again.
      * @param context The context used to access the account service
      */
     public static void syncImmediately(Context context) {
+        syncImmediately(context, false);
+    }
+
+    /**
+     * @param forceRefresh fetch every location, however recently it was synced, as when the
+     *                     user asks for a refresh.  Only merged into another forced sync.
+     */
+    public static void syncImmediately(Context context, boolean forceRefresh) {
+        String locationSetting = Utility.getPreferredLocation(context);
+        if (!SyncCoalescer.getInstance().requestSync(locationSetting, forceRefresh,
+                SystemClock.elapsedRealtime())) {
+            Log.d(SunshineSyncAdapter.class.getSimpleName(),
+                    "Sync of " + locationSetting + " already pending");
+            return;
+        }
         Bundle bundle = new Bundle();
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+        bundle.putBoolean(SYNC_EXTRAS_FORCE_REFRESH, forceRefresh);
         ContentResolver.requestSync(getSyncAccount(context),
                 context.getString(R.string.content_authority), bundle);
     }
@@ -628,6 +1492,16 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         getSyncAccount(context);
     }
 
+    /**
+     * Sets the location status if the location being synced is the preferred one.  The status
+     * describes what the user sees, so other saved locations don't touch it.
+     */
+    private void setLocationStatus(boolean preferred, @LocationStatus int locationStatus) {
+        if (preferred) {
+            setLocationStatus(getContext(), locationStatus);
+        }
+    }
+
     /**
      * Sets the location status into shared preference.  This function should not be called from
      * the UI thread because it uses commit to write to the shared preferences.
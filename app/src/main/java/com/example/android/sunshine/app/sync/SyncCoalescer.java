@@ -0,0 +1,105 @@
+package com.example.android.sunshine.app.sync;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Merges overlapping immediate sync requests for the same location.
+ *
+ * Requests for a location that already has a sync pending are dropped instead of queueing
+ * another expedited sync.  Once that sync has started it may already be past fetching the
+ * location, and what the request asked for, like updating the widgets after a location change,
+ * would be lost, so requests made while it runs queue a sync of their own.  A forced refresh
+ * is only merged into another forced one, since a plain sync may skip locations that are fresh,
+ * while a plain request is merged into either.  The counters show how many requests were merged.
+ */
+public class SyncCoalescer {
+
+    // How long a requested sync may stay pending before new requests are let through again.
+    // The sync manager can hold a request back (no network, for instance), and we don't want
+    // to drop requests forever if the one we're waiting on never runs.
+    static final long PENDING_TIMEOUT_MILLIS = 60 * 1000;
+
+    private static final SyncCoalescer sInstance = new SyncCoalescer();
+
+    // The requested syncs of each location that haven't started yet.  Forced and plain syncs
+    // are kept apart.
+    private final Map<String, Pending> mPending = new HashMap<String, Pending>();
+    private final Map<String, Pending> mPendingForced = new HashMap<String, Pending>();
+
+    private int mRequests;
+    private int mMergedRequests;
+
+    private static class Pending {
+        final long requestedAt;
+        // Requests merged into this one
+        int merged;
+
+        Pending(long requestedAt) {
+            this.requestedAt = requestedAt;
+        }
+    }
+
+    SyncCoalescer() {
+    }
+
+    public static SyncCoalescer getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Records a request to sync a location right away.
+     *
+     * @return true if a sync should be requested, false if the request was merged into a sync
+     * that is already pending for the same location.
+     */
+    public synchronized boolean requestSync(String locationSetting, boolean forceRefresh,
+                                            long now) {
+        mRequests++;
+        Pending pending = getPending(mPendingForced, locationSetting, now);
+        if (pending == null && !forceRefresh) {
+            pending = getPending(mPending, locationSetting, now);
+        }
+        if (pending != null) {
+            pending.merged++;
+            mMergedRequests++;
+            return false;
+        }
+        getPending(forceRefresh).put(locationSetting, new Pending(now));
+        return true;
+    }
+
+    private static Pending getPending(Map<String, Pending> pending, String locationSetting,
+                                      long now) {
+        Pending sync = pending.get(locationSetting);
+        return sync != null && now - sync.requestedAt < PENDING_TIMEOUT_MILLIS ? sync : null;
+    }
+
+    private Map<String, Pending> getPending(boolean forceRefresh) {
+        return forceRefresh ? mPendingForced : mPending;
+    }
+
+    /**
+     * Marks the pending sync of the location as started.  Requests after this start a new sync,
+     * which runs once this one is done.
+     *
+     * @return how many requests were merged into the sync.
+     */
+    public synchronized int onSyncStarted(String locationSetting, boolean forceRefresh) {
+        Pending pending = getPending(forceRefresh).remove(locationSetting);
+        return pending != null ? pending.merged : 0;
+    }
+
+    public synchronized int getRequestCount() {
+        return mRequests;
+    }
+
+    public synchronized int getMergedRequestCount() {
+        return mMergedRequests;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return mRequests + " requests (" + mMergedRequests + " merged)";
+    }
+}
@@ -0,0 +1,342 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The HTTP client syncs fetch through.  A single instance is shared by every sync, so the
+ * connections it opens are kept alive and reused from one location, and one sync, to the next.
+ *
+ * {@link HttpURLConnection} already pools keep-alive connections, as long as each response is
+ * read to the end and its stream closed.  {@link HttpURLConnection#disconnect()} closes the
+ * socket instead, so an {@link Exchange} only disconnects when the connection can't be reused:
+ * the body failed part way, or more of it was left unread than is worth draining.
+ *
+ * Responses are asked for gzipped, and a gzipped body is decoded as it's read.  Setting
+ * Accept-Encoding ourselves turns off the transparent decompression some platform versions do,
+ * so the same code path runs everywhere and the bytes on the wire can be told apart from the
+ * decoded ones.
+ *
+ * Each exchange also measures its connect, time to first byte and transfer times, and can be
+ * aborted from another thread, which is how a canceled sync stops a download part way.
+ */
+public class SyncHttpClient {
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 30 * 1000;
+    // Bodies are read through a buffer of this size rather than all at once
+    public static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+    // A body abandoned with more than this left is cheaper to drop than to read for reuse
+    static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    static final String ENCODING_GZIP = "gzip";
+
+    private static SyncHttpClient sInstance;
+
+    private final int mConnectTimeoutMillis;
+    private final int mReadTimeoutMillis;
+    private final int mBufferSize;
+
+    public static synchronized SyncHttpClient getInstance() {
+        if (sInstance == null) {
+            sInstance = new SyncHttpClient(DEFAULT_CONNECT_TIMEOUT_MILLIS,
+                    DEFAULT_READ_TIMEOUT_MILLIS, DEFAULT_BUFFER_SIZE);
+        }
+        return sInstance;
+    }
+
+    public SyncHttpClient(int connectTimeoutMillis, int readTimeoutMillis) {
+        this(connectTimeoutMillis, readTimeoutMillis, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param readTimeoutMillis how long to wait for the response headers, and then for each
+     *                          read of the body, before giving up with a
+     *                          {@link java.net.SocketTimeoutException}
+     * @param bufferSize size of the buffer the body is read through
+     */
+    public SyncHttpClient(int connectTimeoutMillis, int readTimeoutMillis, int bufferSize) {
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+        mBufferSize = bufferSize;
+    }
+
+    /**
+     * Sends a GET request and waits for the response headers.
+     *
+     * @param validators turn the request into a conditional one, or {@link HttpValidators#NONE}
+     * @return the open exchange, which must be closed to release the connection.
+     */
+    public Exchange get(URL url, HttpValidators validators) throws IOException {
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        try {
+            urlConnection.setRequestMethod("GET");
+            urlConnection.setConnectTimeout(mConnectTimeoutMillis);
+            urlConnection.setReadTimeout(mReadTimeoutMillis);
+            urlConnection.setRequestProperty(HEADER_ACCEPT_ENCODING, ENCODING_GZIP);
+            validators.applyTo(urlConnection);
+
+            Timings timings = new Timings();
+            long start = System.nanoTime();
+            urlConnection.connect();
+            long connected = System.nanoTime();
+            int responseCode = urlConnection.getResponseCode();
+            timings.connectNanos = connected - start;
+            timings.firstByteNanos = System.nanoTime() - connected;
+            return new Exchange(urlConnection, responseCode, timings, mBufferSize);
+        } catch (IOException e) {
+            urlConnection.disconnect();
+            throw e;
+        }
+    }
+
+    /**
+     * How long one request took, in nanoseconds.
+     */
+    public static class Timings {
+        // Opening the connection, which is close to nothing for a reused one
+        long connectNanos;
+        // Sending the request and waiting for the response headers
+        long firstByteNanos;
+        // Reading the body, from the first read until the end or until it's closed
+        long transferNanos;
+        // Body bytes as they came over the network, so compressed if the body was gzipped
+        long bytes;
+
+        public long getConnectNanos() {
+            return connectNanos;
+        }
+
+        public long getFirstByteNanos() {
+            return firstByteNanos;
+        }
+
+        public long getTransferNanos() {
+            return transferNanos;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+    }
+
+    /**
+     * One request and its response.
+     */
+    public static class Exchange implements Closeable {
+        private final HttpURLConnection mUrlConnection;
+        private final int mResponseCode;
+        private final Timings mTimings;
+        private final int mBufferSize;
+        private TimedInputStream mWireBody;
+        private InputStream mBody;
+        private boolean mClosed;
+        private boolean mAborted;
+
+        Exchange(HttpURLConnection urlConnection, int responseCode, Timings timings,
+                 int bufferSize) {
+            mUrlConnection = urlConnection;
+            mResponseCode = responseCode;
+            mTimings = timings;
+            mBufferSize = bufferSize;
+        }
+
+        public int getResponseCode() {
+            return mResponseCode;
+        }
+
+        public String getHeaderField(String name) {
+            return mUrlConnection.getHeaderField(name);
+        }
+
+        HttpURLConnection getConnection() {
+            return mUrlConnection;
+        }
+
+        public boolean isGzipped() {
+            return ENCODING_GZIP.equalsIgnoreCase(getHeaderField(HEADER_CONTENT_ENCODING));
+        }
+
+        /**
+         * The response body, decoded if it was gzipped.  Only valid until the exchange is closed.
+         */
+        public InputStream getBody() throws IOException {
+            if (mBody == null) {
+                mWireBody = new TimedInputStream(openStream(), mBufferSize, mTimings);
+                mBody = isGzipped() ? new GZIPInputStream(mWireBody, mBufferSize) : mWireBody;
+            }
+            return mBody;
+        }
+
+        /**
+         * Valid once the body has been read or the exchange closed.
+         */
+        public Timings getTimings() {
+            return mTimings;
+        }
+
+        /**
+         * Drops the connection from any thread, so a read of the body that's blocked or under
+         * way fails with an IOException instead of running to the end.  The exchange still
+         * has to be closed.
+         */
+        public void abort() {
+            synchronized (this) {
+                // Once closed, the connection may already be back in the pool and in use
+                if (mClosed || mAborted) {
+                    return;
+                }
+                mAborted = true;
+            }
+            mUrlConnection.disconnect();
+        }
+
+        /**
+         * Releases the connection: back to the pool if the body is read or nearly so, closed
+         * otherwise.
+         */
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (mClosed) {
+                    return;
+                }
+                mClosed = true;
+                if (mAborted) {
+                    return;
+                }
+            }
+            try {
+                if (mWireBody == null) {
+                    // Nobody read the body, an error page or a 304 for instance
+                    mWireBody = new TimedInputStream(openStream(), mBufferSize, mTimings);
+                }
+                // Drained as it came, without decoding the rest of a gzipped body
+                if (!mWireBody.failed && mWireBody.drain(MAX_DRAIN_BYTES)) {
+                    // Closing a gzipped body frees its inflater as well as the stream under it
+                    (mBody != null ? mBody : mWireBody).close();
+                    return;
+                }
+            } catch (IOException e) {
+                // not reusable, so fall through and drop it
+            }
+            mUrlConnection.disconnect();
+        }
+
+        private InputStream openStream() throws IOException {
+            if (mResponseCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                InputStream errorStream = mUrlConnection.getErrorStream();
+                if (errorStream != null) {
+                    return errorStream;
+                }
+            }
+            return mUrlConnection.getInputStream();
+        }
+    }
+
+    /**
+     * Reads the body through a bounded buffer, timing the transfer and counting the bytes.
+     */
+    private static class TimedInputStream extends FilterInputStream {
+        private final Timings mTimings;
+        private long mStart;
+        private boolean mEnded;
+        private boolean mEof;
+        // Set if a read threw or the stream was closed early, in which case the connection
+        // can't be reused
+        boolean failed;
+
+        TimedInputStream(InputStream in, int bufferSize, Timings timings) {
+            super(new BufferedInputStream(in, bufferSize));
+            mTimings = timings;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int read = read(one, 0, 1);
+            return read == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            if (mStart == 0) {
+                mStart = System.nanoTime();
+            }
+            int read;
+            try {
+                read = super.read(buffer, offset, count);
+            } catch (IOException e) {
+                failed = true;
+                end();
+                throw e;
+            }
+            if (read == -1) {
+                mEof = true;
+                end();
+            } else {
+                mTimings.bytes += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long byteCount) throws IOException {
+            // Read rather than skip, so the bytes are counted and the end is noticed
+            byte[] buffer = new byte[(int) Math.min(byteCount, 4096)];
+            int read = read(buffer, 0, buffer.length);
+            return read == -1 ? 0 : read;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        /**
+         * Reads to the end of the body, up to a limit.
+         *
+         * @return true if the end was reached.
+         */
+        boolean drain(int maxBytes) throws IOException {
+            byte[] buffer = new byte[4096];
+            int drained = 0;
+            while (!mEof) {
+                if (drained > maxBytes) {
+                    return false;
+                }
+                int read = read(buffer, 0, buffer.length);
+                if (read > 0) {
+                    drained += read;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!mEof) {
+                failed = true;
+            }
+            end();
+            super.close();
+        }
+
+        private void end() {
+            if (!mEnded) {
+                mEnded = true;
+                if (mStart != 0) {
+                    mTimings.transferNanos = System.nanoTime() - mStart;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,387 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.example.android.sunshine.app.data.WeatherContract.SyncLogEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SyncMetricsEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timings and counters for one sync run.  Stage times are measured with {@link System#nanoTime()}
+ * and may be added to from several worker threads at once.
+ *
+ * Finished runs are kept in a ring buffer of the last {@link #MAX_RUNS}, which the provider
+ * serves at {@link SyncMetricsEntry#CONTENT_URI}.  Each run is also written to the sync log
+ * table, which keeps them across restarts, through {@link #toSyncLogValues(int)}.
+ */
+public class SyncMetrics {
+
+    public static final int STAGE_TOTAL = 0;
+    // Connecting and waiting for the response headers
+    public static final int STAGE_FETCH = 1;
+    // Reading and parsing the body, which includes the transfer since we parse off the stream
+    public static final int STAGE_PARSE = 2;
+    public static final int STAGE_ADD_LOCATION = 3;
+    // Applying the sync's writes, which delete the old days as well
+    public static final int STAGE_INSERT = 4;
+    public static final int STAGE_WIDGETS = 5;
+    public static final int STAGE_MUZEI = 6;
+    public static final int STAGE_NOTIFY = 7;
+    public static final int STAGE_WATCH = 8;
+    // Per request network timings, which overlap the fetch and parse stages
+    public static final int STAGE_CONNECT = 9;
+    public static final int STAGE_FIRST_BYTE = 10;
+    public static final int STAGE_TRANSFER = 11;
+    static final int STAGE_COUNT = 12;
+
+    // these columns must match the stages
+    private static final String[] STAGE_COLUMNS = new String[] {
+            SyncMetricsEntry.COLUMN_TOTAL_MS,
+            SyncMetricsEntry.COLUMN_FETCH_MS,
+            SyncMetricsEntry.COLUMN_PARSE_MS,
+            SyncMetricsEntry.COLUMN_ADD_LOCATION_MS,
+            SyncMetricsEntry.COLUMN_INSERT_MS,
+            SyncMetricsEntry.COLUMN_WIDGETS_MS,
+            SyncMetricsEntry.COLUMN_MUZEI_MS,
+            SyncMetricsEntry.COLUMN_NOTIFY_MS,
+            SyncMetricsEntry.COLUMN_WATCH_MS,
+            SyncMetricsEntry.COLUMN_CONNECT_MS,
+            SyncMetricsEntry.COLUMN_FIRST_BYTE_MS,
+            SyncMetricsEntry.COLUMN_TRANSFER_MS
+    };
+
+    private static final String[] COUNTER_COLUMNS = new String[] {
+            SyncMetricsEntry.COLUMN_LOCATIONS,
+            SyncMetricsEntry.COLUMN_REQUESTS,
+            SyncMetricsEntry.COLUMN_WIRE_BYTES,
+            SyncMetricsEntry.COLUMN_BYTES,
+            SyncMetricsEntry.COLUMN_ROWS_PARSED,
+            SyncMetricsEntry.COLUMN_ROWS_WRITTEN,
+            SyncMetricsEntry.COLUMN_ROWS_DELETED,
+            SyncMetricsEntry.COLUMN_FRESH_HITS,
+            SyncMetricsEntry.COLUMN_FRESH_MISSES,
+            SyncMetricsEntry.COLUMN_FRESH_FORCED,
+            SyncMetricsEntry.COLUMN_MERGED_REQUESTS
+    };
+
+    static final int MAX_RUNS = 20;
+
+    private static final SyncMetrics[] sRuns = new SyncMetrics[MAX_RUNS];
+    private static int sRunCount;
+
+    private final long mStartTimeMillis = System.currentTimeMillis();
+    private final AtomicLongArray mStageNanos = new AtomicLongArray(STAGE_COUNT);
+    private final AtomicInteger mLocations = new AtomicInteger();
+    private final AtomicInteger mRequests = new AtomicInteger();
+    private final AtomicLong mWireBytes = new AtomicLong();
+    private final AtomicLong mBytes = new AtomicLong();
+    private final AtomicInteger mRowsParsed = new AtomicInteger();
+    private final AtomicInteger mRowsWritten = new AtomicInteger();
+    private final AtomicInteger mRowsDeleted = new AtomicInteger();
+    private final AtomicInteger mFailedFetches = new AtomicInteger();
+    private final AtomicInteger mHttpStatus = new AtomicInteger();
+    private final AtomicInteger mRowsInserted = new AtomicInteger();
+    private final AtomicInteger mRowsUpdated = new AtomicInteger();
+    private final AtomicInteger mFreshHits = new AtomicInteger();
+    private final AtomicInteger mFreshMisses = new AtomicInteger();
+    private final AtomicInteger mFreshForced = new AtomicInteger();
+    private final AtomicInteger mMergedRequests = new AtomicInteger();
+    private int mRunId;
+
+    /**
+     * @return the value to pass to {@link #stopTimer(int, long)} once the stage is done.
+     */
+    public static long startTimer() {
+        return System.nanoTime();
+    }
+
+    public void stopTimer(int stage, long startNanos) {
+        mStageNanos.addAndGet(stage, System.nanoTime() - startNanos);
+    }
+
+    public void addLocation() {
+        mLocations.incrementAndGet();
+    }
+
+    /**
+     * Adds one HTTP request's network timings to their stages, and the bytes it took on the wire.
+     */
+    public void addRequest(SyncHttpClient.Timings timings) {
+        mRequests.incrementAndGet();
+        mWireBytes.addAndGet(timings.getBytes());
+        mStageNanos.addAndGet(STAGE_CONNECT, timings.getConnectNanos());
+        mStageNanos.addAndGet(STAGE_FIRST_BYTE, timings.getFirstByteNanos());
+        mStageNanos.addAndGet(STAGE_TRANSFER, timings.getTransferNanos());
+    }
+
+    /**
+     * Keeps the highest HTTP status seen in the run, so a server error isn't hidden by the
+     * requests that succeeded.
+     */
+    public void addHttpStatus(int status) {
+        int current;
+        do {
+            current = mHttpStatus.get();
+        } while (status > current && !mHttpStatus.compareAndSet(current, status));
+    }
+
+    /**
+     * Counts body bytes read by a parser, after any decompression.
+     */
+    public void addBytes(long bytes) {
+        mBytes.addAndGet(bytes);
+    }
+
+    public void addRowsParsed(int rows) {
+        mRowsParsed.addAndGet(rows);
+    }
+
+    public void addRowsWritten(int rows) {
+        mRowsWritten.addAndGet(rows);
+    }
+
+    public void addRowsDeleted(int rows) {
+        mRowsDeleted.addAndGet(rows);
+    }
+
+    /**
+     * Splits the rows written into the ones inserted and the ones updated in place, which only
+     * the results of the provider's batch tell apart.
+     */
+    public void addRowsInsertedAndUpdated(int inserted, int updated) {
+        mRowsInserted.addAndGet(inserted);
+        mRowsUpdated.addAndGet(updated);
+    }
+
+    /**
+     * Counts a fetch that failed, or that wasn't made because the server is being backed off.
+     */
+    public void addFailedFetch() {
+        mFailedFetches.incrementAndGet();
+    }
+
+    /**
+     * Counts one of the {@link FreshnessGate}'s decisions for a location of the run.
+     *
+     * @param forced the caller forced a refresh, so the location's freshness wasn't looked at
+     * @param synced the location is synced rather than skipped as fresh
+     */
+    public void addFreshnessDecision(boolean forced, boolean synced) {
+        if (forced) {
+            mFreshForced.incrementAndGet();
+        } else if (synced) {
+            mFreshMisses.incrementAndGet();
+        } else {
+            mFreshHits.incrementAndGet();
+        }
+    }
+
+    /**
+     * Counts the sync requests that were merged into this run by the {@link SyncCoalescer}.
+     */
+    public void addMergedRequests(int requests) {
+        mMergedRequests.addAndGet(requests);
+    }
+
+    public long getStageNanos(int stage) {
+        return mStageNanos.get(stage);
+    }
+
+    public long getStartTimeMillis() {
+        return mStartTimeMillis;
+    }
+
+    public int getLocations() {
+        return mLocations.get();
+    }
+
+    public int getRequests() {
+        return mRequests.get();
+    }
+
+    public long getWireBytes() {
+        return mWireBytes.get();
+    }
+
+    public long getBytes() {
+        return mBytes.get();
+    }
+
+    public int getRowsParsed() {
+        return mRowsParsed.get();
+    }
+
+    public int getRowsWritten() {
+        return mRowsWritten.get();
+    }
+
+    public int getRowsDeleted() {
+        return mRowsDeleted.get();
+    }
+
+    public int getFailedFetches() {
+        return mFailedFetches.get();
+    }
+
+    public int getHttpStatus() {
+        return mHttpStatus.get();
+    }
+
+    public long getRowsInserted() {
+        return mRowsInserted.get();
+    }
+
+    public long getRowsUpdated() {
+        return mRowsUpdated.get();
+    }
+
+    public int getFreshHits() {
+        return mFreshHits.get();
+    }
+
+    public int getFreshMisses() {
+        return mFreshMisses.get();
+    }
+
+    public int getFreshForced() {
+        return mFreshForced.get();
+    }
+
+    public int getMergedRequests() {
+        return mMergedRequests.get();
+    }
+
+    /**
+     * The run as a row of the sync log table.
+     *
+     * @param locationStatus the location status the run left behind
+     */
+    public ContentValues toSyncLogValues(int locationStatus) {
+        ContentValues values = new ContentValues();
+        values.put(SyncLogEntry.COLUMN_START_TIME, mStartTimeMillis);
+        // The stage columns of both tables have the same names
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            values.put(STAGE_COLUMNS[stage], getStageNanos(stage) / 1e6);
+        }
+        values.put(SyncLogEntry.COLUMN_HTTP_STATUS, getHttpStatus());
+        values.put(SyncLogEntry.COLUMN_REQUESTS, getRequests());
+        values.put(SyncLogEntry.COLUMN_WIRE_BYTES, getWireBytes());
+        values.put(SyncLogEntry.COLUMN_BYTES, getBytes());
+        values.put(SyncLogEntry.COLUMN_ROWS_INSERTED, getRowsInserted());
+        values.put(SyncLogEntry.COLUMN_ROWS_UPDATED, getRowsUpdated());
+        values.put(SyncLogEntry.COLUMN_ROWS_DELETED, getRowsDeleted());
+        values.put(SyncLogEntry.COLUMN_FAILED_FETCHES, getFailedFetches());
+        values.put(SyncLogEntry.COLUMN_LOCATION_STATUS, locationStatus);
+        return values;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            sb.append(STAGE_COLUMNS[stage]).append('=').append(getStageNanos(stage) / 1000000)
+                    .append(' ');
+        }
+        return sb.append(getLocations()).append(" locations, ")
+                .append(getRequests()).append(" requests, ")
+                .append(getWireBytes()).append(" wire bytes, ")
+                .append(getBytes()).append(" bytes, ")
+                .append(getRowsParsed()).append(" parsed, ")
+                .append(getRowsWritten()).append(" written, ")
+                .append(getRowsDeleted()).append(" deleted, ")
+                .append(getFailedFetches()).append(" failed fetches, ")
+                .append(getFreshHits()).append(" fresh, ")
+                .append(getFreshMisses()).append(" stale, ")
+                .append(getFreshForced()).append(" forced, ")
+                .append(getMergedRequests()).append(" merged requests, HTTP ")
+                .append(getHttpStatus()).toString();
+    }
+
+    /**
+     * Adds a finished run to the ring buffer, pushing out the oldest one if it's full.
+     */
+    public static void record(SyncMetrics metrics) {
+        synchronized (sRuns) {
+            metrics.mRunId = ++sRunCount;
+            sRuns[(sRunCount - 1) % MAX_RUNS] = metrics;
+        }
+    }
+
+    /**
+     * @return the recorded runs, newest first.
+     */
+    public static List<SyncMetrics> getRecentRuns() {
+        synchronized (sRuns) {
+            int count = Math.min(sRunCount, MAX_RUNS);
+            List<SyncMetrics> runs = new ArrayList<SyncMetrics>(count);
+            for (int i = 0; i < count; i++) {
+                runs.add(sRuns[(sRunCount - 1 - i) % MAX_RUNS]);
+            }
+            return runs;
+        }
+    }
+
+    /**
+     * Builds a cursor over the recorded runs, newest first.
+     *
+     * @param projection the columns to return, or null for all of them
+     */
+    public static Cursor queryRecentRuns(String[] projection) {
+        List<String> allColumns = new ArrayList<String>();
+        allColumns.add(SyncMetricsEntry._ID);
+        allColumns.add(SyncMetricsEntry.COLUMN_START_TIME);
+        for (String column : STAGE_COLUMNS) {
+            allColumns.add(column);
+        }
+        for (String column : COUNTER_COLUMNS) {
+            allColumns.add(column);
+        }
+        if (projection == null) {
+            projection = allColumns.toArray(new String[allColumns.size()]);
+        }
+
+        int[] indices = new int[projection.length];
+        for (int column = 0; column < projection.length; column++) {
+            indices[column] = allColumns.indexOf(projection[column]);
+            if (indices[column] < 0) {
+                throw new IllegalArgumentException("Unknown column: " + projection[column]);
+            }
+        }
+
+        MatrixCursor cursor = new MatrixCursor(projection);
+        for (SyncMetrics run : getRecentRuns()) {
+            Object[] values = new Object[allColumns.size()];
+            int i = 0;
+            values[i++] = run.mRunId;
+            values[i++] = run.mStartTimeMillis;
+            for (int stage = 0; stage < STAGE_COUNT; stage++) {
+                values[i++] = run.getStageNanos(stage) / 1e6;
+            }
+            values[i++] = run.getLocations();
+            values[i++] = run.getRequests();
+            values[i++] = run.getWireBytes();
+            values[i++] = run.getBytes();
+            values[i++] = run.getRowsParsed();
+            values[i++] = run.getRowsWritten();
+            values[i++] = run.getRowsDeleted();
+            values[i++] = run.getFreshHits();
+            values[i++] = run.getFreshMisses();
+            values[i++] = run.getFreshForced();
+            values[i] = run.getMergedRequests();
+
+            Object[] row = new Object[projection.length];
+            for (int column = 0; column < projection.length; column++) {
+                row[column] = values[indices[column]];
+            }
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+}
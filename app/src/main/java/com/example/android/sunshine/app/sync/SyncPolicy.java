@@ -0,0 +1,38 @@
+package com.example.android.sunshine.app.sync;
+
+/**
+ * Decides how long to wait before the next periodic sync.
+ */
+public interface SyncPolicy {
+
+    /**
+     * What the policy knows about the forecast and the things showing it.
+     */
+    class Signals {
+        /**
+         * Fraction of the days in the last fetch that differed from the forecast stored before
+         * it, from 0 (nothing changed) to 1 (every day changed).
+         */
+        public float volatility;
+
+        /**
+         * When the stored forecast was last fetched or confirmed current, or -1 if never.
+         */
+        public long lastFetchMillis = -1;
+
+        /**
+         * Whether today's forecast is in the database at all.
+         */
+        public boolean hasForecastForToday;
+
+        /**
+         * Whether a widget, the watch face or Muzei is showing the forecast.
+         */
+        public boolean consumersActive;
+    }
+
+    /**
+     * @return the number of seconds until the next sync.
+     */
+    long getSyncInterval(Signals signals);
+}
@@ -0,0 +1,106 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.SyncResult;
+
+import java.util.Random;
+
+/**
+ * Decides when a sync that couldn't reach the server is retried, and keeps a failing server
+ * from being sent request after request.
+ *
+ * Failed fetches are reported to the sync manager through {@link SyncResult.SyncStats#numIoExceptions},
+ * which makes it retry the sync as a soft error.  {@link SyncResult#delayUntil} holds that retry
+ * back by an exponential backoff that grows with each failed sync in a row.  The backoff is
+ * jittered, so devices that lost the server at the same time don't all come back at once.
+ *
+ * Fetches themselves go through a {@link CircuitBreaker}, and a sync is never retried before the
+ * breaker lets requests through again.
+ */
+class SyncRetryPolicy {
+
+    static final long INITIAL_BACKOFF_MILLIS = 60 * 1000;
+    static final long MAX_BACKOFF_MILLIS = 60 * 60 * 1000;
+
+    static final int BREAKER_FAILURE_THRESHOLD = 3;
+    static final long BREAKER_INITIAL_COOLDOWN_MILLIS = 5 * 60 * 1000;
+    static final long BREAKER_MAX_COOLDOWN_MILLIS = 60 * 60 * 1000;
+
+    private final Clock mClock;
+    private final Random mRandom;
+    private final CircuitBreaker mBreaker;
+
+    private int mFailedSyncs;
+
+    SyncRetryPolicy() {
+        this(Clock.SYSTEM, new Random());
+    }
+
+    SyncRetryPolicy(Clock clock, Random random) {
+        mClock = clock;
+        mRandom = random;
+        mBreaker = new CircuitBreaker(clock, BREAKER_FAILURE_THRESHOLD,
+                BREAKER_INITIAL_COOLDOWN_MILLIS, BREAKER_MAX_COOLDOWN_MILLIS);
+    }
+
+    /**
+     * @return false if the server is being given a rest and the fetch shouldn't be made.
+     */
+    boolean allowFetch() {
+        return mBreaker.allowRequest();
+    }
+
+    void onFetchSucceeded() {
+        mBreaker.recordSuccess();
+    }
+
+    void onFetchFailed() {
+        mBreaker.recordFailure();
+    }
+
+    /**
+     * Reports how a sync went, and if any of its fetches failed, asks the sync manager to retry
+     * it after the backoff.
+     *
+     * @param failedFetches fetches that failed or were turned away by the breaker
+     */
+    synchronized void onSyncFinished(SyncResult syncResult, int failedFetches) {
+        if (failedFetches == 0) {
+            mFailedSyncs = 0;
+            return;
+        }
+        mFailedSyncs++;
+        syncResult.stats.numIoExceptions += failedFetches;
+
+        long retryAt = Math.max(mClock.currentTimeMillis() + getBackoffMillis(mFailedSyncs),
+                mBreaker.getRetryAtMillis());
+        // delayUntil is in seconds since the epoch.  Round up so we never retry early.
+        syncResult.delayUntil = (retryAt + 999) / 1000;
+    }
+
+    /**
+     * @param failedSyncs number of syncs in a row that have failed, including this one
+     * @return a random delay between half and all of the exponential backoff for that many
+     * failures.
+     */
+    long getBackoffMillis(int failedSyncs) {
+        long backoff = INITIAL_BACKOFF_MILLIS;
+        for (int i = 1; i < failedSyncs && backoff < MAX_BACKOFF_MILLIS; i++) {
+            backoff *= 2;
+        }
+        backoff = Math.min(backoff, MAX_BACKOFF_MILLIS);
+
+        double jitter;
+        synchronized (mRandom) {
+            jitter = mRandom.nextDouble();
+        }
+        return backoff / 2 + (long) (jitter * (backoff / 2));
+    }
+
+    synchronized int getFailedSyncs() {
+        return mFailedSyncs;
+    }
+
+    CircuitBreaker getBreaker() {
+        return mBreaker;
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.android.sunshine.app.sync;
+
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.widget.DetailWidgetProvider;
+import com.example.android.sunshine.app.widget.TodayWidgetProvider;
+
+/**
+ * Keeps track of how the preferred location's forecast has been changing and who is looking at
+ * it, and moves the periodic sync to whatever interval the {@link SyncPolicy} picks.
+ *
+ * The state lives in the default SharedPreferences so that it survives the sync process being
+ * killed between runs.
+ */
+public class SyncScheduler {
+    private static final String LOG_TAG = SyncScheduler.class.getSimpleName();
+
+    // How long after its last request the watch face still counts as showing the forecast
+    static final long WATCH_ACTIVE_MILLIS = 1000 * 60 * 60 * 24;
+
+    private final Context mContext;
+    private final SyncPolicy mPolicy;
+    private final Clock mClock;
+
+    public SyncScheduler(Context context) {
+        this(context, new AdaptiveSyncPolicy(), Clock.SYSTEM);
+    }
+
+    SyncScheduler(Context context, SyncPolicy policy, Clock clock) {
+        mContext = context;
+        mPolicy = policy;
+        mClock = clock;
+    }
+
+    /**
+     * Records a fetch of the preferred location.
+     *
+     * @param daysFetched the number of days in the forecast, or 0 if the server said it
+     *                    hadn't changed
+     * @param daysChanged the number of those days that were new or changed noticeably from what
+     *                    was stored, as {@link ForecastChanges} counts them
+     */
+    public void recordFetch(int daysFetched, int daysChanged) {
+        float volatility = daysFetched > 0 ? (float) daysChanged / daysFetched : 0f;
+        getPreferences().edit()
+                .putFloat(mContext.getString(R.string.pref_forecast_volatility_key), volatility)
+                .putLong(mContext.getString(R.string.pref_last_fetch_key), mClock.currentTimeMillis())
+                .commit();
+    }
+
+    /**
+     * Asks the policy for the next sync interval and reschedules the periodic sync if it moved.
+     *
+     * @return the interval in seconds.
+     */
+    public long reschedule(boolean hasForecastForToday) {
+        SyncPolicy.Signals signals = readSignals();
+        signals.hasForecastForToday = hasForecastForToday;
+        long interval = mPolicy.getSyncInterval(signals);
+
+        SharedPreferences prefs = getPreferences();
+        String intervalKey = mContext.getString(R.string.pref_sync_interval_key);
+        if (prefs.getLong(intervalKey, SunshineSyncAdapter.SYNC_INTERVAL) != interval) {
+            Log.d(LOG_TAG, "Next sync in " + interval + "s (volatility " + signals.volatility
+                    + ", consumers " + (signals.consumersActive ? "active" : "idle") + ")");
+            SunshineSyncAdapter.configurePeriodicSync(mContext, (int) interval, (int) (interval / 3));
+            prefs.edit().putLong(intervalKey, interval).commit();
+        }
+        return interval;
+    }
+
+    SyncPolicy.Signals readSignals() {
+        SharedPreferences prefs = getPreferences();
+        SyncPolicy.Signals signals = new SyncPolicy.Signals();
+        signals.volatility = prefs.getFloat(
+                mContext.getString(R.string.pref_forecast_volatility_key), 0f);
+        signals.lastFetchMillis = prefs.getLong(
+                mContext.getString(R.string.pref_last_fetch_key), -1);
+        signals.consumersActive = hasWidgets() || isMuzeiEnabled(prefs) || isWatchActive(prefs);
+        return signals;
+    }
+
+    private boolean hasWidgets() {
+        AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(mContext);
+        if (appWidgetManager == null) {
+            return false;
+        }
+        return appWidgetManager.getAppWidgetIds(
+                new ComponentName(mContext, TodayWidgetProvider.class)).length > 0
+                || appWidgetManager.getAppWidgetIds(
+                new ComponentName(mContext, DetailWidgetProvider.class)).length > 0;
+    }
+
+    private boolean isMuzeiEnabled(SharedPreferences prefs) {
+        return prefs.getBoolean(mContext.getString(R.string.pref_muzei_enabled_key), false);
+    }
+
+    private boolean isWatchActive(SharedPreferences prefs) {
+        long lastRequest = prefs.getLong(
+                mContext.getString(R.string.pref_last_watch_request_key), -1);
+        return lastRequest >= 0 && mClock.currentTimeMillis() - lastRequest < WATCH_ACTIVE_MILLIS;
+    }
+
+    private SharedPreferences getPreferences() {
+        return PreferenceManager.getDefaultSharedPreferences(mContext);
+    }
+
+    /**
+     * Remembers that the watch face asked for the forecast.
+     */
+    public static void recordWatchRequest(Context context) {
+        PreferenceManager.getDefaultSharedPreferences(context).edit()
+                .putLong(context.getString(R.string.pref_last_watch_request_key),
+                        System.currentTimeMillis())
+                .apply();
+    }
+
+    /**
+     * Remembers whether Muzei is using our art source.
+     */
+    public static void setMuzeiEnabled(Context context, boolean enabled) {
+        PreferenceManager.getDefaultSharedPreferences(context).edit()
+                .putBoolean(context.getString(R.string.pref_muzei_enabled_key), enabled)
+                .apply();
+    }
+}
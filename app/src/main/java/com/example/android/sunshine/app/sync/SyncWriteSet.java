@@ -0,0 +1,260 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.os.RemoteException;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What a sync writes once it has its forecasts, collected as provider operations so that it
+ * can all be applied as one batch: the locations, their daily forecasts and 3 hour slots, the
+ * validators and the deletes of old data.  The batch commits or rolls back as a whole, and
+ * observers hear about each table it changed once.
+ *
+ * That only holds as long as no operation allows the provider to yield, which would commit
+ * what came before it on its own, so none may be added that does.
+ *
+ * The workers add to it concurrently.  A location's rows point at its row through a back
+ * reference if the location is added in the same batch, and a location's days are added in one
+ * go, so that what they wrote can be read back from the batch's results once it's applied.
+ */
+class SyncWriteSet {
+
+    private final ArrayList<ContentProviderOperation> mOperations =
+            new ArrayList<ContentProviderOperation>();
+    private final List<Rows> mRows = new ArrayList<Rows>();
+    private final List<Rows> mSlots = new ArrayList<Rows>();
+    // Each location's row, as the index of the operation inserting it or as its row ID
+    private final Map<String, Integer> mLocationInserts = new HashMap<String, Integer>();
+    private final Map<String, Long> mLocationIds = new HashMap<String, Long>();
+    // Locations synced without an error, which are only fresh once the set is applied
+    private final Set<String> mSynced = new LinkedHashSet<String>();
+    // The preferred location's days fetched and changed, or -1 if it wasn't fetched
+    private int mDaysFetched = -1;
+    private int mDaysChanged;
+    private ContentProviderResult[] mResults;
+
+    // The operations holding the rows added for one location, or for a group stored together
+    private static final class Rows {
+        final List<String> locations;
+        final int start;
+        final int end;
+
+        Rows(List<String> locations, int start, int end) {
+            this.locations = locations;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * Adds a location that isn't stored yet, for the rows added for it to point at.
+     */
+    synchronized void addLocation(String locationSetting, ContentValues values) {
+        mLocationInserts.put(locationSetting, add(ContentProviderOperation
+                .newInsert(WeatherContract.LocationEntry.CONTENT_URI)
+                .withValues(values)
+                .build()));
+    }
+
+    /**
+     * Records the row ID of a location that's already stored, for the rows added for it.
+     */
+    synchronized void addLocationId(String locationSetting, long locationId) {
+        mLocationIds.put(locationSetting, locationId);
+    }
+
+    synchronized boolean hasLocation(String locationSetting) {
+        return mLocationInserts.containsKey(locationSetting)
+                || mLocationIds.containsKey(locationSetting);
+    }
+
+    /**
+     * Adds the days to store for some locations, which must have been added.  Locations added
+     * together report the rows written for all of them.
+     *
+     * @param values each location's days, in the order of the locations
+     */
+    synchronized void addWeather(List<String> locations, List<ContentValues[]> values) {
+        int start = mOperations.size();
+        for (int i = 0; i < locations.size(); i++) {
+            for (ContentValues value : values.get(i)) {
+                mOperations.add(withLocation(ContentProviderOperation
+                        .newInsert(WeatherContract.WeatherEntry.CONTENT_URI)
+                        .withValues(value), WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                        locations.get(i)).build());
+            }
+        }
+        mRows.add(new Rows(new ArrayList<String>(locations), start, mOperations.size()));
+    }
+
+    /**
+     * Adds the 3 hour slots to store for a location, which must have been added.
+     */
+    synchronized void addSlots(String locationSetting, List<ContentValues> slots) {
+        int start = mOperations.size();
+        for (ContentValues slot : slots) {
+            mOperations.add(withLocation(ContentProviderOperation
+                    .newInsert(WeatherContract.HourlyEntry.CONTENT_URI)
+                    .withValues(slot), WeatherContract.HourlyEntry.COLUMN_LOC_KEY,
+                    locationSetting).build());
+        }
+        List<String> locations = new ArrayList<String>(1);
+        locations.add(locationSetting);
+        mSlots.add(new Rows(locations, start, mOperations.size()));
+    }
+
+    private ContentProviderOperation.Builder withLocation(ContentProviderOperation.Builder builder,
+                                                          String column, String locationSetting) {
+        Integer insert = mLocationInserts.get(locationSetting);
+        if (insert != null) {
+            return builder.withValueBackReference(column, insert);
+        }
+        Long locationId = mLocationIds.get(locationSetting);
+        if (locationId == null) {
+            throw new IllegalStateException(locationSetting + " hasn't been added");
+        }
+        return builder.withValue(column, locationId);
+    }
+
+    /**
+     * @return the operation's index, to look up its count with once the set is applied.
+     * @throws IllegalArgumentException if the operation allows the provider to yield.
+     */
+    synchronized int add(ContentProviderOperation operation) {
+        if (operation.isYieldAllowed()) {
+            throw new IllegalArgumentException("A sync's writes can't be split by yielding");
+        }
+        mOperations.add(operation);
+        return mOperations.size() - 1;
+    }
+
+    synchronized void addSynced(String locationSetting) {
+        mSynced.add(locationSetting);
+    }
+
+    synchronized List<String> getSynced() {
+        return new ArrayList<String>(mSynced);
+    }
+
+    synchronized int size() {
+        return mOperations.size();
+    }
+
+    /**
+     * Records how the preferred location's forecast changed, for the scheduler to hear about
+     * once the set is applied.
+     *
+     * @see SyncScheduler#recordFetch(int, int)
+     */
+    synchronized void setForecastChanges(int daysFetched, int daysChanged) {
+        mDaysFetched = daysFetched;
+        mDaysChanged = daysChanged;
+    }
+
+    synchronized int getDaysFetched() {
+        return mDaysFetched;
+    }
+
+    synchronized int getDaysChanged() {
+        return mDaysChanged;
+    }
+
+    /**
+     * Applies every operation in one batch.
+     *
+     * @return the rows written for each location that had days added.
+     */
+    synchronized Map<String, Integer> apply(ContentResolver resolver)
+            throws RemoteException, OperationApplicationException {
+        mResults = resolver.applyBatch(WeatherContract.CONTENT_AUTHORITY, mOperations);
+        Map<String, Integer> written = new HashMap<String, Integer>();
+        for (Rows rows : mRows) {
+            int count = sumCounts(rows);
+            for (String locationSetting : rows.locations) {
+                written.put(locationSetting, count);
+            }
+        }
+        return written;
+    }
+
+    /**
+     * @return the number of 3 hour slots the applied set wrote.
+     */
+    synchronized int getSlotsWritten() {
+        int count = 0;
+        for (Rows slots : mSlots) {
+            count += sumCounts(slots);
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of days and 3 hour slots the applied set inserted.  Slots are replaced
+     * wholesale, so they all count as inserted.
+     */
+    synchronized int getRowsInserted() {
+        int inserted = 0;
+        for (Rows rows : getAllRows()) {
+            for (int i = rows.start; i < rows.end; i++) {
+                if (mResults[i].uri != null) {
+                    inserted++;
+                }
+            }
+        }
+        return inserted;
+    }
+
+    /**
+     * @return the number of days the applied set updated in place.
+     */
+    synchronized int getRowsUpdated() {
+        int updated = 0;
+        for (Rows rows : mRows) {
+            for (int i = rows.start; i < rows.end; i++) {
+                if (mResults[i].uri == null) {
+                    updated += mResults[i].count;
+                }
+            }
+        }
+        return updated;
+    }
+
+    private List<Rows> getAllRows() {
+        List<Rows> all = new ArrayList<Rows>(mRows);
+        all.addAll(mSlots);
+        return all;
+    }
+
+    private int sumCounts(Rows rows) {
+        int count = 0;
+        for (int i = rows.start; i < rows.end; i++) {
+            count += getCount(i);
+        }
+        return count;
+    }
+
+    /**
+     * @return the rows an applied operation inserted, updated or deleted.  An insert that
+     * reports a URI rather than a count inserted one, while a day that reports a count was
+     * updated in place or left alone.
+     */
+    synchronized int getCount(int index) {
+        ContentProviderResult result = mResults[index];
+        if (result.count != null) {
+            return result.count;
+        }
+        return result.uri != null ? 1 : 0;
+    }
+}
@@ -31,6 +31,7 @@ public class WatchFaceListener extends WearableListenerService {
             if (event.getType() == DataEvent.TYPE_CHANGED) {
                 DataItem dataItem = event.getDataItem();
                 if (dataItem.getUri().getPath().compareTo("/update_req") == 0) {
+                    SyncScheduler.recordWatchRequest(WatchFaceListener.this);
                     Utility.sendDataToWatch(WatchFaceListener.this, true);
                 }
             }
@@ -0,0 +1,94 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Where the sync adapter gets its forecasts from.  The adapter handles parsing and storage, a
+ * source only has to hand back OpenWeatherMap forecast documents for a location.
+ */
+public interface WeatherSource {
+
+    /**
+     * An open response for one location.  Closing it releases the connection.
+     */
+    interface Response extends Closeable {
+        /**
+         * Whether the server answered a conditional request with "not modified", in which case
+         * there is no body.
+         */
+        boolean isNotModified();
+
+        /**
+         * The HTTP status the server answered with, or 0 if the source doesn't speak HTTP.
+         */
+        int getStatusCode();
+
+        /**
+         * The forecast document.  Only valid until the response is closed.
+         */
+        InputStream getBody() throws IOException;
+
+        /**
+         * The validators to send with the next request for the same location.
+         */
+        HttpValidators getValidators();
+
+        /**
+         * How long the request took, once the body has been read or the response closed.
+         *
+         * @return the timings, or null if the source doesn't measure them.
+         */
+        SyncHttpClient.Timings getTimings();
+
+        /**
+         * Stops the transfer from another thread.  A read of the body in progress fails with an
+         * IOException, and the response still has to be closed.
+         */
+        void abort();
+
+        @Override
+        void close();
+    }
+
+    /**
+     * Identifies the server behind this source, so concurrent requests can be limited per host.
+     */
+    String getHost();
+
+    /**
+     * Requests the daily forecast for a location.
+     *
+     * @param numDays number of days to ask for, starting today
+     * @param validators turn the request into a conditional one, or {@link HttpValidators#NONE}
+     * @throws IOException if the server can't be reached or answers with an error
+     */
+    Response fetchForecast(String locationSetting, int numDays, HttpValidators validators)
+            throws IOException;
+
+    /**
+     * Requests the 5 day forecast in 3 hour slots for a location, as an OpenWeatherMap 5 day /
+     * 3 hour forecast document.
+     *
+     * @throws IOException if the server can't be reached or answers with an error
+     */
+    Response fetchHourlyForecast(String locationSetting) throws IOException;
+
+    /**
+     * @return the most cities {@link #fetchForecastGroup(long[], int)} may be asked for at once,
+     * or 0 if this source doesn't take group requests.
+     */
+    int getMaxGroupSize();
+
+    /**
+     * Requests the daily forecasts of several cities in one request.  The response is a group
+     * document, whose "list" array holds a daily forecast document for each city.  Group
+     * responses carry no validators.
+     *
+     * @param cityIds OpenWeatherMap's IDs for the cities, as many as {@link #getMaxGroupSize()}
+     * @param numDays number of days to ask for, starting today, for every city
+     * @throws IOException if the server can't be reached or answers with an error
+     */
+    Response fetchForecastGroup(long[] cityIds, int numDays) throws IOException;
+}